@@ -456,6 +456,34 @@ JNIEXPORT void JNICALL Java_com_badlogic_gdx_physics_box2d_World_jniStep
 	world->SetContactListener(0);
 }
 
+/*
+ * Class:     com_badlogic_gdx_physics_box2d_World
+ * Method:    jniGetTransforms
+ * Signature: (J[JILjava/nio/FloatBuffer;Z)V
+ */
+JNIEXPORT void JNICALL Java_com_badlogic_gdx_physics_box2d_World_jniGetTransforms
+  (JNIEnv *env, jobject, jlong addr, jlongArray bodies, jint count, jobject transforms, jboolean withVelocity)
+{
+	float* out = (float*)env->GetDirectBufferAddress(transforms);
+	jlong* bodyAddrs = (jlong*)env->GetPrimitiveArrayCritical(bodies, 0);
+	for( int i = 0; i < count; i++ )
+	{
+		b2Body* body = (b2Body*)bodyAddrs[i];
+		const b2Vec2& p = body->GetPosition();
+		*out++ = p.x;
+		*out++ = p.y;
+		*out++ = body->GetAngle();
+		if( withVelocity )
+		{
+			const b2Vec2& v = body->GetLinearVelocity();
+			*out++ = v.x;
+			*out++ = v.y;
+			*out++ = body->IsAwake() ? 1.0f : 0.0f;
+		}
+	}
+	env->ReleasePrimitiveArrayCritical(bodies, bodyAddrs, JNI_ABORT);
+}
+
 /*
  * Class:     com_badlogic_gdx_physics_box2d_World
  * Method:    jniQueryAABB
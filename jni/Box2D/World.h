@@ -134,6 +134,14 @@ JNIEXPORT void JNICALL Java_com_badlogic_gdx_physics_box2d_World_jniDestroyJoint
 JNIEXPORT void JNICALL Java_com_badlogic_gdx_physics_box2d_World_jniStep
   (JNIEnv *, jobject, jlong, jfloat, jint, jint);
 
+/*
+ * Class:     com_badlogic_gdx_physics_box2d_World
+ * Method:    jniGetTransforms
+ * Signature: (J[JILjava/nio/FloatBuffer;Z)V
+ */
+JNIEXPORT void JNICALL Java_com_badlogic_gdx_physics_box2d_World_jniGetTransforms
+  (JNIEnv *, jobject, jlong, jlongArray, jint, jobject, jboolean);
+
 /*
  * Class:     com_badlogic_gdx_physics_box2d_World
  * Method:    jniClearForces
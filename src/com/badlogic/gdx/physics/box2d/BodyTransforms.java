@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Mario Zechner (contact@badlogicgames.com), Nathan Sweet (admin@esotericsoftware.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.badlogic.gdx.physics.box2d;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * A list of bodies whose transforms are read back from the native world in a single call, see
+ * {@link World#getTransforms(BodyTransforms)}. For each body the buffer holds x, y and angle, followed by linear velocity x,
+ * linear velocity y and the awake flag (1 or 0) if velocities are requested.
+ */
+public class BodyTransforms {
+	/** number of floats per body without velocity **/
+	public static final int TRANSFORM_SIZE = 3;
+	/** number of floats per body with velocity and awake flag **/
+	public static final int TRANSFORM_VELOCITY_SIZE = 6;
+
+	protected final ArrayList<Body> bodies = new ArrayList<Body>();
+	protected final boolean withVelocity;
+	protected final int stride;
+	protected long[] addrs;
+	protected FloatBuffer buffer;
+
+	public BodyTransforms () {
+		this(false);
+	}
+
+	/**
+	 * @param withVelocity whether linear velocity and awake flag are read back too
+	 */
+	public BodyTransforms (boolean withVelocity) {
+		this.withVelocity = withVelocity;
+		this.stride = withVelocity ? TRANSFORM_VELOCITY_SIZE : TRANSFORM_SIZE;
+		ensureCapacity(16);
+	}
+
+	private void ensureCapacity (int capacity) {
+		if (addrs != null && addrs.length >= capacity) return;
+		long[] newAddrs = new long[capacity];
+		if (addrs != null) System.arraycopy(addrs, 0, newAddrs, 0, bodies.size());
+		addrs = newAddrs;
+		buffer = ByteBuffer.allocateDirect(capacity * stride * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Adds a body to the end of the list.
+	 */
+	public void add (Body body) {
+		int size = bodies.size();
+		if (size == addrs.length) ensureCapacity(size * 2);
+		addrs[size] = body.addr;
+		bodies.add(body);
+	}
+
+	/**
+	 * Removes the body at the given index, later bodies move down by one.
+	 */
+	public void remove (int index) {
+		int size = bodies.size();
+		System.arraycopy(addrs, index + 1, addrs, index, size - index - 1);
+		bodies.remove(index);
+	}
+
+	/**
+	 * Removes the given body.
+	 * @return whether the body was in the list
+	 */
+	public boolean remove (Body body) {
+		int index = bodies.indexOf(body);
+		if (index < 0) return false;
+		remove(index);
+		return true;
+	}
+
+	public void clear () {
+		bodies.clear();
+	}
+
+	public int size () {
+		return bodies.size();
+	}
+
+	public Body getBody (int index) {
+		return bodies.get(index);
+	}
+
+	public float getX (int index) {
+		return buffer.get(index * stride);
+	}
+
+	public float getY (int index) {
+		return buffer.get(index * stride + 1);
+	}
+
+	public float getAngle (int index) {
+		return buffer.get(index * stride + 2);
+	}
+
+	public float getLinearVelocityX (int index) {
+		if (!withVelocity) throw new IllegalStateException("velocity is not read back");
+		return buffer.get(index * stride + 3);
+	}
+
+	public float getLinearVelocityY (int index) {
+		if (!withVelocity) throw new IllegalStateException("velocity is not read back");
+		return buffer.get(index * stride + 4);
+	}
+
+	public boolean isAwake (int index) {
+		if (!withVelocity) throw new IllegalStateException("awake flag is not read back");
+		return buffer.get(index * stride + 5) != 0;
+	}
+
+	public boolean hasVelocity () {
+		return withVelocity;
+	}
+
+	/**
+	 * @return number of floats per body
+	 */
+	public int getStride () {
+		return stride;
+	}
+
+	/**
+	 * @return the native order direct buffer written by {@link World#getTransforms(BodyTransforms)}
+	 */
+	public FloatBuffer getBuffer () {
+		return buffer;
+	}
+}
@@ -12,6 +12,7 @@
  */
 package com.badlogic.gdx.physics.box2d;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -274,6 +275,44 @@ public class World {
 
 	private native void jniStep (long addr, float timeStep, int velocityIterations, int positionIterations);
 
+	/**
+	 * Reads position, angle and optionally linear velocity and awake flag of all bodies in the given list into its direct
+	 * buffer with a single native call. Call this after {@link #step(float, int, int)}.
+	 * If the loaded native library was built without this call, the bodies are read one by one instead.
+	 * @param transforms the bodies to read and the buffer to write to
+	 */
+	public void getTransforms (BodyTransforms transforms) {
+		if (nativeTransforms) {
+			try {
+				jniGetTransforms(addr, transforms.addrs, transforms.size(), transforms.buffer, transforms.withVelocity);
+				return;
+			} catch (UnsatisfiedLinkError e) {
+				nativeTransforms = false;
+			}
+		}
+		FloatBuffer buffer = transforms.buffer;
+		int stride = transforms.stride;
+		for (int i = 0; i < transforms.size(); i++) {
+			Body body = transforms.getBody(i);
+			int offset = i * stride;
+			Vector2 position = body.getPosition();
+			buffer.put(offset, position.x);
+			buffer.put(offset + 1, position.y);
+			buffer.put(offset + 2, body.getAngle());
+			if (transforms.withVelocity) {
+				Vector2 velocity = body.getLinearVelocity();
+				buffer.put(offset + 3, velocity.x);
+				buffer.put(offset + 4, velocity.y);
+				buffer.put(offset + 5, body.isAwake() ? 1 : 0);
+			}
+		}
+	}
+
+	/** whether the native library has jniGetTransforms **/
+	private static boolean nativeTransforms = true;
+
+	private native void jniGetTransforms (long addr, long[] bodies, int count, FloatBuffer transforms, boolean withVelocity);
+
 	/**
 	 * Call this after you are done with time steps to clear the forces. You normally call this after each call to Step, unless you
 	 * are performing sub-steps. By default, forces will be automatically cleared, so you don't need to call this function.
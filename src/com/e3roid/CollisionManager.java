@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.graphics.Rect;
+
+import com.e3roid.drawable.Shape;
+import com.e3roid.event.CollisionListener;
+import com.e3roid.event.SceneUpdateListener;
+
+/**
+ * Finds colliding shapes of registered groups at once instead of
+ * testing every pair of shapes with Shape#collidesWith.
+ * 
+ * Shapes are sorted by the left edge of their collision rectangle and
+ * swept from left to right, so only shapes that overlap on x axis are compared.
+ * The order is kept between updates, which keeps sorting cheap while shapes move.
+ * 
+ * Register the manager as scene update listener or call update() from an update listener.
+ * Removed and hidden shapes do not collide, and removed shapes are dropped from the manager.
+ * The manager is not thread safe and should be used from the thread that updates the scene.
+ */
+public class CollisionManager implements SceneUpdateListener {
+
+	/**
+	 * Number of groups. Groups are numbered from 0 to MAX_GROUPS - 1.
+	 */
+	public static final int MAX_GROUPS = 32;
+	
+	private final int[] masks = new int[MAX_GROUPS];
+	private final HashMap<Shape, Entry> entryMap = new HashMap<Shape, Entry>();
+	private final ArrayList<CollisionListener> listeners = new ArrayList<CollisionListener>();
+	
+	private Entry[] entries = new Entry[16];
+	private int size = 0;
+	private Entry[] active = new Entry[16];
+	private Entry[] pairs  = new Entry[32];
+	private int pairCount = 0;
+	
+	private static class Entry {
+		final Shape shape;
+		final int group;
+		final int bit;
+		boolean removed = false;
+		int left, top, right, bottom;
+		
+		Entry(Shape shape, int group) {
+			this.shape = shape;
+			this.group = group;
+			this.bit   = 1 << group;
+		}
+	}
+	
+	/**
+	 * Add shape to given group.
+	 * A shape belongs to one group; adding it again moves it to the new group.
+	 * 
+	 * @param shape Shape to add
+	 * @param group group of the shape
+	 */
+	public void add(Shape shape, int group) {
+		checkGroup(group);
+		Entry old = entryMap.get(shape);
+		if (old != null) {
+			if (old.group == group) return;
+			old.removed = true;
+		}
+		Entry entry = new Entry(shape, group);
+		entryMap.put(shape, entry);
+		if (size == entries.length) {
+			Entry[] newEntries = new Entry[size * 2];
+			System.arraycopy(entries, 0, newEntries, 0, size);
+			entries = newEntries;
+		}
+		entries[size++] = entry;
+	}
+	
+	/**
+	 * Remove shape from the manager.
+	 * Shapes may be removed while collisions are reported.
+	 * @param shape Shape to remove
+	 */
+	public void remove(Shape shape) {
+		Entry entry = entryMap.remove(shape);
+		if (entry != null) {
+			entry.removed = true;
+		}
+	}
+	
+	/**
+	 * Remove all shapes from the manager.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			entries[i].removed = true;
+			entries[i] = null;
+		}
+		entryMap.clear();
+		size = 0;
+	}
+	
+	/**
+	 * Returns number of shapes in the manager.
+	 */
+	public int size() {
+		return entryMap.size();
+	}
+	
+	/**
+	 * Set whether shapes of the group collide with shapes of other group.
+	 * Collisions are reported with the shape of the group first.
+	 * 
+	 * @param group group of shapes
+	 * @param otherGroup group that the shapes collide with, may be the same group
+	 * @param collides true to report collisions, false otherwise
+	 */
+	public void setCollides(int group, int otherGroup, boolean collides) {
+		checkGroup(group);
+		checkGroup(otherGroup);
+		if (collides) {
+			masks[group] |= 1 << otherGroup;
+		} else {
+			masks[group] &= ~(1 << otherGroup);
+		}
+	}
+	
+	/**
+	 * Returns whether shapes of the group collide with shapes of other group.
+	 */
+	public boolean collides(int group, int otherGroup) {
+		checkGroup(group);
+		checkGroup(otherGroup);
+		return (masks[group] & (1 << otherGroup)) != 0;
+	}
+	
+	/**
+	 * Add collision listener
+	 * @param listener CollisionListener
+	 */
+	public void addListener(CollisionListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Remove collision listener
+	 * @param listener CollisionListener
+	 */
+	public void removeListener(CollisionListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Called when the scene is updated.
+	 */
+	@Override
+	public void onUpdateScene(E3Scene scene, long elapsedMsec) {
+		update();
+	}
+	
+	/**
+	 * Find colliding shapes and notify listeners.
+	 * @return number of colliding pairs
+	 */
+	public int update() {
+		prepare();
+		sort();
+		sweep();
+		
+		int found = pairCount;
+		for (int i = 0; i < pairCount * 2; i += 2) {
+			Entry a = pairs[i];
+			Entry b = pairs[i + 1];
+			pairs[i] = pairs[i + 1] = null;
+			// either shape may have been removed by a listener
+			if (a.removed || b.removed) continue;
+			for (int j = 0; j < listeners.size(); j++) {
+				listeners.get(j).onCollision(a.shape, a.group, b.shape, b.group);
+			}
+		}
+		pairCount = 0;
+		return found;
+	}
+	
+	private void prepare() {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			Entry entry = entries[i];
+			if (!entry.removed && entry.shape.isRemoved()) {
+				entryMap.remove(entry.shape);
+				entry.removed = true;
+			}
+			if (entry.removed) continue;
+			Rect rect = entry.shape.getCollisionRect();
+			entry.left   = rect.left;
+			entry.top    = rect.top;
+			entry.right  = rect.right;
+			entry.bottom = rect.bottom;
+			entries[n++] = entry;
+		}
+		for (int i = n; i < size; i++) {
+			entries[i] = null;
+		}
+		size = n;
+	}
+	
+	// insertion sort is nearly linear because entries are still sorted from previous update
+	private void sort() {
+		for (int i = 1; i < size; i++) {
+			Entry entry = entries[i];
+			int j = i - 1;
+			while (j >= 0 && entries[j].left > entry.left) {
+				entries[j + 1] = entries[j];
+				j--;
+			}
+			entries[j + 1] = entry;
+		}
+	}
+	
+	private void sweep() {
+		int activeCount = 0;
+		int targets = 0;
+		for (int i = 0; i < MAX_GROUPS; i++) {
+			targets |= masks[i];
+		}
+		
+		for (int i = 0; i < size; i++) {
+			Entry entry = entries[i];
+			// only groups that take part in some collision need to be compared
+			if (masks[entry.group] == 0 && (targets & entry.bit) == 0) continue;
+			if (!entry.shape.isVisible()) continue;
+			
+			int n = 0;
+			for (int j = 0; j < activeCount; j++) {
+				Entry other = active[j];
+				// shapes that end before this one also end before all following shapes
+				if (other.right <= entry.left) continue;
+				active[n++] = other;
+				if (other.left < entry.right && other.top < entry.bottom && entry.top < other.bottom) {
+					if ((masks[other.group] & entry.bit) != 0) {
+						addPair(other, entry);
+					} else if ((masks[entry.group] & other.bit) != 0) {
+						addPair(entry, other);
+					}
+				}
+			}
+			for (int j = n; j < activeCount; j++) {
+				active[j] = null;
+			}
+			activeCount = n;
+			
+			if (activeCount == active.length) {
+				Entry[] newActive = new Entry[activeCount * 2];
+				System.arraycopy(active, 0, newActive, 0, activeCount);
+				active = newActive;
+			}
+			active[activeCount++] = entry;
+		}
+		for (int j = 0; j < activeCount; j++) {
+			active[j] = null;
+		}
+	}
+	
+	private void addPair(Entry a, Entry b) {
+		if (pairCount * 2 == pairs.length) {
+			Entry[] newPairs = new Entry[pairs.length * 2];
+			System.arraycopy(pairs, 0, newPairs, 0, pairs.length);
+			pairs = newPairs;
+		}
+		pairs[pairCount * 2]     = a;
+		pairs[pairCount * 2 + 1] = b;
+		pairCount++;
+	}
+	
+	private static void checkGroup(int group) {
+		if (group < 0 || group >= MAX_GROUPS) {
+			throw new IllegalArgumentException("group must be between 0 and " + (MAX_GROUPS - 1) + ".");
+		}
+	}
+}
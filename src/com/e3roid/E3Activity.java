@@ -76,6 +76,7 @@ public abstract class E3Activity extends Activity implements SceneEventListener,
 	 */
 	protected void onSetContentView() {
 		this.surfaceView = onLoadSurfaceView();
+		this.engine.setDisplayRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
 		this.surfaceView.setRenderer(this.engine);
 		this.setContentView(this.surfaceView, onLayoutParams());
 	}
@@ -13,7 +13,6 @@
  */
 package com.e3roid;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -21,20 +20,30 @@ import javax.microedition.khronos.opengles.GL10;
 
 import org.connectbot.service.TerminalManager;
 
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.View.MeasureSpec;
 import android.content.Context;
 import android.util.DisplayMetrics;
 
+import com.e3roid.drawable.RenderState;
+import com.e3roid.drawable.texture.TextureLoader;
+import com.e3roid.drawable.texture.TextureManager;
 import com.e3roid.lifecycle.E3LifeCycle;
 import com.e3roid.lifecycle.E3Service;
 import com.e3roid.opengl.Camera;
 import com.e3roid.opengl.GLHelper;
+import com.e3roid.opengl.GLSurfaceView;
 import com.e3roid.opengl.GLSurfaceView.Renderer;
 import com.e3roid.opengl.RenderSurfaceView;
 import com.e3roid.util.Debug;
+import com.e3roid.util.AllocationCounter;
 import com.e3roid.util.FPSCounter;
+import com.e3roid.util.FramePacer;
 import com.e3roid.util.IntPair;
+import com.e3roid.util.MpscQueue;
+import com.e3roid.util.SnapshotList;
+import com.e3roid.util.TripleBuffer;
 
 /**
  * A base engine for e3roid framework that responsible for rendering.
@@ -69,6 +78,14 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 * Constant for keeping fixed ratio with auto rotation scene resolution
 	 */
 	public static final int RESOLUTION_FIXED_RATIO_WITH_ROTATION = 6;
+	/**
+	 * Constant for rendering only when requested by requestRender(), limited by preferred FPS if set
+	 */
+	public static final int REFRESH_WHEN_DIRTY = 7;
+	/**
+	 * Default number of scene updates per second on the update thread
+	 */
+	public static final int DEFAULT_UPDATE_RATE = 60;
 	
 	private final E3Activity context;
 	private final DisplayMetrics displayMetrics;
@@ -77,16 +94,38 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	private boolean screenOrientationLandscape = false;
 	private boolean screenOrientationPortrait  = false;
 	private FPSCounter fpsCounter;
-	private FPSCounter refreshFPSCounter;
+	private FramePacer framePacer = null;
+	private AllocationCounter allocationCounter = null;
+	private float displayRefreshRate = 0;
+	private RenderSurfaceView surfaceView = null;
+	private volatile boolean renderRequested = false;
+	private volatile boolean updateChanged = false;
+	private long scheduledRenderTime = Long.MAX_VALUE;
+	private final Runnable scheduledRender = new Runnable() {
+		public void run() {
+			synchronized(this) {
+				scheduledRenderTime = Long.MAX_VALUE;
+			}
+			requestRender();
+		}
+	};
 	private Camera camera = new Camera();
 	private boolean matrixChanged = false;
 	private boolean useVBO = true;
-	private boolean stopped = false;
+	private volatile boolean stopped = false;
+	
+	private boolean useUpdateThread = false;
+	private int updateRate = DEFAULT_UPDATE_RATE;
+	private UpdateThread updateThread = null;
+	private final TripleBuffer renderStates = new TripleBuffer();
+	private volatile RuntimeException updateError = null;
 	
 	private TerminalManager terminalManager = null;
+	private volatile TextureLoader textureLoader = null;
+	private TextureManager textureManager = null;
 	
-	private ArrayList<E3LifeCycle> lifeCycles = new ArrayList<E3LifeCycle>();
-	protected ArrayList<Runnable> postedEvents = new ArrayList<Runnable>();
+	private final SnapshotList<E3LifeCycle> lifeCycles = new SnapshotList<E3LifeCycle>(E3LifeCycle.class);
+	protected final MpscQueue<Runnable> postedEvents = new MpscQueue<Runnable>();
 	protected HashMap<Long, Thread> services = new HashMap<Long, Thread>();
 	
 	private int  refreshMode  = REFRESH_DEFAULT;
@@ -124,6 +163,7 @@ public class E3Engine implements E3LifeCycle, Renderer {
 		
 		updateResolution(width, height);		
 		initializeFPSCounter();
+		camera.setEngine(this);
 	}
 
 	/**
@@ -165,7 +205,12 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	@Override
 	public void onSurfaceLost() {
 		fpsCounter.resetCount();
-		refreshFPSCounter.resetCount();
+		if (framePacer != null) {
+			framePacer.reset();
+		}
+		if (allocationCounter != null) {
+			allocationCounter.reset();
+		}
 	}
 	
 	/**
@@ -174,32 +219,95 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 */
 	@Override
 	public void onDrawFrame(GL10 gl) {
+		// changes made from now on need another frame
+		renderRequested = false;
 		if (scene == null) return;
 		if (stopped) return;
 		if (this.matrixChanged) {
 			camera.reloadMatrix(gl);
 			matrixChanged = false;
 		}
-		refreshFPSCounter.onFrame();
 		if (refreshMode == REFRESH_LIMITED) {
 			if (preferredFPS <= 0) {
 				throw new IllegalArgumentException("preferredFPS must be set while refreshMode equals REFRESH_LIMITED.");
 			}
 			waitForFPS();
+		} else if (refreshMode == REFRESH_WHEN_DIRTY && preferredFPS > 0) {
+			waitForFPS();
 		}
 		
 		camera.look(gl);
+		// the zoom advances only when a frame is drawn
+		if (camera.isZooming()) {
+			requestRender();
+		}
 		
-		synchronized(postedEvents) {
-			if (!postedEvents.isEmpty()) {
-				for (Runnable runnable : postedEvents) {
-					runnable.run();
-				}
-				postedEvents.clear();
+		if (useUpdateThread) {
+			RuntimeException error = updateError;
+			if (error != null) {
+				updateError = null;
+				throw error;
+			}
+			// switch to the latest scene published by the update thread
+			if (renderStates.acquire()) {
+				RenderState.setDrawSlot(renderStates.readIndex());
 			}
+		} else {
+			runPostedEvents();
+		}
+		TextureLoader loader = textureLoader;
+		if (loader != null) {
+			loader.upload(gl);
 		}
 		scene.onDraw(gl);
+		GLHelper.checkFrameError(gl);
 		fpsCounter.onFrame();
+		if (allocationCounter != null) {
+			allocationCounter.onFrame();
+		}
+		
+		if (refreshMode == REFRESH_WHEN_DIRTY && !useUpdateThread) {
+			scheduleUpdateRender();
+		}
+	}
+	
+	/**
+	 * Wake up the GL thread when the next update listener of the scene is due,
+	 * because nothing else renders a frame in REFRESH_WHEN_DIRTY mode.
+	 */
+	private void scheduleUpdateRender() {
+		long due = scene.getUpdateScheduler().nextDueTime();
+		if (due == Long.MAX_VALUE || surfaceView == null) return;
+		synchronized(scheduledRender) {
+			if (due >= scheduledRenderTime) return;
+			scheduledRenderTime = due;
+		}
+		surfaceView.postDelayed(scheduledRender, Math.max(0, due - SystemClock.uptimeMillis()));
+	}
+	
+	/**
+	 * Called on the update thread to update the scene when the update thread is enabled.
+	 * Posted events, update listeners, modifiers and animations run here,
+	 * then render parameters of the scene are handed over to the GL thread.
+	 */
+	protected void onUpdateFrame() {
+		runPostedEvents();
+		scene.onUpdate();
+		scene.saveRenderState(renderStates.writeIndex());
+		renderStates.publish();
+		if (updateChanged) {
+			updateChanged = false;
+			requestSurfaceRender();
+		}
+	}
+	
+	private void runPostedEvents() {
+		// events posted while running are left for the next frame
+		for (int count = postedEvents.size(); count > 0; count--) {
+			Runnable runnable = postedEvents.poll();
+			if (runnable == null) break;
+			runnable.run();
+		}
 	}
 	
 	/**
@@ -252,11 +360,34 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 * @param runnable the action to run on the scene update thread.
 	 */
 	public void postUpdate(Runnable runnable) {
-		synchronized(postedEvents) {
-			postedEvents.add(runnable);
+		postedEvents.offer(runnable);
+		requestRender();
+	}
+	
+	/**
+	 * Request that the engine renders a frame.
+	 * This is needed only when the refresh mode is REFRESH_WHEN_DIRTY.
+	 * Shapes and layers call this when they are changed, and requests are
+	 * coalesced until the next frame is drawn.
+	 * When the update thread is enabled the frame is requested after the
+	 * changes are handed over to the GL thread.
+	 * May be called from any thread.
+	 */
+	public void requestRender() {
+		if (refreshMode != REFRESH_WHEN_DIRTY) return;
+		if (useUpdateThread) {
+			updateChanged = true;
+		} else {
+			requestSurfaceRender();
 		}
 	}
 	
+	private void requestSurfaceRender() {
+		if (renderRequested || surfaceView == null) return;
+		renderRequested = true;
+		surfaceView.requestRender();
+	}
+	
 	/**
 	 * Determine resolution of the screen. 
 	 * If resolution policy equals RESOLUTION_KEEP_RATIO,
@@ -342,17 +473,12 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	}
 	
 	private void waitForFPS() {
+		if (framePacer == null) {
+			framePacer = new FramePacer(preferredFPS);
+			framePacer.setDisplayRefreshRate(displayRefreshRate);
+		}
 		try {
-			if (refreshFPSCounter.getFPS() == 0) return;
-			if (refreshFPSCounter.getFrameCount() == 0) return;
-			if (refreshFPSCounter.getFPS() > this.preferredFPS) {
-				float currentMSec   = (float)1000.0 / refreshFPSCounter.getFPS();
-				float preferredMSec = (float)1000.0 / (float)this.preferredFPS;
-				float waitMsec = (float)preferredMSec - currentMSec;
-				Thread.sleep((long)waitMsec * refreshFPSCounter.getFrameCount());
-			} else {
-				refreshFPSCounter.resetCount();
-			}
+			framePacer.waitForNextFrame();
 		} catch (InterruptedException e) {
 			// do nothing
 		}
@@ -360,9 +486,7 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	
 	private void initializeFPSCounter() {
 		fpsCounter = new FPSCounter();
-		refreshFPSCounter = new FPSCounter();
 		lifeCycles.add(fpsCounter);
-		lifeCycles.add(refreshFPSCounter);		
 	}
 	
 	/**
@@ -371,9 +495,14 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 */
 	@Override
 	public void onResume() {
-		for (E3LifeCycle lifeCycle : lifeCycles) {
-			lifeCycle.onResume();
+		E3LifeCycle[] lifeCycles = this.lifeCycles.snapshot();
+		for (int i = 0; i < lifeCycles.length; i++) {
+			lifeCycles[i].onResume();
+		}
+		if (framePacer != null) {
+			framePacer.reset();
 		}
+		startUpdateThread();
 	}
 	
 	/**
@@ -382,8 +511,10 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 */
 	@Override
 	public void onPause() {
-		for (E3LifeCycle lifeCycle : lifeCycles) {
-			lifeCycle.onPause();
+		stopUpdateThread();
+		E3LifeCycle[] lifeCycles = this.lifeCycles.snapshot();
+		for (int i = 0; i < lifeCycles.length; i++) {
+			lifeCycles[i].onPause();
 		}
 	}
 	
@@ -392,8 +523,10 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 */
 	@Override
 	public void onDispose() {
-		for (E3LifeCycle lifeCycle : lifeCycles) {
-			lifeCycle.onDispose();
+		stopUpdateThread();
+		E3LifeCycle[] lifeCycles = this.lifeCycles.snapshot();
+		for (int i = 0; i < lifeCycles.length; i++) {
+			lifeCycles[i].onDispose();
 		}
 	}
     
@@ -415,6 +548,7 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	 */
 	public boolean onTouchEvent(MotionEvent event) {
 		if (this.scene != null) {
+			requestRender();
 			return scene.onTouchEvent(event);
 		}
 		return false;
@@ -443,20 +577,55 @@ public class E3Engine implements E3LifeCycle, Renderer {
 		this.screenOrientationPortrait  = true;
 	}
 
+	/**
+	 * Called when the surface view for this engine has been set.
+	 * @param view the view that renders this engine
+	 */
+	public void onLoadSurfaceView(RenderSurfaceView view) {
+		this.surfaceView = view;
+		applyRenderMode();
+	}
+	
+	private void applyRenderMode() {
+		if (surfaceView == null) return;
+		surfaceView.setRenderMode(refreshMode == REFRESH_WHEN_DIRTY ?
+				GLSurfaceView.RENDERMODE_WHEN_DIRTY : GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+	}
+	
 	/**
 	 * Set FPS refresh mode
-	 * @param mode One of REFRESH_DEFAULT or REFRESH_LIMITED
+	 * @param mode One of REFRESH_DEFAULT, REFRESH_LIMITED or REFRESH_WHEN_DIRTY
 	 */
 	public void setRefreshMode(int mode) {
 		this.refreshMode = mode;
+		applyRenderMode();
 	}
 	
 	/**
-	 * Set preferred FPS on REFRESH_LIMITED mode
+	 * Returns FPS refresh mode
+	 * @return One of REFRESH_DEFAULT, REFRESH_LIMITED or REFRESH_WHEN_DIRTY
+	 */
+	public int getRefreshMode() {
+		return this.refreshMode;
+	}
+	
+	/**
+	 * Set preferred FPS on REFRESH_LIMITED or REFRESH_WHEN_DIRTY mode
 	 * @param fps
 	 */
 	public void setPreferredFPS(int fps) {
 		this.preferredFPS = fps;
+		this.framePacer = null;
+	}
+	
+	/**
+	 * Set refresh rate of the display.
+	 * The preferred FPS is paced in whole display refresh periods when this is set.
+	 * @param hz refresh rate of the display
+	 */
+	public void setDisplayRefreshRate(float hz) {
+		this.displayRefreshRate = hz;
+		this.framePacer = null;
 	}
 
 	/**
@@ -507,6 +676,15 @@ public class E3Engine implements E3LifeCycle, Renderer {
 		return this.displayMetrics;
 	}
 
+	/**
+	 * Set allocation counter that checks the frames for object allocations.
+	 * This is a debugging aid and should be null (default) in release builds.
+	 * @param counter AllocationCounter, or null to stop counting
+	 */
+	public void setAllocationCounter(AllocationCounter counter) {
+		this.allocationCounter = counter;
+	}
+	
 	/**
 	 * Returns camera of the engine
 	 * @return camera of the engine
@@ -554,6 +732,103 @@ public class E3Engine implements E3LifeCycle, Renderer {
 	public boolean useVBO() {
 		return this.useVBO;
 	}
+	
+	/**
+	 * Set enabled state of the update thread.
+	 * When enabled, posted events, update listeners, modifiers and animations run on
+	 * a dedicated thread at fixed rate instead of the GL thread, and the GL thread draws
+	 * the latest render parameters published by the update thread without waiting for it.
+	 * Modifiers receive null instead of GL object, and frame listeners still run on the GL thread.
+	 * Scene changes should be made from update listeners or postUpdate().
+	 * This must be called before the scene is loaded.
+	 * 
+	 * @param enable true if the update thread is enabled, false otherwise
+	 */
+	public void enableUpdateThread(boolean enable) {
+		this.useUpdateThread = enable;
+	}
+	
+	/**
+	 * Indicates whether the update thread is enabled or not.
+	 * @return
+	 */
+	public boolean useUpdateThread() {
+		return this.useUpdateThread;
+	}
+	
+	/**
+	 * Set number of scene updates per second on the update thread.
+	 * @param rate updates per second
+	 */
+	public void setUpdateRate(int rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Update rate must be positive: " + rate);
+		}
+		this.updateRate = rate;
+	}
+	
+	/**
+	 * Returns number of scene updates per second on the update thread.
+	 * @return updates per second
+	 */
+	public int getUpdateRate() {
+		return this.updateRate;
+	}
+	
+	private void startUpdateThread() {
+		if (!useUpdateThread || scene == null || updateThread != null) return;
+		updateThread = new UpdateThread();
+		updateThread.start();
+	}
+	
+	private void stopUpdateThread() {
+		if (updateThread == null) return;
+		updateThread.interrupt();
+		try {
+			// the next thread must not write render states while this one does
+			updateThread.join();
+		} catch (InterruptedException e) {
+			// do nothing
+		}
+		updateThread = null;
+	}
+	
+	/**
+	 * Thread that updates the scene at fixed rate.
+	 * When updates fall behind more than one interval, the lost time is dropped instead of
+	 * running several updates in a row.
+	 */
+	private class UpdateThread extends Thread {
+		UpdateThread() {
+			super("E3UpdateThread");
+		}
+		
+		@Override
+		public void run() {
+			try {
+				long next = System.nanoTime();
+				while (!isInterrupted()) {
+					if (!stopped) {
+						onUpdateFrame();
+					}
+					long interval = 1000000000L / updateRate;
+					next += interval;
+					long wait = next - System.nanoTime();
+					if (wait > 0) {
+						Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+					} else if (wait < -interval) {
+						next = System.nanoTime();
+					}
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			} catch (RuntimeException e) {
+				// rethrown on the GL thread
+				updateError = e;
+				requestSurfaceRender();
+			}
+		}
+	}
 
 	/**
 	 * Stop the engine. The scene rendering will be stopped.
@@ -613,9 +888,7 @@ public class E3Engine implements E3LifeCycle, Renderer {
 			
 			service.onDispose();
 			
-			if (lifeCycles.contains(service)) {
-				lifeCycles.remove(service);
-			}
+			lifeCycles.remove(service);
 			return true;
 		}
 		return false;
@@ -634,14 +907,42 @@ public class E3Engine implements E3LifeCycle, Renderer {
 		return terminalManager;
 	}
 	
+	/**
+	 * Returns texture manager that shares textures between sprites.
+	 * The memory budget is unlimited until it is set by TextureManager#setBudget(int).
+	 * @return texture manager
+	 */
+	public synchronized TextureManager getTextureManager() {
+		if (textureManager == null) {
+			textureManager = new TextureManager(context);
+		}
+		return textureManager;
+	}
+	
+	/**
+	 * Returns texture loader that decodes textures in the background
+	 * and uploads them before the scene is drawn.
+	 * @return texture loader
+	 */
+	public synchronized TextureLoader getTextureLoader() {
+		if (textureLoader == null) {
+			textureLoader = new TextureLoader(this,
+					TextureLoader.DEFAULT_THREADS, TextureLoader.DEFAULT_BYTES_PER_FRAME);
+			addLifeCycle(textureLoader);
+		}
+		return textureLoader;
+	}
+	
 	/**
 	 * Add object to e3roid life cycle
 	 * @param lifeCycle E3LifeCycle
 	 * @return added or not
 	 */
 	public boolean addLifeCycle(E3LifeCycle lifeCycle) {
-		if (lifeCycles.contains(lifeCycle)) return false;
-		return lifeCycles.add(lifeCycle);
+		synchronized(lifeCycles) {
+			if (lifeCycles.contains(lifeCycle)) return false;
+			return lifeCycles.add(lifeCycle);
+		}
 	}
 	
 	/**
@@ -17,20 +17,25 @@ import javax.microedition.khronos.opengles.GL10;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
+import android.graphics.Rect;
 import android.os.SystemClock;
 import android.view.MotionEvent;
 
 import com.e3roid.drawable.Drawable;
 import com.e3roid.drawable.Layer;
 import com.e3roid.drawable.Shape;
+import com.e3roid.drawable.SpatialIndex;
 import com.e3roid.interfaces.IWidget;
 import com.e3roid.lifecycle.E3LifeCycle;
 import com.e3roid.event.FrameListener;
 import com.e3roid.event.SceneEventListener;
 import com.e3roid.event.SceneUpdateListener;
+import com.e3roid.opengl.Camera;
 import com.e3roid.opengl.GLHelper;
+import com.e3roid.util.SnapshotList;
 
 /**
  * Represents drawable scene that contains background and layers 
@@ -47,19 +52,24 @@ public class E3Scene implements E3LifeCycle {
 	protected ArrayList<Shape> huds = new ArrayList<Shape>();
 	protected ArrayList<Shape> removedHuds = new ArrayList<Shape>();
 	protected ArrayList<Shape> loadableHuds = new ArrayList<Shape>();
-	protected ArrayList<SceneEventListener> eventListeners = new ArrayList<SceneEventListener>();
-	protected HashMap<SceneUpdateListener, UpdateHandler> updateListeners = new HashMap<SceneUpdateListener, UpdateHandler>();
+	protected final SnapshotList<SceneEventListener> eventListeners = new SnapshotList<SceneEventListener>(SceneEventListener.class);
+	protected UpdateScheduler updateScheduler = new UpdateScheduler();
 	protected HashMap<String, Layer> namedLayers = new HashMap<String, Layer>();
-	protected ArrayList<FrameListener> frameListeners = new ArrayList<FrameListener>();
+	protected final SnapshotList<FrameListener> frameListeners = new SnapshotList<FrameListener>(FrameListener.class);
 	
-	// onUpdateScene event listeners property.
-	// if updateIntervalMsec = 0, update event won't happen.
-	protected long lastUpdateMsec = 0;
-	protected long updateIntervalMsec = 0;
-	protected long pausedTimeElapsed = 0;
+	// shape listeners with default touch handling, dispatched through spatial index of their layer
+	protected HashSet<Shape> indexedTouchShapes = new HashSet<Shape>();
+	private final ArrayList<Shape> touchCandidates = new ArrayList<Shape>();
+	private static final HashMap<Class<?>, Boolean> defaultTouchClasses = new HashMap<Class<?>, Boolean>();
+	
+	// layers and HUD that are updated on the update thread of the engine.
+	// arrays are replaced instead of modified so the update thread can iterate them without locks.
+	private volatile Layer[] updateLayers = new Layer[0];
+	private volatile Shape[] updateHuds = new Shape[0];
+	private volatile Layer updateNamedLayer = null;
 	
 	protected String currentLayerName;
-	protected boolean paused = false;
+	protected volatile boolean paused = false;
 	protected boolean reloadScene = false;
 	protected boolean reloadHUD = false;
 	
@@ -81,30 +91,35 @@ public class E3Scene implements E3LifeCycle {
 	public void onDraw(GL10 gl) {
 
 		// invoke frame listeners
-		if (!frameListeners.isEmpty()) {
-			for (FrameListener listener : frameListeners) {
-				listener.beforeOnDraw(this, gl);
-			}
+		FrameListener[] listeners = frameListeners.snapshot();
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].beforeOnDraw(this, gl);
 		}
 		
 		// initialize layers
 		if (!loadableLayers.isEmpty()) {
-			for (Layer layer : loadableLayers) {
-				layer.onLoadEngine(engine);
-				layer.onLoadSurface(gl);
-				layers.add(layer);
-			}		
-			loadableLayers.clear();
+			synchronized (loadableLayers) {
+				for (Layer layer : loadableLayers) {
+					layer.onLoadEngine(engine);
+					layer.onLoadSurface(gl);
+					layers.add(layer);
+				}		
+				loadableLayers.clear();
+			}
+			publishLayers();
 		}
 		
 		// initialize HUD
 		if (!loadableHuds.isEmpty()) {
-			for (Shape hud : loadableHuds) {
-				hud.onLoadEngine(engine);
-				hud.onLoadSurface(gl);
-				huds.add(hud);
+			synchronized (loadableHuds) {
+				for (Shape hud : loadableHuds) {
+					hud.onLoadEngine(engine);
+					hud.onLoadSurface(gl);
+					huds.add(hud);
+				}
+				loadableHuds.clear();
 			}
-			loadableHuds.clear();
+			publishLayers();
 		}
         
 		// Called when onResume() after onPause()
@@ -120,6 +135,7 @@ public class E3Scene implements E3LifeCycle {
         	prepareDraw(gl);
         	
         	Layer namedLayer = namedLayers.get(currentLayerName);
+        	updateNamedLayer = namedLayer;
         	
         	if (namedLayer != null) {
         		if (!namedLayer.isLoaded() && !namedLayer.isEngineLoaded()) {
@@ -128,32 +144,33 @@ public class E3Scene implements E3LifeCycle {
         		}
         	
         		if (!namedLayer.isRemoved()) {
+        			setViewBounds(namedLayer, namedLayer.getX(), namedLayer.getY());
         			namedLayer.onDraw(gl);
+        			Shape.clearViewBounds();
         		} else {
     				namedLayers.remove(namedLayer);
         		}
         	}
         } else if (!paused){
+        	updateNamedLayer = null;
         	prepareDraw(gl);
         	
         	// check update handler
-        	if (updateIntervalMsec > 0 && SystemClock.uptimeMillis() - lastUpdateMsec > updateIntervalMsec) {
-        		for (SceneUpdateListener listener : updateListeners.keySet()) {
-        			UpdateHandler handler = updateListeners.get(listener);
-        			if (handler.interval() <= 0) continue;
-        			long now = SystemClock.uptimeMillis();
-        			long elapsed = handler.elapsed(now);
-        			if (elapsed > handler.interval()) {
-        				listener.onUpdateScene(this, elapsed);
-        				handler.update(now);
-        			}
-        		}
-        		lastUpdateMsec = SystemClock.uptimeMillis();
+        	if (!engine.useUpdateThread()) {
+        		invokeUpdateListeners();
         	}
 
         	// draw layers
-        	for (Layer layer : layers) {
+        	// translation of layers accumulates on the projection matrix
+        	int offsetX = 0;
+        	int offsetY = 0;
+        	for (int i = 0; i < layers.size(); i++) {
+        		Layer layer = layers.get(i);
+        		offsetX += layer.getX();
+        		offsetY += layer.getY();
+        		setViewBounds(layer, offsetX, offsetY);
         		layer.onDraw(gl);
+        		Shape.clearViewBounds();
         	}
 
         	// draw HUD
@@ -161,34 +178,129 @@ public class E3Scene implements E3LifeCycle {
         	engine.getCamera().switchToOrtho(gl);
         	engine.getCamera().lookAtOrthoCenter(gl);
         	GLHelper.switchToModelViewMatrix(gl, true);
-        	for (Shape hud : huds) {
-        		hud.onDraw(gl);
+        	for (int i = 0; i < huds.size(); i++) {
+        		huds.get(i).onDraw(gl);
         	}
         }
         
         // remove layers
         if (!removedLayers.isEmpty()) {
-			for (Layer layer : removedLayers) {
-				layer.onDispose();
-				layers.remove(layer);
-			}
-			removedLayers.clear();        	
+        	synchronized (removedLayers) {
+        		for (Layer layer : removedLayers) {
+        			layer.onDispose();
+        			layers.remove(layer);
+        		}
+        		removedLayers.clear();
+        	}
+        	publishLayers();
         }
         // remove HUD
 		if (!removedHuds.isEmpty()) {
-			for (Shape hud : removedHuds) {
-				hud.onDispose();
-				huds.remove(hud);
+			synchronized (removedHuds) {
+				for (Shape hud : removedHuds) {
+					hud.onDispose();
+					if (huds.remove(hud)) {
+						hud.recycle();
+					}
+				}
+				removedHuds.clear();
 			}
-			removedHuds.clear();
+			publishLayers();
 		}
 		
 		// invoke frame listeners
-		if (!frameListeners.isEmpty()) {
-			for (FrameListener listener : frameListeners) {
-				listener.afterOnDraw(this, gl);
-			}
+		listeners = frameListeners.snapshot();
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].afterOnDraw(this, gl);
+		}
+	}
+	
+	/**
+	 * Called on the update thread of the engine to update scene logic:
+	 * update listeners, modifiers and animations.
+	 * This is used only when the engine updates the scene on its own thread.
+	 */
+	public void onUpdate() {
+		Layer namedLayer = updateNamedLayer;
+		if (namedLayer != null) {
+			namedLayer.onUpdate();
+			return;
+		}
+		if (paused) return;
+		
+		invokeUpdateListeners();
+		for (Layer layer : updateLayers) {
+			layer.onUpdate();
+		}
+		for (Shape hud : updateHuds) {
+			hud.onUpdate();
+		}
+	}
+	
+	/**
+	 * Save render parameters of the scene into given slot.
+	 * Called on the update thread of the engine after each update.
+	 * @param slot index of the slot
+	 */
+	public void saveRenderState(int slot) {
+		Layer namedLayer = updateNamedLayer;
+		if (namedLayer != null) {
+			namedLayer.saveRenderState(slot);
+			return;
+		}
+		for (Layer layer : updateLayers) {
+			layer.saveRenderState(slot);
+		}
+		for (Shape hud : updateHuds) {
+			hud.saveRenderState(slot);
+		}
+	}
+	
+	protected void invokeUpdateListeners() {
+		long now = SystemClock.uptimeMillis();
+		if (now >= updateScheduler.nextDueTime()) {
+			updateScheduler.dispatch(this, now);
+		}
+	}
+	
+	/*
+	 * Hand current layers and HUD over to the update thread.
+	 */
+	private void publishLayers() {
+		if (engine == null || !engine.useUpdateThread()) return;
+		for (Shape hud : huds) {
+			hud.enableAsyncUpdate(true);
+		}
+		updateLayers = layers.toArray(new Layer[layers.size()]);
+		updateHuds = huds.toArray(new Shape[huds.size()]);
+	}
+	
+	/**
+	 * Set view of the camera in coordinates of the layer, so that shapes out of the view are culled.
+	 * Culling is not used with perspective look.
+	 */
+	private void setViewBounds(Layer layer, int offsetX, int offsetY) {
+		Camera camera = engine.getCamera();
+		if (!layer.useCulling() || camera.isPerspective()) return;
+		float left = camera.getEyeX() - offsetX;
+		float top  = camera.getEyeY() - offsetY;
+		Shape.setViewBounds(left, top, left + camera.getWidth(), top + camera.getHeight());
+	}
+	
+	/**
+	 * Returns number of shapes that were out of the view and not drawn in the last frame.
+	 * @return number of culled shapes
+	 */
+	public int getCulledCount() {
+		int count = 0;
+		for (Layer layer : layers) {
+			count += layer.getCulledCount();
 		}
+		Layer namedLayer = updateNamedLayer;
+		if (namedLayer != null) {
+			count += namedLayer.getCulledCount();
+		}
+		return count;
 	}
 	
 	protected void prepareDraw(GL10 gl) {
@@ -212,8 +324,9 @@ public class E3Scene implements E3LifeCycle {
 		for (Layer layer : namedLayers.values()) {
 			layer.onResume();
 		}
-		this.lastUpdateMsec = SystemClock.uptimeMillis() - this.pausedTimeElapsed;
+		updateScheduler.resume(SystemClock.uptimeMillis());
 		this.paused = false;
+		requestRender();
 	}
 	
 	/**
@@ -229,7 +342,7 @@ public class E3Scene implements E3LifeCycle {
 		for (Layer layer : namedLayers.values()) {
 			layer.onPause();
 		}
-		this.pausedTimeElapsed = SystemClock.uptimeMillis() - this.lastUpdateMsec;
+		updateScheduler.pause(SystemClock.uptimeMillis());
 		this.paused = true;
 	}
 
@@ -293,7 +406,10 @@ public class E3Scene implements E3LifeCycle {
 	 * @param layer Layer to add to the scene.
 	 */
 	public void addLayer(Layer layer) {
-		loadableLayers.add(layer);
+		synchronized (loadableLayers) {
+			loadableLayers.add(layer);
+		}
+		requestRender();
 	}
 
 	/**
@@ -303,7 +419,10 @@ public class E3Scene implements E3LifeCycle {
 	 */
 	public void removeLayer(Layer layer) {
 		layer.onRemove();
-		removedLayers.add(layer);
+		synchronized (removedLayers) {
+			removedLayers.add(layer);
+		}
+		requestRender();
 	}
 	
 	/**
@@ -335,6 +454,7 @@ public class E3Scene implements E3LifeCycle {
 	 */
 	public void setCurrentLayerName(String name) {
 		this.currentLayerName = name;
+		requestRender();
 	}
 	
 	/**
@@ -372,6 +492,7 @@ public class E3Scene implements E3LifeCycle {
 	 */
 	public void resetNamedLayer() {
 		this.currentLayerName = null;
+		requestRender();
 	}
 	
 	/**
@@ -398,7 +519,10 @@ public class E3Scene implements E3LifeCycle {
 	 * @param shape Shape object to add to HUD.
 	 */
 	public void addHUD(Shape shape) {
-		loadableHuds.add(shape);
+		synchronized (loadableHuds) {
+			loadableHuds.add(shape);
+		}
+		requestRender();
 	}
 
 	/**
@@ -407,7 +531,10 @@ public class E3Scene implements E3LifeCycle {
 	 */
 	public void removeHUD(Shape shape) {
 		shape.onRemove();
-		removedHuds.add(shape);
+		synchronized (removedHuds) {
+			removedHuds.add(shape);
+		}
+		requestRender();
 	}
 	
 	/**
@@ -423,7 +550,17 @@ public class E3Scene implements E3LifeCycle {
 		this.color[1] = green;
 		this.color[2] = blue;
 		this.color[3] = alpha;
+		requestRender();
+	}
+	/**
+	 * Request that the engine renders a frame because the scene has been changed.
+	 */
+	protected void requestRender() {
+		if (engine != null) {
+			engine.requestRender();
+		}
 	}
+
 	
 	/**
 	 * Set background color
@@ -443,14 +580,98 @@ public class E3Scene implements E3LifeCycle {
 	 * @return True if the event was handled, false otherwise. 
 	 */
 	public boolean onTouchEvent(MotionEvent event) {
+		boolean indexed = !indexedTouchShapes.isEmpty();
 		boolean handled = false;
-		for (SceneEventListener listener : eventListeners) {
+		SceneEventListener[] listeners = eventListeners.snapshot();
+		int stop = listeners.length;
+		for (int i = 0; i < listeners.length; i++) {
+			SceneEventListener listener = listeners[i];
+			if (indexed && isIndexedTouchShape(listener)) continue;
 			handled = listener.onSceneTouchEvent(this, event);
-			if (handled) break;
+			if (handled) {
+				stop = i;
+				break;
+			}
+		}
+		if (indexed) {
+			dispatchIndexedTouchEvent(event, listeners, stop);
 		}
 		return handled;
 	}
 	
+	/**
+	 * Dispatch touch event to shape listeners found under each pointer
+	 * by spatial index of the layers. These shapes never handle the event,
+	 * so they are dispatched after other listeners, but only the shapes
+	 * registered before the listener that handled the event receive it,
+	 * as if they were called in order of registration.
+	 */
+	private void dispatchIndexedTouchEvent(MotionEvent event, SceneEventListener[] listeners, int stop) {
+		E3Activity context = engine.getContext();
+		int pointerCount = event.getPointerCount();
+		for (int i = 0; i < pointerCount; i++) {
+			int globalX = context.getTouchEventX(this, event, i);
+			int globalY = context.getTouchEventY(this, event, i);
+			
+			touchCandidates.clear();
+			for (int j = 0; j < layers.size(); j++) {
+				SpatialIndex index = layers.get(j).getSpatialIndex();
+				if (index != null) {
+					index.findCandidatesAt(globalX, globalY, touchCandidates);
+				}
+			}
+			for (Layer layer : namedLayers.values()) {
+				SpatialIndex index = layer.getSpatialIndex();
+				if (index != null) {
+					index.findCandidatesAt(globalX, globalY, touchCandidates);
+				}
+			}
+			
+			for (int j = 0; j < touchCandidates.size(); j++) {
+				Shape shape = touchCandidates.get(j);
+				if (!indexedTouchShapes.contains(shape)) continue;
+				if (shape.isRemoved() || shape.isTransparent() || !shape.isVisible()) continue;
+				if (stop < listeners.length && !isRegisteredBefore(shape, listeners, stop)) continue;
+				shape.onSceneTouchEvent(this, event, globalX, globalY);
+			}
+		}
+		touchCandidates.clear();
+	}
+	
+	private static boolean isRegisteredBefore(Shape shape, SceneEventListener[] listeners, int stop) {
+		for (int i = 0; i < stop; i++) {
+			if (listeners[i] == shape) return true;
+		}
+		return false;
+	}
+	
+	private boolean isIndexedTouchShape(SceneEventListener listener) {
+		return listener instanceof Shape && 
+				((Shape)listener).getSpatialIndex() != null && indexedTouchShapes.contains(listener);
+	}
+	
+	/**
+	 * Indicates whether the shape uses touch handling of Shape class,
+	 * which only tests the pointers against the shape.
+	 * Shapes that override onSceneTouchEvent receive every event.
+	 */
+	private static boolean hasDefaultTouchHandling(Shape shape) {
+		Class<?> cls = shape.getClass();
+		synchronized (defaultTouchClasses) {
+			Boolean result = defaultTouchClasses.get(cls);
+			if (result == null) {
+				try {
+					Class<?> declaring = cls.getMethod("onSceneTouchEvent", E3Scene.class, MotionEvent.class).getDeclaringClass();
+					result = declaring == Shape.class;
+				} catch (NoSuchMethodException e) {
+					result = false;
+				}
+				defaultTouchClasses.put(cls, result);
+			}
+			return result;
+		}
+	}
+	
 	/**
 	 * Returns first drawable at given coordinates.
 	 * 
@@ -480,6 +701,20 @@ public class E3Scene implements E3LifeCycle {
 		}
 		return drawables;
 	}
+	
+	/**
+	 * Returns all shapes that collide with given rectangle.
+	 * 
+	 * @param rect rectangle within the scene
+	 * @return Shape objects if exist, empty list otherwise.
+	 */
+	public List<Shape> findShapesIn(Rect rect) {
+		ArrayList<Shape> shapes = new ArrayList<Shape>();
+		for (Layer layer : layers) {
+			shapes.addAll(layer.findShapesIn(rect));
+		}
+		return shapes;
+	}
 
 	/**
 	 * Called when e3roid engine is loaded.
@@ -573,6 +808,9 @@ public class E3Scene implements E3LifeCycle {
 	 */
 	public void addEventListener(SceneEventListener listener) {
 		eventListeners.add(listener);
+		if (listener instanceof Shape && hasDefaultTouchHandling((Shape)listener)) {
+			indexedTouchShapes.add((Shape)listener);
+		}
 	}
 	
 	/**
@@ -582,6 +820,7 @@ public class E3Scene implements E3LifeCycle {
 	 */
 	public void removeEventListener(SceneEventListener listener) {
 		eventListeners.remove(listener);
+		indexedTouchShapes.remove(listener);
 	}
 	
 	/**
@@ -640,8 +879,8 @@ public class E3Scene implements E3LifeCycle {
 	
 	/**
 	 * Register update event listener.
-	 * For performance reasons, listening interval accuracy is around intervalMsec / 100.
-	 * If you want to update listeners more accurate or want to listen on every frame,
+	 * The listener is called when given interval has passed since its previous call.
+	 * If you want to listen on every frame,
 	 * implement Drawable class and add it to the layer,
 	 * or implement FrameListener and add it to the scene.
 	 * 
@@ -649,14 +888,18 @@ public class E3Scene implements E3LifeCycle {
 	 * @param listener SceneUpdateListener
 	 */
 	public void registerUpdateListener(int intervalMsec, SceneUpdateListener listener) {
-		UpdateHandler handler = new UpdateHandler(intervalMsec);
-		updateListeners.put(listener, handler);
-		int interval = intervalMsec > 100 ? intervalMsec / 100 : 1;
-		if (this.updateIntervalMsec == 0) {
-			this.updateIntervalMsec = interval;
-		} else {
-			this.updateIntervalMsec = Math.min(this.updateIntervalMsec, interval);
-		}
+		registerUpdateListener(intervalMsec, listener, UpdateScheduler.FIXED_DELAY);
+	}
+	
+	/**
+	 * Register update event listener with given schedule mode.
+	 * 
+	 * @param intervalMsec update interval milliseconds
+	 * @param listener SceneUpdateListener
+	 * @param mode one of UpdateScheduler.FIXED_DELAY, FIXED_RATE or FIXED_RATE_SKIP
+	 */
+	public void registerUpdateListener(int intervalMsec, SceneUpdateListener listener, int mode) {
+		updateScheduler.register(intervalMsec, listener, mode, SystemClock.uptimeMillis());
 	}
 
 	/**
@@ -665,26 +908,14 @@ public class E3Scene implements E3LifeCycle {
 	 * @param listener SceneUpdateListener
 	 */
 	public void unregisterUpdateListener(SceneUpdateListener listener) {
-		updateListeners.remove(listener);
+		updateScheduler.unregister(listener);
 	}
 	
-	class UpdateHandler {
-		private int  intervalMsec = 0;
-		private long lastTimeMillis = SystemClock.uptimeMillis();
-		UpdateHandler(int interval) {
-			intervalMsec = interval;
-		}
-		int interval() {
-			return intervalMsec;
-		}
-		void update(long msec) {
-			lastTimeMillis = msec;
-		}
-		long elapsed(long msec) {
-			return msec - lastTimeMillis; 
-		}
-		void reset() {
-			lastTimeMillis = 0;
-		}
+	/**
+	 * Returns scheduler of update event listeners.
+	 * @return UpdateScheduler
+	 */
+	public UpdateScheduler getUpdateScheduler() {
+		return updateScheduler;
 	}
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid;
+
+import java.util.HashMap;
+
+import com.e3roid.event.SceneUpdateListener;
+
+/**
+ * Scheduler of scene update listeners.
+ * Listeners are kept in a binary min-heap ordered by their next due time,
+ * so each update only looks at the listeners that are due
+ * instead of checking every registered listener.
+ * 
+ * Public methods are synchronized, because listeners may be registered from the UI
+ * or GL thread while the update thread of the engine dispatches them.
+ * Listeners run while the scheduler is locked, so they can register and unregister
+ * listeners themselves but should not wait for other threads.
+ */
+public class UpdateScheduler {
+
+	/**
+	 * Constant for running the listener when given interval has passed since its previous run.
+	 * Late runs delay all following runs.
+	 */
+	public static final int FIXED_DELAY = 0;
+	/**
+	 * Constant for running the listener at fixed rate.
+	 * Runs missed by late updates are run in a row, up to max catch up count,
+	 * and each run receives the interval as elapsed time.
+	 */
+	public static final int FIXED_RATE = 1;
+	/**
+	 * Constant for running the listener at fixed rate, skipping runs missed by late updates.
+	 */
+	public static final int FIXED_RATE_SKIP = 2;
+
+	/**
+	 * Default number of missed runs that are run in a row with FIXED_RATE
+	 */
+	public static final int MAX_CATCH_UP_DEFAULT = 5;
+
+	private final HashMap<SceneUpdateListener, Entry> entries = new HashMap<SceneUpdateListener, Entry>();
+	private Entry[] heap = new Entry[16];
+	private int size = 0;
+	private int maxCatchUp = MAX_CATCH_UP_DEFAULT;
+	private long pausedMsec = -1;
+
+	/**
+	 * Register the listener. A listener that is already registered is rescheduled.
+	 * Listeners with zero or negative interval are never run.
+	 * 
+	 * @param intervalMsec update interval milliseconds
+	 * @param listener SceneUpdateListener
+	 * @param mode one of FIXED_DELAY, FIXED_RATE or FIXED_RATE_SKIP
+	 * @param now current time in milliseconds
+	 */
+	public synchronized void register(int intervalMsec, SceneUpdateListener listener, int mode, long now) {
+		unregister(listener);
+		if (intervalMsec <= 0) return;
+		Entry entry = new Entry(listener, intervalMsec, mode);
+		entry.last = now;
+		entry.due  = now + intervalMsec;
+		entries.put(listener, entry);
+		offer(entry);
+	}
+
+	/**
+	 * Unregister the listener.
+	 * @param listener SceneUpdateListener
+	 * @return true if the listener was registered, false otherwise.
+	 */
+	public synchronized boolean unregister(SceneUpdateListener listener) {
+		Entry entry = entries.remove(listener);
+		if (entry == null) return false;
+		entry.cancelled = true;
+		if (entry.index >= 0) {
+			removeAt(entry.index);
+		}
+		return true;
+	}
+
+	/**
+	 * Run listeners that are due at given time.
+	 * 
+	 * @param scene the scene that is passed to listeners
+	 * @param now current time in milliseconds
+	 */
+	public synchronized void dispatch(E3Scene scene, long now) {
+		if (pausedMsec >= 0) return;
+		while (size > 0 && heap[0].due <= now) {
+			Entry entry = poll();
+			run(scene, entry, now);
+			if (!entry.cancelled) {
+				offer(entry);
+			}
+		}
+	}
+
+	private void run(E3Scene scene, Entry entry, long now) {
+		if (entry.mode == FIXED_RATE) {
+			int runs = 0;
+			while (entry.due <= now && runs < maxCatchUp && !entry.cancelled) {
+				entry.listener.onUpdateScene(scene, entry.interval);
+				entry.last = entry.due;
+				entry.due += entry.interval;
+				runs++;
+			}
+			if (entry.due <= now) {
+				// drop the runs that could not be caught up
+				entry.due = now + entry.interval - (now - entry.due) % entry.interval;
+			}
+		} else if (entry.mode == FIXED_RATE_SKIP) {
+			entry.listener.onUpdateScene(scene, now - entry.last);
+			entry.last = now;
+			entry.due += ((now - entry.due) / entry.interval + 1) * entry.interval;
+		} else {
+			entry.listener.onUpdateScene(scene, now - entry.last);
+			entry.last = now;
+			entry.due  = now + entry.interval;
+		}
+	}
+
+	/**
+	 * Stop running listeners until resume() is called.
+	 * @param now current time in milliseconds
+	 */
+	public synchronized void pause(long now) {
+		if (pausedMsec < 0) {
+			pausedMsec = now;
+		}
+	}
+
+	/**
+	 * Resume running listeners. Paused time is not counted as elapsed time.
+	 * @param now current time in milliseconds
+	 */
+	public synchronized void resume(long now) {
+		if (pausedMsec < 0) return;
+		long delta = now - pausedMsec;
+		for (int i = 0; i < size; i++) {
+			heap[i].due  += delta;
+			heap[i].last += delta;
+		}
+		pausedMsec = -1;
+	}
+
+	/**
+	 * Set max number of missed runs that are run in a row with FIXED_RATE.
+	 * @param count max catch up count
+	 */
+	public synchronized void setMaxCatchUp(int count) {
+		this.maxCatchUp = Math.max(1, count);
+	}
+
+	/**
+	 * Returns number of registered listeners.
+	 * @return number of registered listeners
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns time when the next listener is due.
+	 * @return due time in milliseconds, or Long.MAX_VALUE if no listener is registered.
+	 */
+	public synchronized long nextDueTime() {
+		return size > 0 ? heap[0].due : Long.MAX_VALUE;
+	}
+
+	private void offer(Entry entry) {
+		if (size == heap.length) {
+			Entry[] newHeap = new Entry[size * 2];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+		heap[size] = entry;
+		entry.index = size;
+		size++;
+		siftUp(entry.index);
+	}
+
+	private Entry poll() {
+		Entry entry = heap[0];
+		removeAt(0);
+		return entry;
+	}
+
+	private void removeAt(int index) {
+		Entry removed = heap[index];
+		size--;
+		if (index != size) {
+			heap[index] = heap[size];
+			heap[index].index = index;
+			heap[size] = null;
+			siftDown(index);
+			siftUp(index);
+		} else {
+			heap[size] = null;
+		}
+		removed.index = -1;
+	}
+
+	private void siftUp(int index) {
+		Entry entry = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >> 1;
+			if (heap[parent].due <= entry.due) break;
+			heap[index] = heap[parent];
+			heap[index].index = index;
+			index = parent;
+		}
+		heap[index] = entry;
+		entry.index = index;
+	}
+
+	private void siftDown(int index) {
+		Entry entry = heap[index];
+		int half = size >> 1;
+		while (index < half) {
+			int child = (index << 1) + 1;
+			if (child + 1 < size && heap[child + 1].due < heap[child].due) {
+				child++;
+			}
+			if (entry.due <= heap[child].due) break;
+			heap[index] = heap[child];
+			heap[index].index = index;
+			index = child;
+		}
+		heap[index] = entry;
+		entry.index = index;
+	}
+
+	static class Entry {
+		final SceneUpdateListener listener;
+		final int interval;
+		final int mode;
+		long due;
+		long last;
+		int index = -1;
+		boolean cancelled = false;
+
+		Entry(SceneUpdateListener listener, int interval, int mode) {
+			this.listener = listener;
+			this.interval = interval;
+			this.mode = mode;
+		}
+	}
+}
@@ -15,8 +15,11 @@ package com.e3roid.drawable;
 
 import javax.microedition.khronos.opengles.GL10;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import android.graphics.Rect;
 import android.view.MotionEvent;
 
 import com.e3roid.E3Engine;
@@ -32,9 +35,18 @@ public class Layer implements Drawable, SceneEventListener {
 	private ArrayList<Drawable> drawables = new ArrayList<Drawable>();
 	private ArrayList<Drawable> removedDrawables = new ArrayList<Drawable>();
 	private ArrayList<Drawable> loadableDrawables = new ArrayList<Drawable>();
+	// drawables that are updated on the update thread of the engine
+	private volatile Drawable[] updateDrawables = new Drawable[0];
 	private boolean removed = false;
 	private boolean loaded  = false;
 	private E3Engine engine;
+	private SpriteBatch spriteBatch;
+	private SpatialIndex spatialIndex;
+	private boolean culling = true;
+	private int culledCount = 0;
+	// drawables that are not held by the spatial index, with their drawing order
+	private HashMap<Drawable, Integer> unindexedDrawables = new HashMap<Drawable, Integer>();
+	private int drawOrder = 0;
 	
 	private int[] translate = {
 		0, 0, 0	
@@ -48,29 +60,40 @@ public class Layer implements Drawable, SceneEventListener {
 	public void onDraw(GL10 gl) {
 		// initialize drawables
 		if (!loadableDrawables.isEmpty()) {
-			for (Drawable drawable : loadableDrawables) {
-				drawable.onLoadEngine(engine);
-				drawable.onLoadSurface(gl);
-				if (drawable instanceof Background) {
-					if (drawables.size() > 0 && drawables.get(0) instanceof Background) {
-						if (drawables.get(0).equals(drawable)) {
-							((Background)drawable).show();
-						} else {
-							if (drawables.contains(drawable)) {
+			synchronized (loadableDrawables) {
+				// backgrounds inserted at the bottom shift the draw order of all drawables
+				boolean reindex = false;
+				for (Drawable drawable : loadableDrawables) {
+					drawable.onLoadEngine(engine);
+					drawable.onLoadSurface(gl);
+					if (drawable instanceof Background) {
+						if (drawables.size() > 0 && drawables.get(0) instanceof Background) {
+							if (drawables.get(0).equals(drawable)) {
 								((Background)drawable).show();
 							} else {
-								((Background)drawables.get(0)).hide();
-								this.drawables.add(0, drawable);
+								if (drawables.contains(drawable)) {
+									((Background)drawable).show();
+								} else {
+									((Background)drawables.get(0)).hide();
+									this.drawables.add(0, drawable);
+									reindex = true;
+								}
 							}
+						} else {
+							this.drawables.add(0, drawable);
+							reindex = true;
 						}
 					} else {
-						this.drawables.add(0, drawable);
+						this.drawables.add(drawable);
+						indexDrawable(drawable);
 					}
-				} else {
-					this.drawables.add(drawable);
+				}
+				loadableDrawables.clear();
+				if (reindex) {
+					rebuildIndex();
 				}
 			}
-			loadableDrawables.clear();
+			publishDrawables();
 		}
 		
 		// Called when onResume() after onPause()
@@ -78,6 +101,9 @@ public class Layer implements Drawable, SceneEventListener {
 			for (Drawable drawable : drawables) {
 				drawable.onLoadSurface(gl, true);
 			}
+			if (spriteBatch != null) {
+				spriteBatch.setLoaded(false);
+			}
 			setLoaded(true);
 		}
 		
@@ -87,18 +113,78 @@ public class Layer implements Drawable, SceneEventListener {
 		GLHelper.switchToModelViewMatrix(gl);
 		
 		// draw drawables
-		for (Drawable drawable : drawables) {
-			drawable.onDraw(gl);
+		int culledBefore = Shape.getCulledCount();
+		if (spriteBatch != null) {
+			spriteBatch.begin(gl, engine.useVBO());
+			for (int i = 0; i < drawables.size(); i++) {
+				Drawable drawable = drawables.get(i);
+				if (!(drawable instanceof Sprite)) {
+					spriteBatch.flush(gl);
+				}
+				drawable.onDraw(gl);
+			}
+			spriteBatch.end(gl);
+		} else {
+			for (int i = 0; i < drawables.size(); i++) {
+				drawables.get(i).onDraw(gl);
+			}
 		}
+		culledCount = Shape.getCulledCount() - culledBefore;
 		
 		// remove drawables
 		if (!removedDrawables.isEmpty()) {
-			for (Drawable drawable : removedDrawables) {
-				drawables.remove(drawable);
-				drawable.onDispose();
+			synchronized (removedDrawables) {
+				for (Drawable drawable : removedDrawables) {
+					boolean contained = drawables.remove(drawable);
+					unindexDrawable(drawable);
+					drawable.onDispose();
+					if (contained && drawable instanceof Shape) {
+						((Shape)drawable).recycle();
+					}
+				}
+				removedDrawables.clear();
+			}
+			publishDrawables();
+		}
+	}
+	
+	/**
+	 * Called on the update thread of the engine to update drawables of the layer.
+	 * This is used only when the engine updates the scene on its own thread.
+	 */
+	public void onUpdate() {
+		for (Drawable drawable : updateDrawables) {
+			if (drawable instanceof Shape) {
+				((Shape)drawable).onUpdate();
+			}
+		}
+	}
+	
+	/**
+	 * Save render parameters of the drawables into given slot.
+	 * Called on the update thread of the engine after each update.
+	 * @param slot index of the slot
+	 */
+	public void saveRenderState(int slot) {
+		for (Drawable drawable : updateDrawables) {
+			if (drawable instanceof Shape) {
+				((Shape)drawable).saveRenderState(slot);
+			}
+		}
+	}
+	
+	/*
+	 * Hand current drawables over to the update thread.
+	 * The array is replaced instead of modified so the update thread can iterate it without locks.
+	 */
+	private void publishDrawables() {
+		if (engine == null || !engine.useUpdateThread()) return;
+		for (Drawable drawable : drawables) {
+			if (drawable instanceof Shape) {
+				((Shape)drawable).enableAsyncUpdate(true);
 			}
-			removedDrawables.clear();
 		}
+		updateDrawables = drawables.toArray(new Drawable[drawables.size()]);
 	}
 	
 	/**
@@ -132,6 +218,7 @@ public class Layer implements Drawable, SceneEventListener {
 	 */
 	public void moveX(int x) {
 		this.translate[0] = x;
+		requestRender();
 	}
 
 	/**
@@ -141,6 +228,7 @@ public class Layer implements Drawable, SceneEventListener {
 	 */
 	public void moveY(int y) {
 		this.translate[1] = y;
+		requestRender();
 	}
 	
 	/**
@@ -150,6 +238,7 @@ public class Layer implements Drawable, SceneEventListener {
 	 */
 	public void moveZ(int z) {
 		this.translate[2] = z;
+		requestRender();
 	}
 	
 	/**
@@ -159,6 +248,7 @@ public class Layer implements Drawable, SceneEventListener {
 		this.translate[0] = 0;
 		this.translate[1] = 0;
 		this.translate[2] = 0;
+		requestRender();
 	}
 	
 	/**
@@ -168,6 +258,150 @@ public class Layer implements Drawable, SceneEventListener {
 		this.translate[0] = x;
 		this.translate[1] = y;
 		this.translate[2] = z;
+		requestRender();
+	}
+	
+	/**
+	 * Request that the engine renders a frame because the layer has been changed.
+	 */
+	protected void requestRender() {
+		if (engine != null) {
+			engine.requestRender();
+		}
+	}
+	
+	/**
+	 * Enables sprite batching for this layer.
+	 * Sprites that share the same texture are drawn with single draw call.
+	 * @param enable true if batching is enabled, false otherwise
+	 */
+	public void enableSpriteBatch(boolean enable) {
+		if (enable && spriteBatch == null) {
+			spriteBatch = new SpriteBatch();
+		} else if (!enable) {
+			spriteBatch = null;
+		}
+	}
+	
+	/**
+	 * Enables sprite batching for this layer with given batch.
+	 * @param batch SpriteBatch
+	 */
+	public void setSpriteBatch(SpriteBatch batch) {
+		this.spriteBatch = batch;
+	}
+	
+	/**
+	 * Returns sprite batch of this layer.
+	 * @return sprite batch, or null if batching is disabled.
+	 */
+	public SpriteBatch getSpriteBatch() {
+		return this.spriteBatch;
+	}
+	
+	/**
+	 * Indicates whether sprite batching is enabled or not.
+	 * @return
+	 */
+	public boolean useSpriteBatch() {
+		return this.spriteBatch != null;
+	}
+	
+	/**
+	 * Enables culling for this layer.
+	 * Shapes that are entirely out of the camera view are not drawn,
+	 * while their modifiers are still updated. Culling is enabled by default.
+	 * @param enable true if culling is enabled, false otherwise
+	 */
+	public void enableCulling(boolean enable) {
+		this.culling = enable;
+	}
+	
+	/**
+	 * Indicates whether culling is enabled or not.
+	 * @return
+	 */
+	public boolean useCulling() {
+		return this.culling;
+	}
+	
+	/**
+	 * Returns number of shapes that were out of the view and not drawn in the last frame.
+	 * @return number of culled shapes
+	 */
+	public int getCulledCount() {
+		return this.culledCount;
+	}
+	
+	/**
+	 * Enables spatial index with default cell size for this layer.
+	 * Shapes of the layer are found by their position instead of testing every drawable
+	 * on hit-testing, rectangle queries and touch dispatch of the scene.
+	 * @param enable true if spatial index is enabled, false otherwise
+	 */
+	public void enableSpatialIndex(boolean enable) {
+		if (enable && spatialIndex == null) {
+			setSpatialIndex(new SpatialIndex());
+		} else if (!enable) {
+			setSpatialIndex(null);
+		}
+	}
+	
+	/**
+	 * Enables spatial index for this layer with given index.
+	 * @param index SpatialIndex, or null to disable the index
+	 */
+	public void setSpatialIndex(SpatialIndex index) {
+		if (spatialIndex != null) {
+			spatialIndex.clear();
+		}
+		this.spatialIndex = index;
+		rebuildIndex();
+	}
+	
+	/**
+	 * Returns spatial index of this layer.
+	 * @return spatial index, or null if the index is disabled.
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return this.spatialIndex;
+	}
+	
+	/**
+	 * Indicates whether spatial index is enabled or not.
+	 * @return
+	 */
+	public boolean useSpatialIndex() {
+		return this.spatialIndex != null;
+	}
+	
+	private void indexDrawable(Drawable drawable) {
+		if (spatialIndex == null) return;
+		if (drawable instanceof Shape) {
+			spatialIndex.add((Shape)drawable, drawOrder++);
+		} else if (!unindexedDrawables.containsKey(drawable)) {
+			unindexedDrawables.put(drawable, drawOrder++);
+		}
+	}
+	
+	private void unindexDrawable(Drawable drawable) {
+		if (spatialIndex == null) return;
+		if (drawable instanceof Shape) {
+			spatialIndex.remove((Shape)drawable);
+		} else {
+			unindexedDrawables.remove(drawable);
+		}
+	}
+	
+	private void rebuildIndex() {
+		if (spatialIndex != null) {
+			spatialIndex.clear();
+		}
+		unindexedDrawables.clear();
+		drawOrder = 0;
+		for (Drawable drawable : drawables) {
+			indexDrawable(drawable);
+		}
 	}
 	
 	/**
@@ -175,7 +409,10 @@ public class Layer implements Drawable, SceneEventListener {
 	 * @param drawable Background
 	 */
 	public void setBackground(Background drawable) {
-		loadableDrawables.add(0, drawable);
+		synchronized (loadableDrawables) {
+			loadableDrawables.add(0, drawable);
+		}
+		requestRender();
 	}
 
 	/**
@@ -186,7 +423,10 @@ public class Layer implements Drawable, SceneEventListener {
 		if (drawables.contains(drawable)) {
 			return;
 		}
-		this.loadableDrawables.add(drawable);
+		synchronized (loadableDrawables) {
+			this.loadableDrawables.add(drawable);
+		}
+		requestRender();
 	}
 	
 	/**
@@ -195,7 +435,10 @@ public class Layer implements Drawable, SceneEventListener {
 	 */
 	public void remove(Drawable drawable) {
 		drawable.onRemove();
-		removedDrawables.add(drawable);
+		synchronized (removedDrawables) {
+			removedDrawables.add(drawable);
+		}
+		requestRender();
 	}
 	
 	/**
@@ -321,6 +564,8 @@ public class Layer implements Drawable, SceneEventListener {
 	 */
 	public void setDrawables(ArrayList<Drawable> drawables) {
 		this.drawables = drawables;
+		rebuildIndex();
+		publishDrawables();
 	}
 	
 	/**
@@ -330,6 +575,18 @@ public class Layer implements Drawable, SceneEventListener {
 	 * @return Drawable returns null if no drawables are found
 	 */
 	public Drawable findDrawableAt(int x, int y) {
+		if (spatialIndex != null) {
+			Shape shape = spatialIndex.findShapeAt(x, y);
+			Drawable found = shape;
+			int order = shape != null ? shape.indexOrder : Integer.MAX_VALUE;
+			for (Map.Entry<Drawable, Integer> entry : unindexedDrawables.entrySet()) {
+				if (entry.getValue() < order && entry.getKey().contains(x, y)) {
+					found = entry.getKey();
+					order = entry.getValue();
+				}
+			}
+			return found;
+		}
 		for (Drawable drawable : drawables) {
 			if (drawable.contains(x, y)) {
 				return drawable;
@@ -346,13 +603,53 @@ public class Layer implements Drawable, SceneEventListener {
 	 * @return Drawable objects if exist, empty list otherwise.
 	 */
 	public List<Drawable> findDrawablesAt(int x, int y) {
-		ArrayList<Drawable> drawables = new ArrayList<Drawable>();
+		ArrayList<Drawable> found = new ArrayList<Drawable>();
+		if (spatialIndex != null) {
+			ArrayList<Shape> shapes = new ArrayList<Shape>();
+			spatialIndex.findShapesAt(x, y, shapes);
+			found.addAll(shapes);
+			for (Map.Entry<Drawable, Integer> entry : unindexedDrawables.entrySet()) {
+				if (!entry.getKey().contains(x, y)) continue;
+				// keep drawing order of the layer
+				int index = 0;
+				while (index < found.size() && orderOf(found.get(index)) < entry.getValue()) {
+					index++;
+				}
+				found.add(index, entry.getKey());
+			}
+			return found;
+		}
 		for (Drawable drawable : drawables) {
 			if (drawable.contains(x, y)) {
-				drawables.add(drawable);
+				found.add(drawable);
 			}
 		}
-		return drawables;
+		return found;
+	}
+	
+	private int orderOf(Drawable drawable) {
+		Integer order = unindexedDrawables.get(drawable);
+		return order != null ? order : ((Shape)drawable).indexOrder;
+	}
+	
+	/**
+	 * Returns all shapes that collide with given rectangle.
+	 * 
+	 * @param rect rectangle within the scene
+	 * @return Shape objects if exist, empty list otherwise.
+	 */
+	public List<Shape> findShapesIn(Rect rect) {
+		ArrayList<Shape> found = new ArrayList<Shape>();
+		if (spatialIndex != null) {
+			spatialIndex.findShapesIn(rect, found);
+			return found;
+		}
+		for (Drawable drawable : drawables) {
+			if (drawable instanceof Shape && ((Shape)drawable).collidesWith(rect)) {
+				found.add((Shape)drawable);
+			}
+		}
+		return found;
 	}
 
 	/**
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable;
+
+import com.e3roid.opengl.FastFloatBuffer;
+
+/**
+ * Render parameters of a shape that are captured by the update thread of the engine.
+ * The update thread saves the state of every shape into one of three slots after each update
+ * and the GL thread draws from the latest complete slot, so drawing never waits for updates
+ * and never sees a half updated scene.
+ * See E3Engine#enableUpdateThread(boolean).
+ */
+public class RenderState {
+
+	private static int drawSlot = -1;
+
+	/**
+	 * Color red, green, blue, alpha
+	 */
+	public final float[] color = new float[4];
+	/**
+	 * Translate x, y, z
+	 */
+	public final float[] translate = new float[3];
+	/**
+	 * Rotate angle, center x, center y, axis
+	 */
+	public final float[] rotate = new float[4];
+	/**
+	 * Scale x, y, center x, center y
+	 */
+	public final float[] scale = new float[4];
+	/**
+	 * Model-view matrix of translate, rotate and scale in column-major order
+	 */
+	public final float[] transform = new float[16];
+	/**
+	 * Visibility of the shape
+	 */
+	public boolean visible = true;
+	/**
+	 * Texture coordinates of the sprite, or null if the sprite keeps its own coordinates.
+	 */
+	public FastFloatBuffer texCoords = null;
+
+	/**
+	 * Set the slot that is drawn in current frame. Called from the GL thread.
+	 * @param slot index of the slot, or -1 when shapes draw their live parameters.
+	 */
+	public static void setDrawSlot(int slot) {
+		drawSlot = slot;
+	}
+
+	/**
+	 * Returns the slot that is drawn in current frame.
+	 * @return index of the slot, or -1 when shapes draw their live parameters.
+	 */
+	public static int getDrawSlot() {
+		return drawSlot;
+	}
+}
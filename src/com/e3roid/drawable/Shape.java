@@ -29,6 +29,9 @@ import com.e3roid.drawable.modifier.ShapeModifier;
 import com.e3roid.event.ModifierEventListener;
 import com.e3roid.event.SceneEventListener;
 import com.e3roid.event.ShapeEventListener;
+import com.e3roid.util.TripleBuffer;
+
+import com.badlogic.gdx.math.Matrix4;
 
 /**
  * A Shape class is used to draw 2D rectangle shape.
@@ -75,6 +78,29 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	protected ArrayList<ShapeModifier> removedModifiers = new ArrayList<ShapeModifier>();
 	protected ArrayList<Shape> children = new ArrayList<Shape>();
 	
+	/**
+	 *  Modifiers are updated on the update thread and
+	 *  drawing uses render states saved by the update thread.
+	 */
+	protected boolean asyncUpdate = false;
+	private RenderState[] renderStates = null;
+	
+	protected E3Engine engine = null;
+	
+	// view of the layer being drawn, set by Layer on the GL thread
+	private static boolean viewBoundsEnabled = false;
+	private static float viewLeft, viewTop, viewRight, viewBottom;
+	private static int culledCount = 0;
+	
+	// pool that the shape has been obtained from
+	ShapePool<?> pool = null;
+	
+	// spatial index of the layer that holds the shape, maintained by SpatialIndex
+	SpatialIndex spatialIndex = null;
+	final int[] indexedCells = new int[4];
+	int indexOrder = 0;
+	int indexMark  = 0;
+	
 	/**
 	 * Color red, green, blue, alpha
 	 */
@@ -103,6 +129,13 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		1, 1, 0, 0
 	};
 	
+	/**
+	 *  Model-view matrix of translate, rotate and scale parameters,
+	 *  rebuilt only when the parameters have been changed
+	 */
+	private final Matrix4 transform = new Matrix4();
+	private volatile boolean transformChanged = true;
+	
 	/**
 	 *  Default rotation center x and y
 	 */
@@ -186,36 +219,42 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	
 	protected void processModifiers(GL10 gl) {
 		if (!loadableModifiers.isEmpty()) {
-			for (ShapeModifier modifier : loadableModifiers) {
+			for (int i = 0; i < loadableModifiers.size(); i++) {
+				ShapeModifier modifier = loadableModifiers.get(i);
 				modifier.onLoad(this, gl);
 				modifiers.add(modifier);
 			}
 			loadableModifiers.clear();
 		}
 		if (!removedModifiers.isEmpty()) {
-			for (ShapeModifier modifier : removedModifiers) {
+			for (int i = 0; i < removedModifiers.size(); i++) {
+				ShapeModifier modifier = removedModifiers.get(i);
 				modifier.onUnload(this, gl);
-				modifiers.remove(modifier);
+				if (modifiers.remove(modifier)) {
+					modifier.recycle();
+				}
 			}
 			removedModifiers.clear();
 		}
 		if (isRemoved() && !modifiers.isEmpty()) {
-			for (ShapeModifier modifier : modifiers) {
+			for (int i = 0; i < modifiers.size(); i++) {
+				ShapeModifier modifier = modifiers.get(i);
 				modifier.onUnload(this, gl);
+				modifier.recycle();
 			}
 			modifiers.clear();
 		}
 	}
 	
 	protected void processBeforeModifiers(GL10 gl) {
-		for (ShapeModifier modifier : modifiers) {
-			modifier.onBeforeUpdate(this, gl);
+		for (int i = 0; i < modifiers.size(); i++) {
+			modifiers.get(i).onBeforeUpdate(this, gl);
 		}
 	}
 	
 	protected void processAfterModifiers(GL10 gl) {
-		for (ShapeModifier modifier : modifiers) {
-			modifier.onAfterUpdate(this, gl);
+		for (int i = 0; i < modifiers.size(); i++) {
+			modifiers.get(i).onAfterUpdate(this, gl);
 		}
 	}
 	
@@ -247,11 +286,17 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 			onLoadSurface(_gl);
 		}
 		
-		for(Shape child : children) {
-			child.onDraw(_gl);
+		for (int i = 0; i < children.size(); i++) {
+			children.get(i).onDraw(_gl);
 		}
 		
-		processModifiers(gl);
+		if (!asyncUpdate) {
+			processModifiers(gl);
+			if (!modifiers.isEmpty()) {
+				// modifiers advance only while frames are drawn
+				requestRender();
+			}
+		}
 		
 		if (removed && loaded && useVBO) {
 			unloadBuffer(gl);
@@ -259,15 +304,27 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 			return;
 		}
 		
-		if (!isVisible() || isRemoved()) {
+		RenderState state = getRenderState();
+		if (!(state != null ? state.visible : isVisible()) || isRemoved()) {
 			return;
 		}
+		float[] color = state != null ? state.color : this.color;
 		
+		if (!asyncUpdate) {
+			processBeforeModifiers(gl);
+		}
+		if (cullOutOfView(state)) {
+			if (!asyncUpdate) {
+				processAfterModifiers(gl);
+			}
+			return;
+		}
+		
+		SpriteBatch.flushCurrent(gl);
 		GLHelper.enableTextures(gl, false);
         
 	    gl.glLoadIdentity();
 		gl.glPushMatrix();
-		processBeforeModifiers(gl);
 		GLHelper.setColor(gl, color[0], color[1], color[2], color[3]);
 		applyParams(gl);
 		if (useVBO) {
@@ -279,7 +336,9 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 			GLHelper.vertexPointer(gl, vertexBuffer);
 			gl.glDrawElements(GL11.GL_TRIANGLE_FAN, RECTANGLE_POINTS, GL11.GL_UNSIGNED_SHORT, indiceBuffer);
 		}
-		processAfterModifiers(gl);
+		if (!asyncUpdate) {
+			processAfterModifiers(gl);
+		}
 		gl.glPopMatrix();
 		
 		GLHelper.checkError(gl);
@@ -289,6 +348,93 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		GLHelper.bindElementBuffer(gl, 0);
 		GLHelper.enableTextures(gl, true);
 	}
+	
+	/**
+	 * Called on the update thread of the engine to update modifiers of the shape.
+	 * Modifiers receive null instead of GL object.
+	 * This is used only when the engine updates the scene on its own thread.
+	 */
+	public void onUpdate() {
+		for (int i = 0; i < children.size(); i++) {
+			children.get(i).onUpdate();
+		}
+		
+		processModifiers(null);
+		
+		if (!isVisible() || isRemoved()) {
+			return;
+		}
+		
+		processBeforeModifiers(null);
+		processAfterModifiers(null);
+	}
+	
+	/**
+	 * Save current render parameters of the shape and its children into given slot.
+	 * Called on the update thread of the engine after each update.
+	 * 
+	 * @param slot index of the slot
+	 */
+	public void saveRenderState(int slot) {
+		for (int i = 0; i < children.size(); i++) {
+			children.get(i).saveRenderState(slot);
+		}
+		if (renderStates == null) {
+			renderStates = new RenderState[TripleBuffer.SIZE];
+		}
+		if (renderStates[slot] == null) {
+			renderStates[slot] = new RenderState();
+		}
+		saveRenderState(renderStates[slot]);
+	}
+	
+	/**
+	 * Copy current render parameters to given state.
+	 * Subclasses that draw more parameters should override this method.
+	 * 
+	 * @param state RenderState
+	 */
+	protected void saveRenderState(RenderState state) {
+		System.arraycopy(color, 0, state.color, 0, state.color.length);
+		System.arraycopy(translateParams, 0, state.translate, 0, state.translate.length);
+		System.arraycopy(rotateParams, 0, state.rotate, 0, state.rotate.length);
+		System.arraycopy(scaleParams, 0, state.scale, 0, state.scale.length);
+		System.arraycopy(getTransform().val, 0, state.transform, 0, state.transform.length);
+		state.visible = visible;
+	}
+	
+	/**
+	 * Returns render state to draw in current frame.
+	 * @return saved render state, or null if live parameters should be drawn.
+	 */
+	protected RenderState getRenderState() {
+		int slot = RenderState.getDrawSlot();
+		if (!asyncUpdate || slot < 0 || renderStates == null) {
+			return null;
+		}
+		return renderStates[slot];
+	}
+	
+	/**
+	 * Set whether modifiers of this shape are updated on the update thread of the engine.
+	 * Called by the layer when the engine updates the scene on its own thread.
+	 * 
+	 * @param enable true if modifiers are updated on the update thread, false otherwise
+	 */
+	public void enableAsyncUpdate(boolean enable) {
+		this.asyncUpdate = enable;
+		for(Shape child : children) {
+			child.enableAsyncUpdate(enable);
+		}
+	}
+	
+	/**
+	 * Indicates whether modifiers of this shape are updated on the update thread of the engine.
+	 * @return
+	 */
+	public boolean isAsyncUpdate() {
+		return this.asyncUpdate;
+	}
 
 	/**
 	 * Called when the parent layer is resumed.
@@ -324,9 +470,19 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	@Override
 	public void onRemove() {
 		this.removed = true;
-		this.vertexBuffer = null;
-		this.indiceBuffer = null;
+		if (!asyncUpdate && pool == null) {
+			// buffers may still be drawn by the GL thread otherwise,
+			// and pooled shapes keep them for reuse
+			this.vertexBuffer = null;
+			this.indiceBuffer = null;
+		}
 		this.listeners.clear();
+		for (int i = 0; i < loadableModifiers.size(); i++) {
+			loadableModifiers.get(i).recycle();
+		}
+		for (int i = 0; i < modifiers.size(); i++) {
+			modifiers.get(i).recycle();
+		}
 		this.loadableModifiers.clear();
 		this.modifiers.clear();
 		this.removedModifiers.clear();
@@ -340,6 +496,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	 */
 	@Override
 	public void onLoadEngine(E3Engine engine) {
+		this.engine = engine;
 		this.useVBO = engine.useVBO();
 		for(Shape child : children) {
 			child.onLoadEngine(engine);
@@ -357,6 +514,45 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 			child.onDispose();
 		}
 	}
+	
+	/**
+	 * Return the shape to the pool that it has been obtained from.
+	 * Called by the layer and the scene after the removed shape is disposed.
+	 * Does nothing if the shape is not obtained from ShapePool.
+	 */
+	public void recycle() {
+		ShapePool<?> pool = this.pool;
+		if (pool != null) {
+			pool.recycle(this);
+		}
+	}
+	
+	/**
+	 * Called when the shape is returned to its pool.
+	 * Restores the state of a new shape while position, size and buffers are kept,
+	 * so that the shape can be added again without allocation.
+	 */
+	public void onRecycle() {
+		this.removed = false;
+		this.loaded  = false;
+		this.visible = true;
+		this.asyncUpdate = false;
+		color[0] = color[1] = color[2] = color[3] = 1.0f;
+		translateParams[0] = translateParams[1] = translateParams[2] = 0;
+		rotateParams[0] = rotateParams[1] = rotateParams[2] = 0;
+		rotateParams[3] = AXIS_Z;
+		scaleParams[0] = scaleParams[1] = 1;
+		scaleParams[2] = scaleParams[3] = 0;
+		invalidateTransform();
+		listeners.clear();
+		loadableModifiers.clear();
+		modifiers.clear();
+		removedModifiers.clear();
+		children.clear();
+		if (vertexBuffer == null) {
+			createBuffers();
+		}
+	}
 
 	/**
 	 * Set current axis of this shape. This axis is reference axis that is used with translation.
@@ -368,6 +564,18 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	public void setPosition(int x, int y) {
 		this.x = x;
 		this.y = y;
+		updateSpatialIndex();
+		requestRender();
+	}
+	
+	/**
+	 * Request that the engine renders a frame because this shape has been changed.
+	 * This has effect only when the refresh mode of the engine is REFRESH_WHEN_DIRTY.
+	 */
+	protected void requestRender() {
+		if (engine != null) {
+			engine.requestRender();
+		}
 	}
 	
 	/**
@@ -418,6 +626,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.setRed(color);
 		}
+		requestRender();
 	}
 	
 	/**
@@ -430,6 +639,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.setGreen(color);
 		}
+		requestRender();
 	}
 	/**
 	 * Set blue color of this shape.
@@ -441,6 +651,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.setBlue(color);
 		}
+		requestRender();
 	}
 	/**
 	 * Set alpha color of this shape.
@@ -452,6 +663,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.setAlpha(alpha);
 		}
+		requestRender();
 	}
 	
 	/**
@@ -463,6 +675,23 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	protected void setSize(int w, int h) {
 		this.width  = w;
 		this.height = h;
+		updateSpatialIndex();
+		requestRender();
+	}
+	
+	private void updateSpatialIndex() {
+		SpatialIndex index = spatialIndex;
+		if (index != null) {
+			index.update(this);
+		}
+	}
+	
+	/**
+	 * Returns spatial index that holds the shape.
+	 * @return SpatialIndex of the layer, or null if the shape is not indexed
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
 	}
 
 	/**
@@ -701,6 +930,9 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		translateParams[0] = x;
 		translateParams[1] = y;
 		translateParams[2] = z;
+		invalidateTransform();
+		updateSpatialIndex();
+		requestRender();
 	}
 	
 	/**
@@ -743,6 +975,8 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		rotateParams[1] = getRawX() + localX;
 		rotateParams[2] = getRawY() + localY;
 		rotateParams[3] = axis;
+		invalidateTransform();
+		requestRender();
 	}
 	
 	/**
@@ -753,6 +987,8 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		rotateParams[1] = getRawX();
 		rotateParams[2] = getRawY() + getHeight();
 		rotateParams[3] = AXIS_X;
+		invalidateTransform();
+		requestRender();
 	}
 
 	/**
@@ -768,6 +1004,8 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		scaleParams[1] = y;
 		scaleParams[2] = getRawX() + localX;
 		scaleParams[3] = getRawY() + localY;
+		invalidateTransform();
+		requestRender();
 	}
 	
 	/**
@@ -802,6 +1040,9 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 			child.moveRelativeX(x - getRealX());
 		}
 		translateParams[0] = x - getRawX();
+		invalidateTransform();
+		updateSpatialIndex();
+		requestRender();
 	}
 	
 	/**
@@ -814,6 +1055,9 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 			child.moveRelativeY(y - getRealY());
 		}
 		translateParams[1] = y - getRawY();
+		invalidateTransform();
+		updateSpatialIndex();
+		requestRender();
 	}
 	
 	/**
@@ -823,6 +1067,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	 */
 	public void moveZ(int z) {
 		this.z = z;
+		requestRender();
 	}
 	
 	/**
@@ -853,28 +1098,178 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		indiceBuffer = ShortBuffer.wrap(RECTANGLE_INDICE);
 	}
 	
-	protected void applyParams(GL10 gl) {
-		// translate
-		gl.glTranslatef(translateParams[0], translateParams[1], translateParams[2]);
+	/**
+	 * Set view of the layer being drawn in scene coordinates.
+	 * Shapes entirely out of the view are not drawn until clearViewBounds() is called.
+	 * Called by Layer on the GL thread.
+	 */
+	public static void setViewBounds(float left, float top, float right, float bottom) {
+		viewLeft   = left;
+		viewTop    = top;
+		viewRight  = right;
+		viewBottom = bottom;
+		viewBoundsEnabled = true;
+	}
+	
+	/**
+	 * Stop culling shapes by the view.
+	 */
+	public static void clearViewBounds() {
+		viewBoundsEnabled = false;
+	}
+	
+	/**
+	 * Returns number of shapes that have not been drawn because they were out of the view,
+	 * counted since the application started. Layer uses the difference of this count per frame.
+	 */
+	public static int getCulledCount() {
+		return culledCount;
+	}
+	
+	/**
+	 * Returns whether the shape is out of the view and counts it as culled.
+	 * Bounds of the shape include its translation, scale and rotation on Z axis.
+	 * Shapes rotated on X or Y axis are always drawn.
+	 * 
+	 * @param state render state to draw, or null to use current parameters
+	 * @return true if the shape should not be drawn
+	 */
+	protected boolean cullOutOfView(RenderState state) {
+		if (!viewBoundsEnabled) return false;
+		float[] translateParams = state != null ? state.translate : this.translateParams;
+		float[] rotateParams    = state != null ? state.rotate    : this.rotateParams;
+		float[] scaleParams     = state != null ? state.scale     : this.scaleParams;
 		
-		// rotate
-		gl.glTranslatef(rotateParams[1], rotateParams[2], 0);
-		if (rotateParams[3] == AXIS_X) {
-			gl.glRotatef(rotateParams[0], 1, 0, 0);
-		} else if (rotateParams[3] == AXIS_Y) {
-			gl.glRotatef(rotateParams[0], 0, 1, 0);
-		} else {
-			gl.glRotatef(rotateParams[0], 0, 0, 1);
-		}
-		gl.glTranslatef(-rotateParams[1], -rotateParams[2], 0);
+		float angle = rotateParams[0] % 360;
+		if (angle != 0 && rotateParams[3] != AXIS_Z) return false;
+		
+		float left   = x;
+		float top    = y;
+		float right  = x + width;
+		float bottom = y + height;
 		
 		// scale
-		gl.glTranslatef(scaleParams[2], scaleParams[3], 0);
-		gl.glScalef(scaleParams[0], scaleParams[1], 1);
-		gl.glTranslatef(-scaleParams[2], -scaleParams[3], 0);
+		if (scaleParams[0] != 1 || scaleParams[1] != 1) {
+			float l = scaleParams[2] + (left  - scaleParams[2]) * scaleParams[0];
+			float r = scaleParams[2] + (right - scaleParams[2]) * scaleParams[0];
+			float t = scaleParams[3] + (top    - scaleParams[3]) * scaleParams[1];
+			float b = scaleParams[3] + (bottom - scaleParams[3]) * scaleParams[1];
+			left   = Math.min(l, r);
+			right  = Math.max(l, r);
+			top    = Math.min(t, b);
+			bottom = Math.max(t, b);
+		}
 		
+		// rotate, bounding box of the rotated rectangle
+		if (angle != 0) {
+			double radian = Math.toRadians(angle);
+			float cos = (float)Math.cos(radian);
+			float sin = (float)Math.sin(radian);
+			float halfWidth  = (right - left) / 2;
+			float halfHeight = (bottom - top) / 2;
+			float dx = (left + right) / 2 - rotateParams[1];
+			float dy = (top + bottom) / 2 - rotateParams[2];
+			float centerX = rotateParams[1] + dx * cos - dy * sin;
+			float centerY = rotateParams[2] + dx * sin + dy * cos;
+			float extentX = Math.abs(halfWidth * cos) + Math.abs(halfHeight * sin);
+			float extentY = Math.abs(halfWidth * sin) + Math.abs(halfHeight * cos);
+			left   = centerX - extentX;
+			right  = centerX + extentX;
+			top    = centerY - extentY;
+			bottom = centerY + extentY;
+		}
+		
+		left   += translateParams[0];
+		right  += translateParams[0];
+		top    += translateParams[1];
+		bottom += translateParams[1];
+		
+		if (right < viewLeft || left > viewRight || bottom < viewTop || top > viewBottom) {
+			culledCount++;
+			return true;
+		}
+		return false;
+	}
+	
+	protected void applyParams(GL10 gl) {
+		RenderState state = getRenderState();
+		gl.glLoadMatrixf(state != null ? state.transform : getTransform().val, 0);
 		GLHelper.checkError(gl);
 	}
+	
+	/**
+	 * Returns model-view matrix of the shape that translates, rotates and scales the shape.
+	 * The matrix is cached and rebuilt only after the parameters have been changed.
+	 * 
+	 * @return transform matrix of the shape, must not be modified
+	 */
+	public Matrix4 getTransform() {
+		if (transformChanged) {
+			// cleared before rebuilding so that a change made meanwhile is not lost
+			transformChanged = false;
+			setTransform(transform.val, translateParams, rotateParams, scaleParams);
+		}
+		return transform;
+	}
+	
+	/**
+	 * Marks cached transform matrix as changed.
+	 * Subclasses that modify translate, rotate or scale parameters directly must call this method.
+	 */
+	protected void invalidateTransform() {
+		transformChanged = true;
+	}
+	
+	/**
+	 * Compute column-major matrix that equals to translate, rotate around the rotation center
+	 * and then scale around the scale center, as applied by OpenGL matrix operations.
+	 * 
+	 * @param m matrix values to set
+	 * @param translate translate x, y, z
+	 * @param rotate rotate angle, center x, center y, axis
+	 * @param scale scale x, y, center x, center y
+	 */
+	public static void setTransform(float[] m, float[] translate, float[] rotate, float[] scale) {
+		float r00 = 1, r01 = 0, r02 = 0;
+		float r10 = 0, r11 = 1, r12 = 0;
+		float r20 = 0, r21 = 0, r22 = 1;
+		if (rotate[0] != 0) {
+			double radian = Math.toRadians(rotate[0]);
+			float cos = (float)Math.cos(radian);
+			float sin = (float)Math.sin(radian);
+			if (rotate[3] == AXIS_X) {
+				r11 = cos; r12 = -sin;
+				r21 = sin; r22 = cos;
+			} else if (rotate[3] == AXIS_Y) {
+				r00 = cos;  r02 = sin;
+				r20 = -sin; r22 = cos;
+			} else {
+				r00 = cos; r01 = -sin;
+				r10 = sin; r11 = cos;
+			}
+		}
+		
+		// scaled origin relative to the rotation center
+		float dx = scale[2] - scale[0] * scale[2] - rotate[1];
+		float dy = scale[3] - scale[1] * scale[3] - rotate[2];
+		
+		m[Matrix4.M00] = r00 * scale[0];
+		m[Matrix4.M10] = r10 * scale[0];
+		m[Matrix4.M20] = r20 * scale[0];
+		m[Matrix4.M30] = 0;
+		m[Matrix4.M01] = r01 * scale[1];
+		m[Matrix4.M11] = r11 * scale[1];
+		m[Matrix4.M21] = r21 * scale[1];
+		m[Matrix4.M31] = 0;
+		m[Matrix4.M02] = r02;
+		m[Matrix4.M12] = r12;
+		m[Matrix4.M22] = r22;
+		m[Matrix4.M32] = 0;
+		m[Matrix4.M03] = translate[0] + rotate[1] + r00 * dx + r01 * dy;
+		m[Matrix4.M13] = translate[1] + rotate[2] + r10 * dx + r11 * dy;
+		m[Matrix4.M23] = translate[2] + r20 * dx + r21 * dy;
+		m[Matrix4.M33] = 1;
+	}
 
 	/**
 	 * Set visible status of the shape.
@@ -887,6 +1282,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.setVisible(visible);
 		}
+		requestRender();
 	}
 	
 	/**
@@ -968,6 +1364,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.hide();
 		}
+		requestRender();
 	}
 
 	/**
@@ -978,6 +1375,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for(Shape child : children) {
 			child.show();
 		}
+		requestRender();
 	}
 
 	/**
@@ -1051,6 +1449,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	 */
 	public void addModifier(ShapeModifier modifier) {
 		loadableModifiers.add(modifier);
+		requestRender();
 	}
 	
 	/**
@@ -1076,6 +1475,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	 */
 	public void addChild(Shape shape) {
 		children.add(shape);
+		requestRender();
 	}
 	
 	/**
@@ -1084,6 +1484,7 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 	 */
 	public void removeChild(Shape shape) {
 		children.remove(shape);
+		requestRender();
 	}
 	
 	/**
@@ -1098,18 +1499,26 @@ public class Shape implements Drawable,ShapeEventListener,SceneEventListener,Mod
 		for (int i = 0; i < pointerCount; i++) {
 			int globalX = scene.getEngine().getContext().getTouchEventX(scene, motionEvent, i);
 			int globalY = scene.getEngine().getContext().getTouchEventY(scene, motionEvent, i);
+			onSceneTouchEvent(scene, motionEvent, globalX, globalY);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Handles scene touch event of one pointer at given global coordinates
+	 * and calls onTouchEvent if the pointer is on the shape.
+	 * The scene calls this directly for shapes found by the spatial index.
+	 */
+	public void onSceneTouchEvent(E3Scene scene, MotionEvent motionEvent, int globalX, int globalY) {
+		if (contains(globalX, globalY)) {
 			int localX = globalX - getRealX();
 			int localY = globalY - getRealY();
-			
-			if (contains(globalX, globalY)) {
-				this.onTouchEvent(scene, this, motionEvent, localX, localY);
-				for (ShapeEventListener listener : listeners) {
-					listener.onTouchEvent(scene, this, motionEvent, localX, localY);
-				}
+			this.onTouchEvent(scene, this, motionEvent, localX, localY);
+			for (int i = 0; i < listeners.size(); i++) {
+				listeners.get(i).onTouchEvent(scene, this, motionEvent, localX, localY);
 			}
 		}
-		
-		return false;
 	}
 
 	/**
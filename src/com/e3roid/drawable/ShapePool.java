@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable;
+
+import com.e3roid.util.Pool;
+
+/**
+ * Pool of shapes that are returned automatically when they are removed from layer or HUD.
+ * 
+ * Shapes keep their position, size, texture and buffers in the pool, so reusing them
+ * allocates nothing; move them with move(x, y) after obtaining. Other state such as
+ * translation, rotation, scale, color, modifiers, listeners and children is reset by Shape#onRecycle().
+ * Use reusable textures for pooled sprites, otherwise the texture is unloaded every time
+ * a sprite is removed.
+ */
+public abstract class ShapePool<T extends Shape> extends Pool<T> {
+
+	public ShapePool() {
+		super();
+	}
+	
+	public ShapePool(int initialCapacity, int max) {
+		super(initialCapacity, max);
+	}
+	
+	@Override
+	public T obtain() {
+		T shape = super.obtain();
+		shape.pool = this;
+		return shape;
+	}
+	
+	@Override
+	protected void reset(T shape) {
+		shape.onRecycle();
+	}
+	
+	@SuppressWarnings("unchecked")
+	void recycle(Shape shape) {
+		shape.pool = null;
+		free((T)shape);
+	}
+}
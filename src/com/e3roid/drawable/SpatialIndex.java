@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import android.graphics.Rect;
+
+/**
+ * Uniform grid of shapes for hit-testing and rectangle queries.
+ * 
+ * Shapes are stored in every cell that their bounds overlap, and
+ * the grid is updated by the shape itself whenever it is moved or resized.
+ * Results are returned in the order that shapes have been added,
+ * which is the drawing order of the layer that owns the index.
+ * All methods may be called from any thread.
+ */
+public class SpatialIndex {
+
+	/**
+	 * Default width and height of a cell in pixels
+	 */
+	public static final int DEFAULT_CELL_SIZE = 64;
+	
+	private static final Comparator<Shape> ORDER = new Comparator<Shape>() {
+		@Override
+		public int compare(Shape a, Shape b) {
+			return a.indexOrder < b.indexOrder ? -1 : (a.indexOrder == b.indexOrder ? 0 : 1);
+		}
+	};
+
+	private final int cellSize;
+	private final HashMap<Long, ArrayList<Shape>> cells = new HashMap<Long, ArrayList<Shape>>();
+	private int size = 0;
+	private int queryMark = 0;
+	
+	/**
+	 * Constructs spatial index with default cell size.
+	 */
+	public SpatialIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+	
+	/**
+	 * Constructs spatial index with given cell size.
+	 * Cells about the size of typical shapes work best.
+	 * @param cellSize width and height of a cell in pixels
+	 */
+	public SpatialIndex(int cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("cellSize must be greater than zero.");
+		}
+		this.cellSize = cellSize;
+	}
+	
+	/**
+	 * Add shape to the index.
+	 * A shape can be held by only one index at a time.
+	 * 
+	 * @param shape Shape to add
+	 * @param order drawing order of the shape, used to sort results
+	 */
+	public synchronized void add(Shape shape, int order) {
+		if (shape.spatialIndex == this) return;
+		if (shape.spatialIndex != null) {
+			shape.spatialIndex.remove(shape);
+		}
+		shape.spatialIndex = this;
+		shape.indexOrder = order;
+		int[] range = shape.indexedCells;
+		getCellRange(shape, range);
+		insert(shape, range);
+		size++;
+	}
+	
+	/**
+	 * Remove shape from the index.
+	 * @param shape Shape to remove
+	 */
+	public synchronized void remove(Shape shape) {
+		if (shape.spatialIndex != this) return;
+		erase(shape, shape.indexedCells);
+		shape.spatialIndex = null;
+		size--;
+	}
+	
+	/**
+	 * Move shape to the cells of its current bounds.
+	 * Called by the shape when it is moved or resized.
+	 * @param shape Shape to update
+	 */
+	public synchronized void update(Shape shape) {
+		if (shape.spatialIndex != this) return;
+		int[] range = shape.indexedCells;
+		int minX = range[0], minY = range[1], maxX = range[2], maxY = range[3];
+		getCellRange(shape, range);
+		if (minX == range[0] && minY == range[1] && maxX == range[2] && maxY == range[3]) {
+			return;
+		}
+		int newMinX = range[0], newMinY = range[1], newMaxX = range[2], newMaxY = range[3];
+		range[0] = minX; range[1] = minY; range[2] = maxX; range[3] = maxY;
+		erase(shape, range);
+		range[0] = newMinX; range[1] = newMinY; range[2] = newMaxX; range[3] = newMaxY;
+		insert(shape, range);
+	}
+	
+	/**
+	 * Remove all shapes from the index.
+	 */
+	public synchronized void clear() {
+		for (ArrayList<Shape> cell : cells.values()) {
+			for (Shape shape : cell) {
+				shape.spatialIndex = null;
+			}
+		}
+		cells.clear();
+		size = 0;
+	}
+	
+	/**
+	 * Returns first shape that contains given coordinates.
+	 * 
+	 * @param x global x coordinate
+	 * @param y global y coordinate
+	 * @return Shape with the lowest drawing order, or null if no shapes are found
+	 */
+	public synchronized Shape findShapeAt(int x, int y) {
+		ArrayList<Shape> cell = cells.get(key(cellOf(x), cellOf(y)));
+		if (cell == null) return null;
+		Shape found = null;
+		for (int i = 0; i < cell.size(); i++) {
+			Shape shape = cell.get(i);
+			if ((found == null || shape.indexOrder < found.indexOrder) && shape.contains(x, y)) {
+				found = shape;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Add all shapes whose bounds may contain given coordinates to the list,
+	 * without testing the shapes themselves.
+	 * Used to dispatch touch events to shapes, which test the coordinates by themselves.
+	 * 
+	 * @param x global x coordinate
+	 * @param y global y coordinate
+	 * @param result list that shapes are added to
+	 * @return number of shapes added
+	 */
+	public synchronized int findCandidatesAt(int x, int y, List<Shape> result) {
+		ArrayList<Shape> cell = cells.get(key(cellOf(x), cellOf(y)));
+		if (cell == null) return 0;
+		int start = result.size();
+		result.addAll(cell);
+		sort(result, start);
+		return cell.size();
+	}
+	
+	/**
+	 * Add all shapes that contain given coordinates to the list.
+	 * 
+	 * @param x global x coordinate
+	 * @param y global y coordinate
+	 * @param result list that shapes are added to in drawing order
+	 * @return number of shapes added
+	 */
+	public synchronized int findShapesAt(int x, int y, List<Shape> result) {
+		ArrayList<Shape> cell = cells.get(key(cellOf(x), cellOf(y)));
+		if (cell == null) return 0;
+		int start = result.size();
+		for (int i = 0; i < cell.size(); i++) {
+			Shape shape = cell.get(i);
+			if (shape.contains(x, y)) {
+				result.add(shape);
+			}
+		}
+		sort(result, start);
+		return result.size() - start;
+	}
+	
+	/**
+	 * Add all shapes that collide with given rectangle to the list.
+	 * 
+	 * @param rect rectangle in global coordinates
+	 * @param result list that shapes are added to in drawing order
+	 * @return number of shapes added
+	 */
+	public synchronized int findShapesIn(Rect rect, List<Shape> result) {
+		int mark = ++queryMark;
+		int start = result.size();
+		int minX = cellOf(rect.left), maxX = cellOf(rect.right);
+		int minY = cellOf(rect.top),  maxY = cellOf(rect.bottom);
+		for (int cx = minX; cx <= maxX; cx++) {
+			for (int cy = minY; cy <= maxY; cy++) {
+				ArrayList<Shape> cell = cells.get(key(cx, cy));
+				if (cell == null) continue;
+				for (int i = 0; i < cell.size(); i++) {
+					Shape shape = cell.get(i);
+					// shapes that span several cells are tested once
+					if (shape.indexMark == mark) continue;
+					shape.indexMark = mark;
+					if (shape.collidesWith(rect)) {
+						result.add(shape);
+					}
+				}
+			}
+		}
+		sort(result, start);
+		return result.size() - start;
+	}
+	
+	/**
+	 * Returns number of shapes in the index
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns width and height of a cell
+	 */
+	public int getCellSize() {
+		return cellSize;
+	}
+	
+	private void getCellRange(Shape shape, int[] range) {
+		int x = shape.getRealX();
+		int y = shape.getRealY();
+		range[0] = cellOf(x);
+		range[1] = cellOf(y);
+		range[2] = cellOf(x + Math.max(shape.getWidth(), 0));
+		range[3] = cellOf(y + Math.max(shape.getHeight(), 0));
+	}
+	
+	private void insert(Shape shape, int[] range) {
+		for (int cx = range[0]; cx <= range[2]; cx++) {
+			for (int cy = range[1]; cy <= range[3]; cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Shape> cell = cells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<Shape>();
+					cells.put(key, cell);
+				}
+				cell.add(shape);
+			}
+		}
+	}
+	
+	private void erase(Shape shape, int[] range) {
+		for (int cx = range[0]; cx <= range[2]; cx++) {
+			for (int cy = range[1]; cy <= range[3]; cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Shape> cell = cells.get(key);
+				if (cell == null) continue;
+				cell.remove(shape);
+				if (cell.isEmpty()) {
+					cells.remove(key);
+				}
+			}
+		}
+	}
+	
+	private int cellOf(int v) {
+		return v >= 0 ? v / cellSize : (v + 1) / cellSize - 1;
+	}
+	
+	private static Long key(int cx, int cy) {
+		return Long.valueOf(((long)cx << 32) | (cy & 0xffffffffL));
+	}
+	
+	private static void sort(List<Shape> result, int start) {
+		if (result.size() - start > 1) {
+			Collections.sort(result.subList(start, result.size()), ORDER);
+		}
+	}
+}
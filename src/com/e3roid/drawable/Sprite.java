@@ -19,6 +19,7 @@ import javax.microedition.khronos.opengles.GL11;
 import com.e3roid.E3Activity;
 import com.e3roid.E3Scene;
 import com.e3roid.drawable.texture.Texture;
+import com.e3roid.drawable.texture.TextureManager;
 import com.e3roid.drawable.texture.TiledTexture;
 import com.e3roid.opengl.FastFloatBuffer;
 import com.e3roid.opengl.GLHelper;
@@ -39,6 +40,9 @@ public class Sprite extends Shape {
 	protected final int[] GENERATED_TEXTURE_BUFFER_ID = new int[1];
 	
 	protected FastFloatBuffer coordBuffer;
+	
+	// shared texture referenced while the sprite is loaded
+	private Texture acquiredTexture = null;
 		
 	/**
 	 *  Default constructor for subclass.
@@ -130,18 +134,13 @@ public class Sprite extends Shape {
 	@Override
 	public void onLoadSurface(GL10 _gl, boolean force) {
 		if (!force && isLoaded()) return;
+		boolean acquire = !isLoaded();
 		
 		super.onLoadSurface(_gl, force);
 		
 		GL11 gl = (GL11)_gl;
 		
-		if (force && texture.isLoaded()) {
-			texture.unloadTexture(gl);
-		}
-		
-		if (!texture.isLoaded()) {
-			texture.loadTexture(gl);
-		}
+		loadTexture(gl, force, acquire);
 		
 		if (useVBO) {
 			gl.glGenBuffers(1, GENERATED_TEXTURE_BUFFER_ID, 0);
@@ -149,6 +148,31 @@ public class Sprite extends Shape {
 		loadTextureBuffer(gl, coordBuffer);
 	}
 	
+	/**
+	 * Load the texture of the sprite unless it is already loaded on the current surface.
+	 * Textures shared by TextureManager are referenced until the sprite is unloaded.
+	 * 
+	 * @param gl GL object
+	 * @param force true if the surface has been recreated
+	 * @param acquire true if the sprite has not been loaded yet
+	 */
+	protected void loadTexture(GL10 gl, boolean force, boolean acquire) {
+		if (force && texture.isLost()) {
+			texture.invalidate();
+		}
+		
+		TextureManager manager = texture.getManager();
+		if (acquire && manager != null) {
+			manager.acquire(gl, texture);
+			acquiredTexture = texture;
+		}
+		
+		// textures loaded by TextureLoader are uploaded before a frame is drawn
+		if (!texture.isLoaded() && !texture.isLoading()) {
+			texture.loadTexture(gl);
+		}
+	}
+	
 	protected void callRootOnLoadSurface(GL10 gl, boolean force) {
 		super.onLoadSurface(gl, force);
 	}
@@ -186,26 +210,60 @@ public class Sprite extends Shape {
 	public void onDraw(GL10 _gl) {
 		GL11 gl = (GL11)_gl;
 		
-		for(Shape child : children) {
-			child.onDraw(_gl);
+		for (int i = 0; i < children.size(); i++) {
+			children.get(i).onDraw(_gl);
 		}
 		
-		processModifiers(gl);
+		if (!asyncUpdate) {
+			processModifiers(gl);
+			if (!modifiers.isEmpty()) {
+				// modifiers advance only while frames are drawn
+				requestRender();
+			}
+		}
 		
         if (isRemoved() && isLoaded()) {
+        	if (pool != null && useVBO) {
+        		// buffers are generated again when the pooled sprite is reused
+        		unloadBuffer(gl);
+        		unloadTextureBuffer(gl);
+        	}
         	unload(gl);
 			return;
 		}
-			
-		if (!isVisible() || isRemoved()) {
+		
+		RenderState state = getRenderState();
+		if (!(state != null ? state.visible : isVisible()) || isRemoved()) {
+			return;
+		}
+		float[] color = state != null ? state.color : this.color;
+		
+		if (!asyncUpdate) {
+			processBeforeModifiers(gl);
+		}
+		if (texture.isLoading() || cullOutOfView(state)) {
+			if (!asyncUpdate) {
+				processAfterModifiers(gl);
+			}
 			return;
 		}
+		
+		SpriteBatch batch = SpriteBatch.getCurrent();
+		if (batch != null) {
+			if (batch.isBatchable(this)) {
+				batch.draw(gl, this);
+				if (!asyncUpdate) {
+					processAfterModifiers(gl);
+				}
+				return;
+			}
+			batch.flush(gl);
+		}
 
 		gl.glBindTexture(GL10.GL_TEXTURE_2D, texture.getTextureID());
 		
 	    gl.glLoadIdentity();
 		gl.glPushMatrix();
-		processBeforeModifiers(gl);
 		GLHelper.setColor(gl, color[0], color[1], color[2], color[3]);
 		applyParams(gl);
 		if (useVBO) {			
@@ -222,7 +280,9 @@ public class Sprite extends Shape {
 			GLHelper.texCoordPointer(gl, coordBuffer);
 			gl.glDrawElements(GL11.GL_TRIANGLE_FAN, RECTANGLE_POINTS, GL11.GL_UNSIGNED_SHORT, indiceBuffer);
 		}
-		processAfterModifiers(gl);
+		if (!asyncUpdate) {
+			processAfterModifiers(gl);
+		}
 		gl.glPopMatrix();
 		
 		GLHelper.checkError(gl);
@@ -238,11 +298,25 @@ public class Sprite extends Shape {
 	@Override
 	public void onRemove() {
 		super.onRemove();
-		this.coordBuffer = null;
+		if (!asyncUpdate && pool == null) {
+			this.coordBuffer = null;
+		}
 	}
 		
+	protected void unloadTextureBuffer(GL11 gl) {
+		if (GENERATED_TEXTURE_BUFFER_ID[0] > 0) {
+			GLHelper.deleteBuffer(gl, GENERATED_TEXTURE_BUFFER_ID[0]);
+		}
+	}
+	
 	protected void unload(GL10 gl) {
-		if (!texture.isReusable() && texture.isLoaded()) {
+		if (acquiredTexture != null) {
+			TextureManager manager = acquiredTexture.getManager();
+			if (manager != null) {
+				manager.release(gl, acquiredTexture);
+			}
+			acquiredTexture = null;
+		} else if (!texture.isReusable() && texture.isLoaded()) {
 			texture.unloadTexture(gl);
 			Debug.d(String.format("%s is unloaded.", texture.describe()));
 		}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+import com.e3roid.opengl.FastFloatBuffer;
+import com.e3roid.opengl.GLHelper;
+
+import com.badlogic.gdx.math.Matrix4;
+
+/**
+ * A SpriteBatch collects sprites that share the same texture and draws them with single draw call.
+ * Quad corners are transformed on the CPU using cached transform matrix of the sprite.
+ * Pending sprites are flushed whenever the texture or the blend mode changes,
+ * or when a drawable that can not be batched is drawn.
+ *
+ * Use Layer#enableSpriteBatch(boolean) to enable batching for the layer.
+ */
+public class SpriteBatch {
+
+	/**
+	 * Default number of sprites that can be drawn with single draw call.
+	 */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	// x, y, u, v, red, green, blue, alpha
+	private static final int VERTEX_SIZE = 8;
+	private static final int QUAD_SIZE   = VERTEX_SIZE * 4;
+	private static final int QUAD_INDICES = 6;
+
+	private static SpriteBatch current = null;
+
+	private final int capacity;
+	private final float[] vertices;
+	private final FastFloatBuffer vertexBuffer;
+	private final ShortBuffer indiceBuffer;
+	private final ByteBuffer texCoordView;
+	private final ByteBuffer colorView;
+	private final int[] GENERATED_HARDWAREID = new int[2];
+
+	private boolean useVBO = true;
+	private boolean loaded = false;
+
+	private int quadCount = 0;
+	private int textureID = -1;
+	private int srcBlendMode = -1;
+	private int dstBlendMode = -1;
+
+	private int renderCalls = 0;
+	private int spriteCount = 0;
+
+	/**
+	 * Constructs sprite batch with default capacity.
+	 */
+	public SpriteBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs sprite batch with given capacity.
+	 * @param capacity max number of sprites that can be drawn with single draw call.
+	 */
+	public SpriteBatch(int capacity) {
+		if (capacity <= 0 || capacity * 4 > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid SpriteBatch capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.vertices = new float[capacity * QUAD_SIZE];
+		this.vertexBuffer = new FastFloatBuffer(capacity * QUAD_SIZE);
+
+		this.texCoordView = sliceAt(vertexBuffer.bytes, 2 * 4);
+		this.colorView    = sliceAt(vertexBuffer.bytes, 4 * 4);
+
+		short[] indices = new short[capacity * QUAD_INDICES];
+		for (int i = 0, j = 0; i < indices.length; i += QUAD_INDICES, j += 4) {
+			// same winding as the triangle fan used by Shape
+			indices[i]     = (short)(j);
+			indices[i + 1] = (short)(j + 1);
+			indices[i + 2] = (short)(j + 2);
+			indices[i + 3] = (short)(j);
+			indices[i + 4] = (short)(j + 2);
+			indices[i + 5] = (short)(j + 3);
+		}
+		this.indiceBuffer = ByteBuffer.allocateDirect(indices.length * 2)
+				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		this.indiceBuffer.put(indices);
+		this.indiceBuffer.position(0);
+	}
+
+	private static ByteBuffer sliceAt(ByteBuffer buffer, int offset) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		return view.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns sprite batch that is currently collecting sprites.
+	 * @return current sprite batch, or null if no batch is active.
+	 */
+	public static SpriteBatch getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Flushes current sprite batch if exists.
+	 * Drawables that draw by themselves must call this before drawing.
+	 * @param gl GL object
+	 */
+	public static void flushCurrent(GL10 gl) {
+		if (current != null) {
+			current.flush(gl);
+		}
+	}
+
+	/**
+	 * Starts collecting sprites.
+	 * @param gl GL object
+	 * @param useVBO whether use VBO or not
+	 */
+	public void begin(GL10 gl, boolean useVBO) {
+		if (current != null) {
+			current.end(gl);
+		}
+		if (this.useVBO != useVBO) {
+			this.useVBO = useVBO;
+			this.loaded = false;
+		}
+		if (useVBO && !loaded) {
+			onLoadSurface((GL11)gl);
+		}
+		this.renderCalls = 0;
+		this.spriteCount = 0;
+		current = this;
+	}
+
+	/**
+	 * Draws pending sprites and stops collecting sprites.
+	 * @param gl GL object
+	 */
+	public void end(GL10 gl) {
+		flush(gl);
+		if (current == this) {
+			current = null;
+		}
+	}
+
+	/**
+	 * Returns whether the sprite can be drawn with this batch or not.
+	 * Sprites rotated around X or Y axis can not be batched.
+	 *
+	 * @param sprite Sprite
+	 * @return whether the sprite can be batched or not
+	 */
+	public boolean isBatchable(Sprite sprite) {
+		RenderState state = sprite.getRenderState();
+		float[] rotate = state != null ? state.rotate : sprite.rotateParams;
+		return rotate[3] == Shape.AXIS_Z
+			&& sprite.vertexBuffer != null && sprite.coordBuffer != null
+			&& sprite.texture != null && sprite.texture.isLoaded();
+	}
+
+	/**
+	 * Appends the sprite to this batch.
+	 * Pending sprites are flushed if texture or blend mode has been changed.
+	 *
+	 * @param gl GL object
+	 * @param sprite Sprite
+	 */
+	public void draw(GL10 gl, Sprite sprite) {
+		int spriteTextureID = sprite.texture.getTextureID();
+		if (quadCount > 0) {
+			if (quadCount == capacity || textureID != spriteTextureID
+					|| srcBlendMode != GLHelper.getSrcBlendMode()
+					|| dstBlendMode != GLHelper.getDstBlendMode()) {
+				flush(gl);
+			}
+		}
+		if (quadCount == 0) {
+			textureID = spriteTextureID;
+			srcBlendMode = GLHelper.getSrcBlendMode();
+			dstBlendMode = GLHelper.getDstBlendMode();
+		}
+
+		RenderState state = sprite.getRenderState();
+		float[] m     = state != null ? state.transform : sprite.getTransform().val;
+		float[] color = state != null ? state.color : sprite.color;
+
+		FastFloatBuffer positions = sprite.vertexBuffer;
+		FastFloatBuffer coords    = sprite.coordBuffer;
+		int offset = quadCount * QUAD_SIZE;
+		for (int i = 0; i < 4; i++) {
+			float x = positions.get(i * 3);
+			float y = positions.get(i * 3 + 1);
+
+			vertices[offset]     = m[Matrix4.M00] * x + m[Matrix4.M01] * y + m[Matrix4.M03];
+			vertices[offset + 1] = m[Matrix4.M10] * x + m[Matrix4.M11] * y + m[Matrix4.M13];
+			vertices[offset + 2] = coords.get(i * 2);
+			vertices[offset + 3] = coords.get(i * 2 + 1);
+			vertices[offset + 4] = color[0];
+			vertices[offset + 5] = color[1];
+			vertices[offset + 6] = color[2];
+			vertices[offset + 7] = color[3];
+			offset += VERTEX_SIZE;
+		}
+		quadCount++;
+		spriteCount++;
+	}
+
+	/**
+	 * Draws pending sprites with single draw call.
+	 * @param gl GL object
+	 */
+	public void flush(GL10 gl) {
+		if (quadCount == 0) return;
+
+		int currentSrcBlendMode = GLHelper.getSrcBlendMode();
+		int currentDstBlendMode = GLHelper.getDstBlendMode();
+		GLHelper.blendMode(gl, srcBlendMode, dstBlendMode);
+
+		vertexBuffer.position(0);
+		vertexBuffer.put(vertices, 0, quadCount * QUAD_SIZE);
+		vertexBuffer.position(0);
+
+		gl.glBindTexture(GL10.GL_TEXTURE_2D, textureID);
+		GLHelper.resetCurrentTextureID();
+		GLHelper.enableColorArray(gl, true);
+
+		gl.glLoadIdentity();
+		if (useVBO) {
+			GL11 gl11 = (GL11)gl;
+			GLHelper.bindBuffer(gl11, GENERATED_HARDWAREID[0]);
+			GLHelper.bufferFloatData(gl11, quadCount * QUAD_SIZE, vertexBuffer, GL11.GL_DYNAMIC_DRAW);
+			GLHelper.interleavedZeroPointer(gl11);
+			GLHelper.bindElementBuffer(gl11, GENERATED_HARDWAREID[1]);
+			gl11.glDrawElements(GL10.GL_TRIANGLES, quadCount * QUAD_INDICES, GL10.GL_UNSIGNED_SHORT, 0);
+
+			// unbind buffers
+			GLHelper.bindBuffer(gl11, 0);
+			GLHelper.bindElementBuffer(gl11, 0);
+		} else {
+			GLHelper.interleavedPointer(gl, vertexBuffer.bytes, texCoordView, colorView);
+			gl.glDrawElements(GL10.GL_TRIANGLES, quadCount * QUAD_INDICES, GL10.GL_UNSIGNED_SHORT, indiceBuffer);
+		}
+		GLHelper.checkError(gl);
+
+		GLHelper.enableColorArray(gl, false);
+		GLHelper.resetCurrentColor();
+		GLHelper.blendMode(gl, currentSrcBlendMode, currentDstBlendMode);
+
+		quadCount = 0;
+		renderCalls++;
+	}
+
+	/**
+	 * Called when the batch is created or recreated.
+	 * @param gl GL object
+	 */
+	public void onLoadSurface(GL11 gl) {
+		gl.glGenBuffers(GENERATED_HARDWAREID.length, GENERATED_HARDWAREID, 0);
+		GLHelper.bindElementBuffer(gl, GENERATED_HARDWAREID[1]);
+		GLHelper.bufferElementShortData(gl, indiceBuffer.capacity(), indiceBuffer, GL11.GL_STATIC_DRAW);
+		GLHelper.bindElementBuffer(gl, 0);
+		this.loaded = true;
+	}
+
+	/**
+	 * Set the batch is loaded or not.
+	 * Hardware buffers are regenerated on next begin() if not loaded.
+	 * @param loaded
+	 */
+	public void setLoaded(boolean loaded) {
+		this.loaded = loaded;
+	}
+
+	/**
+	 * Returns whether the batch is loaded or not.
+	 */
+	public boolean isLoaded() {
+		return this.loaded;
+	}
+
+	/**
+	 * Returns max number of sprites that can be drawn with single draw call.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns number of draw calls issued since last begin().
+	 */
+	public int getRenderCalls() {
+		return this.renderCalls;
+	}
+
+	/**
+	 * Returns number of sprites drawn since last begin().
+	 */
+	public int getSpriteCount() {
+		return this.spriteCount;
+	}
+}
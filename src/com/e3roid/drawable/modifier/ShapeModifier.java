@@ -15,11 +15,15 @@ package com.e3roid.drawable.modifier;
 
 import javax.microedition.khronos.opengles.GL10;
 import com.e3roid.drawable.Shape;
+import com.e3roid.util.Poolable;
 
-public abstract class ShapeModifier {
+public abstract class ShapeModifier implements Poolable {
 	
 	private boolean hasParentShape = true;
 	
+	// pool that the modifier has been obtained from
+	ModifierPool<?> pool = null;
+	
 	public abstract void onLoad(Shape shape, GL10 gl);
 	public abstract void onBeforeUpdate(Shape shape, GL10 gl);
 	public abstract void onAfterUpdate(Shape shape, GL10 gl);
@@ -32,6 +36,18 @@ public abstract class ShapeModifier {
 	}
 	public abstract void reset();
 	
+	/**
+	 * Return the modifier to the pool that it has been obtained from.
+	 * Called by the shape when the modifier is unloaded or the shape is removed.
+	 * Does nothing if the modifier is not obtained from ModifierPool.
+	 */
+	public void recycle() {
+		ModifierPool<?> pool = this.pool;
+		if (pool != null) {
+			pool.recycle(this);
+		}
+	}
+	
 	public void reverse() {
 		
 	}
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Hashtable;
 
 import android.os.SystemClock;
+import com.e3roid.drawable.RenderState;
 import com.e3roid.drawable.Sprite;
 import com.e3roid.drawable.texture.TiledTexture;
 import com.e3roid.event.AnimationEventListener;
@@ -44,6 +45,7 @@ public class AnimatedSprite extends Sprite {
 	private int  currentFrame = 0;
 	private int  currentCount = 0;
 	private boolean reloadTile = false;
+	private FastFloatBuffer animationCoords = null;
 	
 	/**
 	 * Constructs animated sprite with given texture and position.
@@ -95,6 +97,51 @@ public class AnimatedSprite extends Sprite {
 	public void onDraw(GL10 _gl) {
 		GL11 gl = (GL11)_gl;
 		
+		if (asyncUpdate) {
+			// animation has been updated on the update thread
+			RenderState state = getRenderState();
+			if (state != null && state.texCoords != null && state.texCoords != coordBuffer) {
+				loadTextureBuffer(gl, state.texCoords);
+			}
+		} else {
+			FastFloatBuffer coords = updateAnimation();
+			if (coords != null) {
+				loadTextureBuffer(gl, coords);
+			}
+			if (animated) {
+				// animation advances only while frames are drawn
+				requestRender();
+			}
+		}
+		
+		super.onDraw(_gl);
+	}
+	
+	/**
+	 * Called on the update thread of the engine to update the animation.
+	 */
+	@Override
+	public void onUpdate() {
+		super.onUpdate();
+		FastFloatBuffer coords = updateAnimation();
+		if (coords != null) {
+			animationCoords = coords;
+			requestRender();
+		}
+	}
+	
+	@Override
+	protected void saveRenderState(RenderState state) {
+		super.saveRenderState(state);
+		state.texCoords = animationCoords;
+	}
+	
+	/**
+	 * Advance the animation.
+	 * @return texture coordinates to draw, or null if they have not been changed.
+	 */
+	private FastFloatBuffer updateAnimation() {
+		FastFloatBuffer coords = null;
 		if (animated && isVisible()) {
 			long now = SystemClock.uptimeMillis();
 			Frame frame = getCurrentFrame();
@@ -103,7 +150,7 @@ public class AnimatedSprite extends Sprite {
 			if (now - lastTimeMillis > wait) {
 				IntPair cacheKey = new IntPair(frame.getX(), frame.getY());
 				nextFrame();
-				loadTextureBuffer(gl, cache.get(cacheKey));
+				coords = cache.get(cacheKey);
 				if (maxCount > 0 && currentFrame == 0) currentCount++;
 				lastTimeMillis = now;
 			}
@@ -113,11 +160,10 @@ public class AnimatedSprite extends Sprite {
 		}
 		if (reloadTile) {
 			IntPair cacheKey = new IntPair(texture.getTileIndexX(), texture.getTileIndexY());
-			loadTextureBuffer(gl, cache.get(cacheKey));
+			coords = cache.get(cacheKey);
 			reloadTile = false;
 		}
-		
-		super.onDraw(_gl);
+		return coords;
 	}
 	
 	private void nextFrame() {
@@ -172,6 +218,17 @@ public class AnimatedSprite extends Sprite {
 		reset();
 		animated = false;
 	}
+	
+	/**
+	 * Called when this sprite is returned to its pool.
+	 */
+	@Override
+	public void onRecycle() {
+		super.onRecycle();
+		reset();
+		animated = false;
+		animationCoords = null;
+	}
 
 	/**
 	 * Returns current animation frame.
@@ -208,6 +265,7 @@ public class AnimatedSprite extends Sprite {
 		createCache(xindex, yindex);
 		texture.setTileIndex(xindex, yindex);
 		reloadTile = true;
+		requestRender();
 	}
 	
 	/**
@@ -237,6 +295,7 @@ public class AnimatedSprite extends Sprite {
 			eventListener.animationStarted(this);
 		}
 		this.animated = true;
+		requestRender();
 	}
 	
 	/**
@@ -178,7 +178,7 @@ public class TerminalSprite extends Sprite implements TerminalContainer, SceneOn
 	 */
 	@Override
 	public void postInvalidate() {
-		// nothing to do
+		requestRender();
 	}
 	
 	/**
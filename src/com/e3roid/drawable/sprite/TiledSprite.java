@@ -18,6 +18,7 @@ import java.util.HashMap;
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
 
+import com.e3roid.drawable.RenderState;
 import com.e3roid.drawable.Sprite;
 import com.e3roid.drawable.texture.TiledTexture;
 import com.e3roid.opengl.FastFloatBuffer;
@@ -100,18 +101,13 @@ public class TiledSprite extends Sprite {
 	@Override
 	public void onLoadSurface(GL10 _gl, boolean force) {
 		if (!force && isLoaded()) return;
+		boolean acquire = !isLoaded();
 		
 		super.callRootOnLoadSurface(_gl, force);
 		
 		GL11 gl = (GL11)_gl;
 		
-		if (force && texture.isLoaded()) {
-			texture.unloadTexture(gl);
-		}
-		
-		if (!texture.isLoaded()) {
-			texture.loadTexture(gl);
-		}
+		loadTexture(gl, force, acquire);
 		
 		if (force) {
 			bufferCache.clear();
@@ -157,9 +153,11 @@ public class TiledSprite extends Sprite {
 			return;
 		}
 			
-		if (!isVisible() || isRemoved()) {
+		RenderState state = getRenderState();
+		if (!(state != null ? state.visible : isVisible()) || isRemoved() || texture.isLoading()) {
 			return;
 		}
+		float[] translateParams = state != null ? state.translate : this.translateParams;
 
 		GLHelper.bindTexture(gl, texture.getTextureID());
 		
@@ -175,6 +173,11 @@ public class TiledSprite extends Sprite {
 		gl.glDrawElements(GL11.GL_TRIANGLE_FAN, RECTANGLE_POINTS, GL11.GL_UNSIGNED_SHORT, 0);			
 	}
 		
+	@Override
+	protected void unloadTextureBuffer(GL11 gl) {
+		// texture buffers are owned by the tile cache
+	}
+	
 	@Override
 	protected void loadTextureBuffer(GL11 gl, FastFloatBuffer coordBuffer) {
 		if (!coordBuffer.isLoaded()) {
@@ -23,23 +23,29 @@ import javax.microedition.khronos.opengles.GL10;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.opengl.GLUtils;
 
+import com.e3roid.opengl.ETC1Image;
 import com.e3roid.opengl.GLHelper;
 import com.e3roid.opengl.TGA;
 import com.e3roid.opengl.TGA.ImageTGA;
 import com.e3roid.util.BitmapUtil;
 import com.e3roid.util.Debug;
-import com.e3roid.util.MathUtil;
 
 public class AssetTexture extends Texture {
 	/**
 	 * Extension for TGA formatted image.
 	 */
 	public static String tgaExtension = ".tga";
+	/**
+	 * Extensions for ETC1 compressed image.
+	 */
+	public static String pkmExtension = ".pkm";
+	public static String ktxExtension = ".ktx";
 
 	private final String assetName;
 	private boolean useTGA = false;
+	private boolean useETC1 = false;
+	private int tgaPixelDepth = 0;
 	private boolean flipped = false;
 	private boolean useFullpath = false;
 	
@@ -63,6 +69,8 @@ public class AssetTexture extends Texture {
 		// TGA formatted image file support
 		if (name.toLowerCase().endsWith(tgaExtension)) {
 			initializeTGA(name);
+		} else if (isETC1(name)) {
+			initializeETC1(name);
 		} else {
 			initializeBitmap(name);
 		}
@@ -97,7 +105,7 @@ public class AssetTexture extends Texture {
 			}
 		}
 		setSize(bitmapOptions.outWidth, bitmapOptions.outHeight);
-		setGLSize(MathUtil.nextPowerOfTwo(getWidth()), MathUtil.nextPowerOfTwo(getHeight()));
+		setGLSize(getStorageSize(getWidth()), getStorageSize(getHeight()));
 	}
 	
 	/**
@@ -137,8 +145,55 @@ public class AssetTexture extends Texture {
 			throw new IllegalArgumentException("Failed to load TGA texture: " + assetName);
 		}
 				
+		this.tgaPixelDepth = image.pixelDepth;
+		setSize(image.width, image.height);
+		setGLSize(getStorageSize(getWidth()), getStorageSize(getHeight()));
+	}
+	
+	private static boolean isETC1(String name) {
+		String lowerName = name.toLowerCase();
+		return lowerName.endsWith(pkmExtension) || lowerName.endsWith(ktxExtension);
+	}
+	
+	/**
+	 * Constructs ETC1 compressed texture from asset.
+	 * The texture is as large as the encoded image, which has been padded by the converter.
+	 * @param assetName asset name
+	 */
+	private void initializeETC1(String assetName) {
+		this.useETC1 = true;
+		
+		ETC1Image image = null;
+		InputStream is = null;
+		try {
+			is = openAsset();
+			image = ETC1Image.decodeBounds(is);
+		} catch (Exception e) {
+			Debug.e("Failed to load ETC1 texture " + assetName, e);
+		} finally {
+			try {
+				if (is != null) {
+					is.close();
+				}
+			} catch (IOException e) {
+				// do nothing
+			}
+		}
+		
+		if (image == null) {
+			throw new IllegalArgumentException("Failed to load ETC1 texture: " + assetName);
+		}
+		
 		setSize(image.width, image.height);
-		setGLSize(MathUtil.nextPowerOfTwo(getWidth()), MathUtil.nextPowerOfTwo(getHeight()));
+		setGLSize(image.textureWidth, image.textureHeight);
+	}
+	
+	private InputStream openAsset() throws IOException {
+		if (useFullpath) {
+			return new FileInputStream(assetName);
+		} else {
+			return getContext().getAssets().open(assetName);
+		}
 	}
 	
 	/*
@@ -158,6 +213,8 @@ public class AssetTexture extends Texture {
 		if (name.toLowerCase().endsWith(tgaExtension)) {
 			this.useTGA  = true;
 			this.flipped = true;
+		} else if (isETC1(name)) {
+			this.useETC1 = true;
 		}
 	}
 
@@ -165,6 +222,8 @@ public class AssetTexture extends Texture {
 	public void loadTexture(GL10 gl, boolean reload) {
 		if (useTGA) {
 			loadTGATexture(gl, reload);
+		} else if (useETC1) {
+			uploadETC1Texture(gl, reload, decodeETC1());
 		} else {
 			super.loadTexture(gl, reload);
 		}
@@ -174,7 +233,13 @@ public class AssetTexture extends Texture {
 	 * load TGA texture
 	 */
 	private void loadTGATexture(GL10 gl, boolean reload) {
-		
+		uploadTGATexture(gl, reload, decodeTGA());
+	}
+	
+	/**
+	 * decode TGA image
+	 */
+	private ImageTGA decodeTGA() {
 		ImageTGA image = null;
 		InputStream is = null;
 		try {
@@ -183,7 +248,7 @@ public class AssetTexture extends Texture {
 			} else {
 				is = getContext().getAssets().open(assetName);
 			}
-			image = TGA.load(is);
+			image = TGA.load(is, true);
 		} catch (Exception e) {
 			Debug.e("Failed to load Texture " + assetName, e);
 		} finally {
@@ -196,30 +261,45 @@ public class AssetTexture extends Texture {
 			}
 		}
 
-		if (image == null) {
+		if (image == null || image.getStatus() != TGA.TGAError.TGA_OK) {
 			throw new IllegalArgumentException("Failed to load TGA info: " + assetName);
 		}
-		
+		return image;
+	}
+	
+	/**
+	 * upload decoded TGA image
+	 */
+	private void uploadTGATexture(GL10 gl, boolean reload, ImageTGA image) {
 		if (!reload) {
 			setTextureID(generateTextureID(gl));
 		}
 		gl.glBindTexture(GL10.GL_TEXTURE_2D, getTextureID());
 		applyOptions(gl);
 		
-		int format = image.pixelDepth == 32 ? GL10.GL_RGBA : GL10.GL_RGB;
+		this.tgaPixelDepth = image.pixelDepth;
+		int format = GL10.GL_RGB;
+		if (image.pixelDepth == 32) {
+			format = GL10.GL_RGBA;
+		} else if (image.pixelDepth == 8) {
+			format = GL10.GL_LUMINANCE;
+		}
 		
-		Bitmap holder = null;
-		if (format == GL10.GL_RGB) {
-			holder = Bitmap.createBitmap(getGLWidth(), getGLHeight(), Bitmap.Config.RGB_565);
+		ByteBuffer pixels = image.pixels != null ? image.pixels : ByteBuffer.wrap(image.imageData);
+		// TGA rows are tightly packed
+		gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT, 1);
+		if (image.width == getGLWidth() && image.height == getGLHeight()) {
+			// the image fills the storage, so both are defined by one upload
+			gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, format, image.width, image.height, 0,
+					format, GL10.GL_UNSIGNED_BYTE, pixels);
 		} else {
-			holder = Bitmap.createBitmap(getGLWidth(), getGLHeight(), Bitmap.Config.ARGB_8888);
+			defineStorage(gl, format);
+			gl.glTexSubImage2D(GL10.GL_TEXTURE_2D, 0, 
+					0, 0, image.width, image.height, format, GL10.GL_UNSIGNED_BYTE, pixels);
+			clearPadding(gl, image.width, image.height, format);
 		}
-		
-		GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, holder, 0);
-		holder.recycle();
-		
-		gl.glTexSubImage2D(GL10.GL_TEXTURE_2D, 0, 
-				0, 0, image.width, image.height, format, GL10.GL_UNSIGNED_BYTE, ByteBuffer.wrap(image.imageData));
+		gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT, 4);
+		TGA.destroy(image);
 		
 		GLHelper.checkError(gl);
 		
@@ -254,9 +334,97 @@ public class AssetTexture extends Texture {
 		return this.assetName;
 	}
 	
+	/**
+	 * decode ETC1 image
+	 */
+	private ETC1Image decodeETC1() {
+		ETC1Image image = null;
+		InputStream is = null;
+		try {
+			is = openAsset();
+			image = ETC1Image.load(is);
+		} catch (Exception e) {
+			Debug.e("Failed to load Texture " + assetName, e);
+		} finally {
+			try {
+				if (is != null) {
+					is.close();
+				}
+			} catch (IOException e) {
+				// do nothing
+			}
+		}
+		
+		if (image == null) {
+			throw new IllegalArgumentException("Failed to load ETC1 image: " + assetName);
+		}
+		return image;
+	}
+	
+	/**
+	 * upload ETC1 image by glCompressedTexImage2D,
+	 * or as RGB565 image decoded in software if the device does not support ETC1.
+	 */
+	private void uploadETC1Texture(GL10 gl, boolean reload, ETC1Image image) {
+		if (!reload) {
+			setTextureID(generateTextureID(gl));
+		}
+		gl.glBindTexture(GL10.GL_TEXTURE_2D, getTextureID());
+		applyOptions(gl);
+		
+		if (GLHelper.hasExtension(ETC1Image.EXTENSION)) {
+			gl.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, 0, ETC1Image.GL_ETC1_RGB8_OES,
+					image.textureWidth, image.textureHeight, 0, image.data.remaining(), image.data);
+		} else {
+			gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_RGB, image.textureWidth, image.textureHeight, 0,
+					GL10.GL_RGB, GL10.GL_UNSIGNED_SHORT_5_6_5, image.decodeRGB565());
+		}
+		
+		GLHelper.checkError(gl);
+		
+		setLoaded(true);
+	}
+	
 	@Override
-	protected Bitmap loadBitmap() {
+	protected Object decodeImage() {
 		if (useTGA) {
+			return decodeTGA();
+		} else if (useETC1) {
+			return decodeETC1();
+		} else {
+			return super.decodeImage();
+		}
+	}
+	
+	@Override
+	protected void uploadImage(GL10 gl, Object image) {
+		if (image instanceof ImageTGA) {
+			uploadTGATexture(gl, false, (ImageTGA)image);
+		} else if (image instanceof ETC1Image) {
+			uploadETC1Texture(gl, false, (ETC1Image)image);
+		} else {
+			super.uploadImage(gl, image);
+		}
+	}
+	
+	/**
+	 * Returns texture memory used by the texture when it is loaded.
+	 * ETC1 texture uses half byte per texel, and TGA texture uses the pixel depth of the image.
+	 */
+	@Override
+	public int getByteSize() {
+		if (useETC1) {
+			return getGLWidth() * getGLHeight() / 2;
+		}
+		if (useTGA && tgaPixelDepth > 0) {
+			return getGLWidth() * getGLHeight() * tgaPixelDepth / 8;
+		}
+		return super.getByteSize();
+	}
+	
+	@Override
+	protected Bitmap loadBitmap() {
+		if (useTGA || useETC1) {
 			return null;
 		} else {
 			return BitmapUtil.getBitmapFromAsset(assetName, getContext());
@@ -13,6 +13,9 @@
  */
 package com.e3roid.drawable.texture;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import javax.microedition.khronos.opengles.GL10;
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -26,6 +29,10 @@ public abstract class Texture {
 	private final Context context;
 	private final int[] GENERATED_TEXTUREID = new int[1];
 	
+	// zeroed pixels to clear texture padding, used only on the GL thread
+	private static ByteBuffer zeroBuffer = null;
+	private static boolean npotEnabled = true;
+	
 	private int width;
 	private int height;
 	
@@ -36,8 +43,16 @@ public abstract class Texture {
 	
 	private int textureID = -1;
 	private Option option = Option.DEFAULT;
+	private Format format = Format.RGBA8888;
 
 	private boolean loaded   = false;
+	private volatile boolean loading = false;
+	private int surfaceID = -1;
+	
+	// set when the texture is shared by TextureManager
+	TextureManager manager = null;
+	String managerKey = null;
+	int references = 0;
 	private boolean reusable = false;
 	private boolean recycleBitmap = true;
 	
@@ -56,8 +71,8 @@ public abstract class Texture {
 		this.option = option;
 		this.width  = width;
 		this.height = height;
-		this.glWidth  = MathUtil.nextPowerOfTwo(width);
-		this.glHeight = MathUtil.nextPowerOfTwo(height);
+		this.glWidth  = getStorageSize(width);
+		this.glHeight = getStorageSize(height);
 	}
 	
 	protected abstract Bitmap loadBitmap();
@@ -68,30 +83,150 @@ public abstract class Texture {
 	}
 	
 	public void loadTexture(GL10 gl, boolean reload) {
+		uploadBitmap(gl, reload, loadBitmap());
+	}
+	
+	/**
+	 * Upload decoded bitmap to the texture. Called on the GL thread.
+	 * The bitmap is recycled after upload unless recycleBitmap(false) has been called.
+	 */
+	protected void uploadBitmap(GL10 gl, boolean reload, Bitmap bitmap) {
 		if (!reload) {
 			this.textureID = generateTextureID(gl);
 		}
 		gl.glBindTexture(GL10.GL_TEXTURE_2D, textureID);
 		applyOptions(gl);
 		
-		final Bitmap holder = Bitmap.createBitmap(glWidth, glHeight, Bitmap.Config.ARGB_8888);
-		GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, holder, 0);
-		holder.recycle();
-		
-		Bitmap bitmap = loadBitmap();
-		if (bitmap == null) return;
+		if (bitmap == null) {
+			defineStorage(gl, format.glFormat, format.glType);
+			clearPadding(gl, 0, 0, format.glFormat, format.glType);
+			return;
+		}
 
+		// 16 bit formats are uploaded from a bitmap of the same pixel layout
+		Bitmap pixels = bitmap;
+		if (format != Format.RGBA8888 && bitmap.getConfig() != format.config) {
+			pixels = bitmap.copy(format.config, false);
+		}
 		try {
-			GLHelper.texSubImage2D(gl, GL10.GL_TEXTURE_2D, 0, 
-					0, 0, bitmap, GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE);		
-			this.loaded = true;
+			if (pixels.getWidth() == glWidth && pixels.getHeight() == glHeight) {
+				// the image fills the storage, so both are defined by one upload
+				GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, pixels, 0);
+				GLHelper.checkError(gl);
+			} else {
+				defineStorage(gl, format.glFormat, format.glType);
+				GLHelper.texSubImage2D(gl, GL10.GL_TEXTURE_2D, 0, 
+						0, 0, pixels, format.glFormat, format.glType);
+				clearPadding(gl, pixels.getWidth(), pixels.getHeight(), format.glFormat, format.glType);
+			}
+			setLoaded(true);
 		} finally {
+			if (pixels != bitmap) {
+				pixels.recycle();
+			}
 			if (recycleBitmap) {
 				bitmap.recycle();
 			}
 		}
 	}
 		
+	/**
+	 * Define storage of glWidth x glHeight texels without uploading pixels.
+	 * The storage is undefined until the image is uploaded by glTexSubImage2D.
+	 */
+	protected void defineStorage(GL10 gl, int format) {
+		defineStorage(gl, format, GL10.GL_UNSIGNED_BYTE);
+	}
+	
+	protected void defineStorage(GL10 gl, int format, int type) {
+		gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, format, glWidth, glHeight, 0,
+				format, type, null);
+		GLHelper.checkError(gl);
+	}
+	
+	/**
+	 * Clear the padding next to the uploaded image that can be sampled:
+	 * one texel around the image for bilinear filtering and
+	 * the texels up to the texture size when the image is smaller than the texture.
+	 * 
+	 * @param gl GL object
+	 * @param imageWidth width of the uploaded image
+	 * @param imageHeight height of the uploaded image
+	 * @param format pixel format of the storage
+	 */
+	protected void clearPadding(GL10 gl, int imageWidth, int imageHeight, int format) {
+		clearPadding(gl, imageWidth, imageHeight, format, GL10.GL_UNSIGNED_BYTE);
+	}
+	
+	protected void clearPadding(GL10 gl, int imageWidth, int imageHeight, int format, int type) {
+		int right  = Math.min(Math.max(width,  imageWidth)  + 1, glWidth);
+		int bottom = Math.min(Math.max(height, imageHeight) + 1, glHeight);
+		if (imageWidth < right && bottom > 0) {
+			int w = right - imageWidth;
+			gl.glTexSubImage2D(GL10.GL_TEXTURE_2D, 0, imageWidth, 0, w, bottom,
+					format, type, getZeroBuffer(w * bottom));
+		}
+		if (imageHeight < bottom && imageWidth > 0) {
+			int h = bottom - imageHeight;
+			gl.glTexSubImage2D(GL10.GL_TEXTURE_2D, 0, 0, imageHeight, imageWidth, h,
+					format, type, getZeroBuffer(imageWidth * h));
+		}
+		GLHelper.checkError(gl);
+	}
+	
+	/*
+	 * Returns zeroed buffer large enough for given number of texels of any format and row alignment.
+	 */
+	private static ByteBuffer getZeroBuffer(int texels) {
+		int bytes = texels * 4;
+		if (zeroBuffer == null || zeroBuffer.capacity() < bytes) {
+			zeroBuffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		zeroBuffer.position(0);
+		return zeroBuffer;
+	}
+	
+	/**
+	 * Returns size of the texture storage for given image size.
+	 * The size is rounded up to power of two unless textures of any size are supported by the GL
+	 * of the last created surface. Textures created before the first surface always use power of two.
+	 * 
+	 * @param size width or height of the image
+	 * @return width or height of the texture storage
+	 */
+	public static int getStorageSize(int size) {
+		if (npotEnabled && GLHelper.isNPOTSupported()) {
+			return size;
+		}
+		return MathUtil.nextPowerOfTwo(size);
+	}
+	
+	/**
+	 * Enable or disable textures of non power of two size where they are supported (enabled by default).
+	 * This affects textures created after the call.
+	 */
+	public static void enableNPOT(boolean enable) {
+		npotEnabled = enable;
+	}
+	
+	/**
+	 * Decodes image of the texture without OpenGL.
+	 * Called on a worker thread of TextureLoader, so that the GL thread only uploads the image.
+	 * @return decoded image, or null if the image could not be decoded
+	 */
+	protected Object decodeImage() {
+		return loadBitmap();
+	}
+	
+	/**
+	 * Uploads image returned by decodeImage(). Called on the GL thread.
+	 * @param gl GL object
+	 * @param image decoded image
+	 */
+	protected void uploadImage(GL10 gl, Object image) {
+		uploadBitmap(gl, false, (Bitmap)image);
+	}
+	
 	public void unloadTexture(GL10 gl) {
 		GLHelper.deleteTexture(gl, this.textureID);
 		this.textureID = -1;
@@ -154,6 +289,51 @@ public abstract class Texture {
 	
 	protected void setLoaded(boolean loaded) {
 		this.loaded = loaded;
+		if (loaded) {
+			this.surfaceID = GLHelper.getSurfaceID();
+		}
+	}
+	
+	/**
+	 * Returns whether the texture has been loaded on a surface that has been lost.
+	 * Such texture must be invalidated and loaded again.
+	 */
+	public boolean isLost() {
+		return isLoaded() && surfaceID != GLHelper.getSurfaceID();
+	}
+	
+	/**
+	 * Forget the texture of a lost surface so that it is loaded again.
+	 * The texture name is not deleted because the new surface may have given it to another texture.
+	 */
+	public void invalidate() {
+		this.textureID = -1;
+		this.loaded = false;
+	}
+	
+	/**
+	 * Returns texture memory used by the texture when it is loaded.
+	 */
+	public int getByteSize() {
+		return glWidth * glHeight * format.bytesPerTexel;
+	}
+	
+	/**
+	 * Returns the manager that shares this texture, or null.
+	 */
+	public TextureManager getManager() {
+		return this.manager;
+	}
+	
+	/**
+	 * Returns whether the texture is being decoded or waiting for upload by TextureLoader.
+	 */
+	public boolean isLoading() {
+		return this.loading;
+	}
+	
+	void setLoading(boolean loading) {
+		this.loading = loading;
 	}
 	
 	protected void setSize(int w, int h) {
@@ -223,10 +403,48 @@ public abstract class Texture {
 		this.option = option;
 	}
 	
+	public Option getOption() {
+		return this.option;
+	}
+	
+	/**
+	 * Set pixel format of the texture storage. This affects the next upload.
+	 * Formats other than RGBA8888 apply to bitmap textures.
+	 */
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+	
+	public Format getFormat() {
+		return this.format;
+	}
+	
 	public static enum Option {
 		DEFAULT, BILINEAR, REPEATING, REPEATING_BILINEAR;
 	}
 	
+	/**
+	 * Pixel format of the texture storage.
+	 * 16 bit formats halve texture memory and upload bandwidth at the cost of color precision.
+	 */
+	public static enum Format {
+		RGBA8888(GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE, 4, Bitmap.Config.ARGB_8888),
+		RGB565(GL10.GL_RGB, GL10.GL_UNSIGNED_SHORT_5_6_5, 2, Bitmap.Config.RGB_565),
+		RGBA4444(GL10.GL_RGBA, GL10.GL_UNSIGNED_SHORT_4_4_4_4, 2, Bitmap.Config.ARGB_4444);
+		
+		final int glFormat;
+		final int glType;
+		final int bytesPerTexel;
+		final Bitmap.Config config;
+		
+		private Format(int glFormat, int glType, int bytesPerTexel, Bitmap.Config config) {
+			this.glFormat = glFormat;
+			this.glType   = glType;
+			this.bytesPerTexel = bytesPerTexel;
+			this.config   = config;
+		}
+	}
+	
 	protected Context getContext() {
 		return this.context;
 	}	
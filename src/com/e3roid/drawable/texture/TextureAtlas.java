@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable.texture;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import com.e3roid.opengl.TGA;
+import com.e3roid.opengl.TGA.ImageTGA;
+import com.e3roid.util.BitmapUtil;
+import com.e3roid.util.Debug;
+
+/**
+ * A TextureAtlas packs many asset images into a few large textures.
+ * Each added image is placed into a page by MaxRects bin packing (best short side fit),
+ * and is returned as TextureRegion that can be used as texture of the sprite.
+ * Sprites that share the same page need no texture binds between them,
+ * which works well with SpriteBatch.
+ */
+public class TextureAtlas {
+	
+	/**
+	 * Default page width and height
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1024;
+	/**
+	 * Default padding pixels between regions
+	 */
+	public static final int DEFAULT_PADDING = 2;
+	
+	private final Context context;
+	private final int pageWidth;
+	private final int pageHeight;
+	private final int padding;
+	private final Texture.Option option;
+	private final ArrayList<Page> pages = new ArrayList<Page>();
+	
+	public TextureAtlas(Context context) {
+		this(DEFAULT_PAGE_SIZE, DEFAULT_PAGE_SIZE, context);
+	}
+	public TextureAtlas(int pageWidth, int pageHeight, Context context) {
+		this(pageWidth, pageHeight, DEFAULT_PADDING, context, Texture.Option.DEFAULT);
+	}
+	public TextureAtlas(int pageWidth, int pageHeight, int padding, Context context, Texture.Option option) {
+		this.context = context;
+		this.pageWidth  = pageWidth;
+		this.pageHeight = pageHeight;
+		this.padding = padding;
+		this.option  = option;
+	}
+	
+	/**
+	 * Add asset image to the atlas.
+	 * Image width and height are detected automatically.
+	 * 
+	 * @param assetName asset name (starts with "/" for full path)
+	 * @return texture region in the atlas
+	 */
+	public TextureRegion add(String assetName) {
+		int[] size = decodeBounds(assetName);
+		return add(assetName, size[0], size[1]);
+	}
+
+	/**
+	 * Add asset image to the atlas with given size.
+	 * This is faster than using auto detection.
+	 * 
+	 * @param assetName asset name (starts with "/" for full path)
+	 * @param width image width
+	 * @param height image height
+	 * @return texture region in the atlas
+	 */
+	public TextureRegion add(String assetName, int width, int height) {
+		if (width + padding > pageWidth || height + padding > pageHeight) {
+			throw new IllegalArgumentException(String.format(
+					"%s (%dx%d) does not fit in atlas page (%dx%d)",
+					assetName, width, height, pageWidth, pageHeight));
+		}
+		for (Page page : pages) {
+			TextureRegion region = page.insert(assetName, width, height);
+			if (region != null) return region;
+		}
+		Page page = new Page(pageWidth, pageHeight, padding, context, option);
+		pages.add(page);
+		return page.insert(assetName, width, height);
+	}
+	
+	/**
+	 * Unload all pages of the atlas.
+	 * @param gl GL object
+	 */
+	public void unloadTexture(GL10 gl) {
+		for (Page page : pages) {
+			if (page.isLoaded()) {
+				page.unloadTexture(gl);
+			}
+		}
+	}
+	
+	/**
+	 * Returns all pages of the atlas.
+	 */
+	public List<Page> getPages() {
+		return pages;
+	}
+	
+	public int getPageWidth() {
+		return this.pageWidth;
+	}
+	
+	public int getPageHeight() {
+		return this.pageHeight;
+	}
+	
+	private int[] decodeBounds(String assetName) {
+		InputStream is = null;
+		try {
+			is = openAsset(assetName, context);
+			if (isTGA(assetName)) {
+				ImageTGA image = TGA.inJustDecodeBounds(is);
+				return new int[] { image.width, image.height };
+			}
+			BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
+			bitmapOptions.inJustDecodeBounds = true;
+			BitmapFactory.decodeStream(is, null, bitmapOptions);
+			return new int[] { bitmapOptions.outWidth, bitmapOptions.outHeight };
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Failed to load texture " + assetName, e);
+		} finally {
+			try {
+				if (is != null) {
+					is.close();
+				}
+			} catch (IOException e) {
+				// do nothing
+			}
+		}
+	}
+	
+	static boolean isTGA(String assetName) {
+		return assetName.toLowerCase().endsWith(AssetTexture.tgaExtension);
+	}
+	
+	static InputStream openAsset(String assetName, Context context) throws IOException {
+		if (assetName.startsWith("/")) {
+			return new FileInputStream(assetName);
+		}
+		return context.getAssets().open(assetName);
+	}
+	
+	/**
+	 * Represents single page texture of the atlas.
+	 */
+	public static class Page extends Texture {
+		
+		private final int padding;
+		private final ArrayList<Rect> freeRects = new ArrayList<Rect>();
+		private final ArrayList<TextureRegion> regions = new ArrayList<TextureRegion>();
+		
+		Page(int width, int height, int padding, Context context, Texture.Option option) {
+			super(width, height, context, option);
+			this.padding = padding;
+			freeRects.add(new Rect(0, 0, width, height));
+		}
+		
+		/**
+		 * Places the image with MaxRects best short side fit.
+		 * @return texture region, or null if the image does not fit in this page.
+		 */
+		TextureRegion insert(String assetName, int width, int height) {
+			int paddedWidth  = width  + padding;
+			int paddedHeight = height + padding;
+			
+			Rect best = null;
+			int bestShortSide = Integer.MAX_VALUE;
+			int bestLongSide  = Integer.MAX_VALUE;
+			for (Rect free : freeRects) {
+				int leftoverX = free.width()  - paddedWidth;
+				int leftoverY = free.height() - paddedHeight;
+				if (leftoverX < 0 || leftoverY < 0) continue;
+				int shortSide = Math.min(leftoverX, leftoverY);
+				int longSide  = Math.max(leftoverX, leftoverY);
+				if (shortSide < bestShortSide || (shortSide == bestShortSide && longSide < bestLongSide)) {
+					best = free;
+					bestShortSide = shortSide;
+					bestLongSide  = longSide;
+				}
+			}
+			if (best == null) return null;
+			
+			Rect used = new Rect(best.left, best.top, best.left + paddedWidth, best.top + paddedHeight);
+			splitFreeRects(used);
+			pruneFreeRects();
+			
+			TextureRegion region = new TextureRegion(this, assetName,
+					used.left, used.top, width, height, getContext());
+			regions.add(region);
+			return region;
+		}
+		
+		private void splitFreeRects(Rect used) {
+			for (int i = freeRects.size() - 1; i >= 0; i--) {
+				Rect free = freeRects.get(i);
+				if (!Rect.intersects(free, used)) continue;
+				freeRects.remove(i);
+				if (used.left > free.left) {
+					freeRects.add(new Rect(free.left, free.top, used.left, free.bottom));
+				}
+				if (used.right < free.right) {
+					freeRects.add(new Rect(used.right, free.top, free.right, free.bottom));
+				}
+				if (used.top > free.top) {
+					freeRects.add(new Rect(free.left, free.top, free.right, used.top));
+				}
+				if (used.bottom < free.bottom) {
+					freeRects.add(new Rect(free.left, used.bottom, free.right, free.bottom));
+				}
+			}
+		}
+		
+		private void pruneFreeRects() {
+			for (int i = freeRects.size() - 1; i >= 0; i--) {
+				Rect rect = freeRects.get(i);
+				for (int j = 0; j < freeRects.size(); j++) {
+					if (i == j) continue;
+					Rect other = freeRects.get(j);
+					if (rect.left >= other.left && rect.top >= other.top
+							&& rect.right <= other.right && rect.bottom <= other.bottom) {
+						freeRects.remove(i);
+						break;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Returns all regions in this page.
+		 */
+		public List<TextureRegion> getRegions() {
+			return regions;
+		}
+		
+		@Override
+		protected Bitmap loadBitmap() {
+			Bitmap page = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+			Canvas canvas = new Canvas(page);
+			for (TextureRegion region : regions) {
+				Bitmap source = loadSource(region.getName());
+				if (source == null) continue;
+				canvas.drawBitmap(source, region.getX(), region.getY(), null);
+				source.recycle();
+			}
+			return page;
+		}
+		
+		private Bitmap loadSource(String assetName) {
+			if (!isTGA(assetName)) {
+				return BitmapUtil.getBitmapFromAsset(assetName, getContext());
+			}
+			InputStream is = null;
+			try {
+				is = openAsset(assetName, getContext());
+				return BitmapUtil.getBitmapFromTGA(TGA.load(is));
+			} catch (Exception e) {
+				Debug.e("Failed to load TGA texture " + assetName, e);
+			} finally {
+				try {
+					if (is != null) {
+						is.close();
+					}
+				} catch (IOException e) {
+					// do nothing
+				}
+			}
+			return null;
+		}
+		
+		@Override
+		public String describe() {
+			return String.format("TextureAtlas.Page: %dx%d (%d regions)", getWidth(), getHeight(), regions.size());
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable.texture;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import com.e3roid.E3Engine;
+import com.e3roid.event.TextureLoadListener;
+import com.e3roid.lifecycle.E3LifeCycle;
+import com.e3roid.util.Debug;
+import com.e3roid.util.MpscQueue;
+
+/**
+ * Loads textures in the background.
+ * Images are decoded on worker threads and the GL thread uploads a bounded number of bytes
+ * in each frame, so that loading many textures does not stop the render loop.
+ * Sprites do not load a texture that is being loaded and are not drawn until it has been uploaded.
+ * 
+ * Use E3Engine#getTextureLoader() to get the loader of the engine.
+ */
+public class TextureLoader implements E3LifeCycle {
+
+	public static final int DEFAULT_THREADS = 2;
+	public static final int DEFAULT_BYTES_PER_FRAME = 1024 * 1024;
+	
+	private static class Decoded {
+		final Texture texture;
+		final Texture target;
+		final Object image;
+		final TextureLoadListener listener;
+		final RuntimeException error;
+		
+		Decoded(Texture texture, Texture target, Object image,
+				TextureLoadListener listener, RuntimeException error) {
+			this.texture  = texture;
+			this.target   = target;
+			this.image    = image;
+			this.listener = listener;
+			this.error    = error;
+		}
+	}
+	
+	private final E3Engine engine;
+	private final ExecutorService workers;
+	private final MpscQueue<Decoded> decoded = new MpscQueue<Decoded>();
+	private volatile int bytesPerFrame;
+	
+	private final AtomicInteger requested = new AtomicInteger();
+	private final AtomicInteger finished  = new AtomicInteger();
+	private final AtomicInteger failed    = new AtomicInteger();
+	
+	/**
+	 * Constructs loader with given number of worker threads.
+	 * 
+	 * @param engine E3Engine to request frames from when images are decoded
+	 * @param threads number of worker threads
+	 * @param bytesPerFrame bytes of texture memory uploaded in each frame at most.
+	 * At least one texture is uploaded in each frame even if it is larger than this.
+	 */
+	public TextureLoader(E3Engine engine, int threads, int bytesPerFrame) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive.");
+		}
+		this.engine = engine;
+		this.bytesPerFrame = bytesPerFrame;
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TextureLoader-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Load the texture in the background.
+	 * 
+	 * @param texture texture to load
+	 * @return false if the texture is already loaded or being loaded
+	 */
+	public boolean load(Texture texture) {
+		return load(texture, null);
+	}
+	
+	/**
+	 * Load the texture in the background and notify the listener on the GL thread.
+	 * Regions of TextureAtlas load their page.
+	 * 
+	 * @param texture texture to load
+	 * @param listener listener to notify, or null
+	 * @return false if the texture is already loaded or being loaded
+	 */
+	public synchronized boolean load(final Texture texture, final TextureLoadListener listener) {
+		final Texture target = texture instanceof TextureRegion ? ((TextureRegion)texture).getPage() : texture;
+		if (target.isLoaded() || target.isLoading()) {
+			return false;
+		}
+		if (isIdle()) {
+			// progress counts from the first texture loaded after the previous ones have finished
+			requested.set(0);
+			finished.set(0);
+			failed.set(0);
+		}
+		target.setLoading(true);
+		requested.incrementAndGet();
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				Object image = null;
+				RuntimeException error = null;
+				try {
+					image = target.decodeImage();
+					if (image == null) {
+						error = new IllegalStateException("Failed to decode " + target.describe());
+					}
+				} catch (RuntimeException e) {
+					error = e;
+				}
+				decoded.offer(new Decoded(texture, target, image, listener, error));
+				engine.requestRender();
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Upload decoded textures within the byte budget of a frame.
+	 * Called on the GL thread by the engine before the scene is drawn.
+	 * 
+	 * @param gl GL object
+	 */
+	public void upload(GL10 gl) {
+		int bytes = 0;
+		Decoded item;
+		while ((item = decoded.peek()) != null) {
+			int size = item.error == null ? item.target.getByteSize() : 0;
+			if (bytes > 0 && bytes + size > bytesPerFrame) {
+				// continue in the next frame
+				engine.requestRender();
+				break;
+			}
+			decoded.poll();
+			bytes += size;
+			
+			RuntimeException error = item.error;
+			if (error == null) {
+				try {
+					item.target.uploadImage(gl, item.image);
+				} catch (RuntimeException e) {
+					error = e;
+				}
+			}
+			item.target.setLoading(false);
+			
+			if (error != null) {
+				Debug.e("Failed to load " + item.target.describe(), error);
+				failed.incrementAndGet();
+			}
+			finished.incrementAndGet();
+			
+			if (item.listener != null) {
+				if (error != null) {
+					item.listener.onTextureLoadFailed(item.texture, error);
+				} else {
+					item.listener.onTextureLoaded(item.texture);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns progress of the textures requested since the loader was idle last time.
+	 * @return progress from 0 to 1
+	 */
+	public float getProgress() {
+		int total = requested.get();
+		if (total == 0) return 1;
+		return (float)finished.get() / (float)total;
+	}
+	
+	/**
+	 * Returns number of textures that are decoded or waiting for upload.
+	 */
+	public int getPendingCount() {
+		return requested.get() - finished.get();
+	}
+	
+	/**
+	 * Returns number of textures that failed to load since the loader was idle last time.
+	 */
+	public int getFailedCount() {
+		return failed.get();
+	}
+	
+	/**
+	 * Returns whether all requested textures have been loaded.
+	 */
+	public boolean isIdle() {
+		return getPendingCount() == 0;
+	}
+	
+	public void setBytesPerFrame(int bytesPerFrame) {
+		this.bytesPerFrame = bytesPerFrame;
+	}
+	
+	public int getBytesPerFrame() {
+		return this.bytesPerFrame;
+	}
+
+	@Override
+	public void onResume() {
+		// nothing to do
+	}
+
+	@Override
+	public void onPause() {
+		// nothing to do
+	}
+
+	@Override
+	public void onDispose() {
+		workers.shutdownNow();
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable.texture;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.content.Context;
+
+import com.e3roid.util.Debug;
+
+/**
+ * Shares textures between sprites.
+ * Textures are identified by a key, which is the asset name and the option for asset textures,
+ * so that sprites of the same image use one texture and upload it once.
+ * 
+ * Sprites acquire the texture when they are loaded and release it when they are removed.
+ * Released textures stay loaded until the loaded textures exceed the memory budget,
+ * then unreferenced textures are unloaded in least recently used order.
+ * After the surface has been lost, only textures used by loaded sprites are loaded again.
+ * 
+ * Use E3Engine#getTextureManager() to get the manager of the engine.
+ */
+public class TextureManager {
+
+	/**
+	 * Budget that never unloads released textures
+	 */
+	public static final int UNLIMITED = 0;
+	
+	private final Context context;
+	// access order, least recently used first
+	private final LinkedHashMap<String, Texture> textures = new LinkedHashMap<String, Texture>(16, 0.75f, true);
+	private int budget;
+	
+	public TextureManager(Context context) {
+		this(context, UNLIMITED);
+	}
+	
+	/**
+	 * Constructs texture manager.
+	 * @param context Context
+	 * @param budget texture memory in bytes to keep loaded, or UNLIMITED
+	 */
+	public TextureManager(Context context, int budget) {
+		this.context = context;
+		this.budget  = budget;
+	}
+	
+	/**
+	 * Returns shared texture of the asset with default option.
+	 * @param name asset name (starts with "/" for full path)
+	 */
+	public AssetTexture getAssetTexture(String name) {
+		return getAssetTexture(name, Texture.Option.DEFAULT);
+	}
+	
+	/**
+	 * Returns shared texture of the asset, creating it if the asset has not been used with the option.
+	 * @param name asset name (starts with "/" for full path)
+	 * @param option Texture.Option
+	 */
+	public AssetTexture getAssetTexture(String name, Texture.Option option) {
+		return getAssetTexture(name, option, Texture.Format.RGBA8888);
+	}
+	
+	/**
+	 * Returns shared texture of the asset, creating it if the asset has not been used
+	 * with the option and the format.
+	 * @param name asset name (starts with "/" for full path)
+	 * @param option Texture.Option
+	 * @param format Texture.Format of bitmap textures
+	 */
+	public synchronized AssetTexture getAssetTexture(String name, Texture.Option option, Texture.Format format) {
+		String key = name + "#" + option + "#" + format;
+		Texture texture = textures.get(key);
+		if (texture instanceof AssetTexture) {
+			return (AssetTexture)texture;
+		}
+		AssetTexture asset = new AssetTexture(name, context, option);
+		asset.setFormat(format);
+		add(key, asset);
+		return asset;
+	}
+	
+	/**
+	 * Add texture to be shared with given key.
+	 * Regions of TextureAtlas are shared by adding their page.
+	 * 
+	 * @param key key of the texture
+	 * @param texture Texture
+	 */
+	public synchronized void add(String key, Texture texture) {
+		if (texture instanceof TextureRegion) {
+			throw new IllegalArgumentException("Add the page of the region instead: " + key);
+		}
+		if (texture.manager != null && texture.manager != this) {
+			throw new IllegalArgumentException("Texture is shared by another manager: " + key);
+		}
+		texture.manager = this;
+		texture.managerKey = key;
+		texture.setReusable(true);
+		textures.put(key, texture);
+	}
+	
+	/**
+	 * Returns texture of the key, or null.
+	 */
+	public synchronized Texture get(String key) {
+		return textures.get(key);
+	}
+	
+	/**
+	 * Add reference to the texture. Called on the GL thread when a sprite is loaded.
+	 * Unreferenced textures are unloaded if the texture has to be loaded beyond the budget.
+	 * 
+	 * @param gl GL object
+	 * @param texture texture of the sprite
+	 */
+	public synchronized void acquire(GL10 gl, Texture texture) {
+		texture = resolve(texture);
+		texture.references++;
+		// moves the texture to the end of access order
+		textures.get(texture.managerKey);
+		if (!texture.isLoaded() || texture.isLost()) {
+			trim(gl, texture.getByteSize());
+		}
+	}
+	
+	/**
+	 * Remove reference to the texture. Called on the GL thread when a sprite is unloaded.
+	 * 
+	 * @param gl GL object
+	 * @param texture texture of the sprite
+	 */
+	public synchronized void release(GL10 gl, Texture texture) {
+		texture = resolve(texture);
+		if (texture.references > 0) {
+			texture.references--;
+		}
+		trim(gl, 0);
+	}
+	
+	/**
+	 * Unload unreferenced textures in least recently used order
+	 * until loaded textures and the required bytes fit in the budget.
+	 * Unreferenced textures of a lost surface are always forgotten.
+	 * 
+	 * @param gl GL object
+	 * @param required bytes that are going to be loaded
+	 */
+	public synchronized void trim(GL10 gl, int required) {
+		int used = required;
+		for (Texture texture : textures.values()) {
+			if (texture.isLost() && texture.references == 0) {
+				texture.invalidate();
+			} else if (texture.isLoaded() && !texture.isLost()) {
+				used += texture.getByteSize();
+			}
+		}
+		if (budget == UNLIMITED || used <= budget) return;
+		
+		for (Texture texture : textures.values()) {
+			if (used <= budget) break;
+			if (texture.references > 0 || !texture.isLoaded()) continue;
+			texture.unloadTexture(gl);
+			used -= texture.getByteSize();
+			Debug.d(String.format("%s is evicted.", texture.describe()));
+		}
+	}
+	
+	/**
+	 * Remove unreferenced texture from the manager and unload it.
+	 * 
+	 * @param gl GL object
+	 * @param key key of the texture
+	 * @return false if the texture is not found or still referenced
+	 */
+	public synchronized boolean remove(GL10 gl, String key) {
+		Texture texture = textures.get(key);
+		if (texture == null || texture.references > 0) return false;
+		textures.remove(key);
+		unload(gl, texture);
+		return true;
+	}
+	
+	/**
+	 * Remove all unreferenced textures from the manager and unload them.
+	 * @param gl GL object
+	 */
+	public synchronized void clear(GL10 gl) {
+		ArrayList<Texture> removed = new ArrayList<Texture>();
+		for (Iterator<Map.Entry<String, Texture>> it = textures.entrySet().iterator(); it.hasNext();) {
+			Texture texture = it.next().getValue();
+			if (texture.references == 0) {
+				it.remove();
+				removed.add(texture);
+			}
+		}
+		for (Texture texture : removed) {
+			unload(gl, texture);
+		}
+	}
+	
+	/**
+	 * Returns texture memory used by the loaded textures.
+	 */
+	public synchronized int getUsedBytes() {
+		int used = 0;
+		for (Texture texture : textures.values()) {
+			if (texture.isLoaded() && !texture.isLost()) {
+				used += texture.getByteSize();
+			}
+		}
+		return used;
+	}
+	
+	/**
+	 * Set texture memory in bytes to keep loaded, or UNLIMITED.
+	 * Textures beyond the budget are unloaded when a texture is acquired or released next time.
+	 */
+	public synchronized void setBudget(int budget) {
+		this.budget = budget;
+	}
+	
+	public synchronized int getBudget() {
+		return this.budget;
+	}
+	
+	/**
+	 * Returns number of the shared textures.
+	 */
+	public synchronized int size() {
+		return textures.size();
+	}
+	
+	private void unload(GL10 gl, Texture texture) {
+		texture.manager = null;
+		texture.managerKey = null;
+		if (texture.isLost()) {
+			texture.invalidate();
+		} else if (texture.isLoaded()) {
+			texture.unloadTexture(gl);
+		}
+	}
+	
+	private Texture resolve(Texture texture) {
+		if (texture instanceof TextureRegion) {
+			return ((TextureRegion)texture).getPage();
+		}
+		return texture;
+	}
+}
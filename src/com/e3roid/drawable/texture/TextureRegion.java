@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable.texture;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * Represents an image placed in the page of TextureAtlas.
+ * Loading and unloading are delegated to the page, so regions are reusable by default.
+ */
+public class TextureRegion extends Texture {
+	
+	private final TextureAtlas.Page page;
+	private final String assetName;
+	private final int x;
+	private final int y;
+	
+	TextureRegion(TextureAtlas.Page page, String assetName,
+			int x, int y, int width, int height, Context context) {
+		super(width, height, context);
+		this.page = page;
+		this.assetName = assetName;
+		this.x = x;
+		this.y = y;
+		setReusable(true);
+	}
+
+	@Override
+	public void loadTexture(GL10 gl, boolean reload) {
+		page.loadTexture(gl, reload);
+	}
+	
+	@Override
+	public void unloadTexture(GL10 gl) {
+		page.unloadTexture(gl);
+	}
+	
+	@Override
+	public boolean isLoaded() {
+		return page.isLoaded();
+	}
+	
+	@Override
+	public boolean isLost() {
+		return page.isLost();
+	}
+	
+	@Override
+	public void invalidate() {
+		page.invalidate();
+	}
+	
+	@Override
+	public TextureManager getManager() {
+		return page.getManager();
+	}
+	
+	@Override
+	public boolean isLoading() {
+		return page.isLoading();
+	}
+	
+	@Override
+	public int getTextureID() {
+		return page.getTextureID();
+	}
+	
+	@Override
+	public float getCoordStartX() {
+		return (float)x / (float)page.getGLWidth();
+	}
+	@Override
+	public float getCoordStartY() {
+		return (float)y / (float)page.getGLHeight();
+	}
+	@Override
+	public float getCoordEndX() {
+		return (float)(x + getWidth()) / (float)page.getGLWidth();
+	}
+	@Override
+	public float getCoordEndY() {
+		return (float)(y + getHeight()) / (float)page.getGLHeight();
+	}
+	
+	@Override
+	public void setOption(Option option) {
+		page.setOption(option);
+	}
+	
+	@Override
+	public Option getOption() {
+		return page.getOption();
+	}
+	
+	@Override
+	public void setFormat(Format format) {
+		page.setFormat(format);
+	}
+	
+	@Override
+	public Format getFormat() {
+		return page.getFormat();
+	}
+	
+	/**
+	 * Returns the page that contains this region.
+	 */
+	public TextureAtlas.Page getPage() {
+		return this.page;
+	}
+	
+	public String getName() {
+		return this.assetName;
+	}
+	
+	public int getX() {
+		return this.x;
+	}
+	
+	public int getY() {
+		return this.y;
+	}
+
+	@Override
+	protected Bitmap loadBitmap() {
+		return null;
+	}
+
+	@Override
+	public String describe() {
+		return "TextureRegion: " + this.assetName + " in " + page.describe();
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.drawable.tmx;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+import android.graphics.Rect;
+
+import com.e3roid.drawable.texture.TiledTexture;
+import com.e3roid.opengl.FastFloatBuffer;
+import com.e3roid.opengl.GLHelper;
+
+/**
+ * Static vertex and texture coordinate buffers of the tiles in one chunk of TMXLayer
+ * that share the same tileset texture.
+ * Each chunk is drawn by single draw call.
+ */
+public class TMXChunk {
+	
+	private static final int VERTEX_SIZE = 3;
+	private static final int COORD_SIZE  = 2;
+	private static final int TILE_POINTS = 6;
+	
+	private final TiledTexture texture;
+	private final Rect rect = new Rect();
+	private final int[] bufferIDs = new int[2];
+	
+	private float[] vertices;
+	private float[] coords;
+	private int tileCount = 0;
+	
+	private FastFloatBuffer vertexBuffer;
+	private FastFloatBuffer coordBuffer;
+	private boolean loaded = false;
+	
+	public TMXChunk(TiledTexture texture, int capacity) {
+		this.texture  = texture;
+		this.vertices = new float[capacity * TILE_POINTS * VERTEX_SIZE];
+		this.coords   = new float[capacity * TILE_POINTS * COORD_SIZE];
+	}
+	
+	/**
+	 * Add tile to the chunk.
+	 * Texture tile index of the tileset must be set before calling this method.
+	 * 
+	 * @param x layer position x of the tile
+	 * @param y layer position y of the tile
+	 */
+	public void addTile(int x, int y) {
+		int w = texture.getTileWidth();
+		int h = texture.getTileHeight();
+		if (tileCount == 0) {
+			rect.set(x, y, x + w, y + h);
+		} else {
+			rect.union(x, y, x + w, y + h);
+		}
+		
+		float startX = texture.getCoordStartX();
+		float startY = texture.getCoordStartY();
+		float endX = texture.getCoordEndX();
+		float endY = texture.getCoordEndY();
+		
+		// same winding as the rectangle of the sprite: (0,0) (0,h) (w,h), (0,0) (w,h) (w,0)
+		int v = tileCount * TILE_POINTS * VERTEX_SIZE;
+		int c = tileCount * TILE_POINTS * COORD_SIZE;
+		v = putVertex(v, x, y);
+		v = putVertex(v, x, y + h);
+		v = putVertex(v, x + w, y + h);
+		v = putVertex(v, x, y);
+		v = putVertex(v, x + w, y + h);
+		v = putVertex(v, x + w, y);
+		c = putCoord(c, startX, startY);
+		c = putCoord(c, startX, endY);
+		c = putCoord(c, endX, endY);
+		c = putCoord(c, startX, startY);
+		c = putCoord(c, endX, endY);
+		c = putCoord(c, endX, startY);
+		
+		tileCount++;
+	}
+	
+	private int putVertex(int index, float x, float y) {
+		vertices[index++] = x;
+		vertices[index++] = y;
+		vertices[index++] = 0;
+		return index;
+	}
+	
+	private int putCoord(int index, float u, float v) {
+		coords[index++] = u;
+		coords[index++] = v;
+		return index;
+	}
+	
+	/**
+	 * Build buffers from added tiles.
+	 * Called after all tiles are added.
+	 */
+	public void build() {
+		int points = tileCount * TILE_POINTS;
+		vertexBuffer = new FastFloatBuffer(points * VERTEX_SIZE);
+		vertexBuffer.put(vertices, 0, points * VERTEX_SIZE);
+		vertexBuffer.position(0);
+		coordBuffer = new FastFloatBuffer(points * COORD_SIZE);
+		coordBuffer.put(coords, 0, points * COORD_SIZE);
+		coordBuffer.position(0);
+		vertices = null;
+		coords = null;
+	}
+	
+	/**
+	 * Upload buffers to the hardware buffer objects.
+	 */
+	public void onLoadSurface(GL11 gl) {
+		gl.glGenBuffers(2, bufferIDs, 0);
+		GLHelper.bindBuffer(gl, bufferIDs[0]);
+		GLHelper.bufferFloatData(gl, vertexBuffer.capacity(), vertexBuffer, GL11.GL_STATIC_DRAW);
+		GLHelper.bindBuffer(gl, bufferIDs[1]);
+		GLHelper.bufferFloatData(gl, coordBuffer.capacity(), coordBuffer, GL11.GL_STATIC_DRAW);
+		loaded = true;
+	}
+	
+	/**
+	 * Draw the chunk. Layer offset must be already applied to the model view matrix.
+	 */
+	public void onDraw(GL10 gl, boolean useVBO) {
+		if (tileCount == 0) return;
+		GLHelper.bindTexture((GL11)gl, texture.getTextureID());
+		if (useVBO) {
+			GL11 gl11 = (GL11)gl;
+			if (!loaded) onLoadSurface(gl11);
+			GLHelper.bindBuffer(gl11, bufferIDs[0]);
+			GLHelper.vertexZeroPointer(gl11);
+			GLHelper.bindBuffer(gl11, bufferIDs[1]);
+			GLHelper.texCoordZeroPointer(gl11);
+			GLHelper.resetCurrentPointers();
+		} else {
+			GLHelper.vertexPointer(gl, vertexBuffer);
+			GLHelper.texCoordPointer(gl, coordBuffer);
+		}
+		gl.glDrawArrays(GL10.GL_TRIANGLES, 0, tileCount * TILE_POINTS);
+	}
+	
+	/**
+	 * Delete the hardware buffer objects.
+	 */
+	public void unload(GL11 gl) {
+		if (!loaded) return;
+		GLHelper.deleteBuffer(gl, bufferIDs[0]);
+		GLHelper.deleteBuffer(gl, bufferIDs[1]);
+		loaded = false;
+	}
+	
+	/**
+	 * Forget the hardware buffer objects without deleting them
+	 * because the surface was lost.
+	 */
+	public void setLoaded(boolean loaded) {
+		this.loaded = loaded;
+	}
+	
+	public boolean isLoaded() {
+		return this.loaded;
+	}
+	
+	/**
+	 * Returns bounds of the chunk in the layer coordinates.
+	 */
+	public Rect getRect() {
+		return this.rect;
+	}
+	
+	public int getTileCount() {
+		return this.tileCount;
+	}
+	
+	public TiledTexture getTexture() {
+		return this.texture;
+	}
+}
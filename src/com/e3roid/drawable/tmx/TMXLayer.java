@@ -18,9 +18,11 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.zip.GZIPInputStream;
 
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
 import org.xml.sax.Attributes;
 
@@ -30,6 +32,7 @@ import com.e3roid.E3Engine;
 import com.e3roid.drawable.Drawable;
 import com.e3roid.drawable.Shape;
 import com.e3roid.drawable.sprite.TiledSprite;
+import com.e3roid.drawable.texture.TiledTexture;
 import com.e3roid.opengl.GLHelper;
 import com.e3roid.util.Debug;
 import com.e3roid.util.Base64;
@@ -38,6 +41,11 @@ import com.e3roid.util.SAXUtil;
 
 public class TMXLayer implements Drawable {
 	
+	/**
+	 * Number of tiles in each side of the chunk
+	 */
+	public static final int CHUNK_SIZE = 16;
+	
 	private final String name;
 	private final int columns;
 	private final int rows;
@@ -50,6 +58,9 @@ public class TMXLayer implements Drawable {
 	private boolean useVBO  = true;
 	private boolean useLoop = false;
 	private boolean stopOnTheEdge = true;
+	private boolean useChunk = false;
+	private boolean chunkChanged = true;
+	private ArrayList<TMXChunk> chunks;
 	
 	private int x = 0;
 	private int y = 0;
@@ -188,10 +199,19 @@ public class TMXLayer implements Drawable {
 			sprite.onLoadEngine(engine);
 			sprite.onLoadSurface(gl, force);
 		}
+		if (force && chunks != null) {
+			for (TMXChunk chunk : chunks) {
+				chunk.setLoaded(false);
+			}
+		}
 	}
 
 	@Override
 	public void onDraw(GL10 gl) {
+		if (useChunk) {
+			drawChunks(gl);
+			return;
+		}
 		
 		int columnCount = (int)Math.ceil((double)sceneWidth / (double)tiledMap.getTileWidth());
 		int rowCount    = (int)Math.ceil((double)sceneHeight / (double)tiledMap.getTileHeight());
@@ -264,6 +284,127 @@ public class TMXLayer implements Drawable {
 		}
 	}
 	
+	private void drawChunks(GL10 gl) {
+		if (removed) {
+			unloadChunks(gl);
+			return;
+		}
+		if (chunks == null || chunkChanged) {
+			buildChunks(gl);
+		}
+		
+		drawChunks(-x, -y, gl);
+		
+		if (useLoop) {
+			boolean spareColumn = width  - x < sceneWidth;
+			boolean spareRow    = height - y < sceneHeight;
+			if (spareColumn) {
+				drawChunks(width - x, -y, gl);
+			}
+			if (spareRow) {
+				drawChunks(-x, height - y, gl);
+			}
+			if (spareColumn && spareRow) {
+				drawChunks(width - x, height - y, gl);
+			}
+		}
+	}
+	
+	private void drawChunks(int offsetX, int offsetY, GL10 gl) {
+		// sprites bind textures without the cache, so the cached ID may be stale
+		GLHelper.resetCurrentTextureID();
+		gl.glLoadIdentity();
+		gl.glTranslatef(offsetX, offsetY, 0);
+		for (int i = 0; i < chunks.size(); i++) {
+			TMXChunk chunk = chunks.get(i);
+			Rect rect = chunk.getRect();
+			if (rect.right  + offsetX <= 0 || rect.left + offsetX >= sceneWidth ||
+				rect.bottom + offsetY <= 0 || rect.top  + offsetY >= sceneHeight) {
+				continue;
+			}
+			chunk.onDraw(gl, useVBO);
+		}
+	}
+	
+	private void buildChunks(GL10 gl) {
+		unloadChunks(gl);
+		chunks = new ArrayList<TMXChunk>();
+		
+		LinkedHashMap<TMXTileSet, TMXChunk> chunksInCell = new LinkedHashMap<TMXTileSet, TMXChunk>();
+		for (int top = 0; top < rows; top += CHUNK_SIZE) {
+			for (int left = 0; left < columns; left += CHUNK_SIZE) {
+				chunksInCell.clear();
+				int bottom = Math.min(top  + CHUNK_SIZE, rows);
+				int right  = Math.min(left + CHUNK_SIZE, columns);
+				for (int i = top; i < bottom; i++) {
+					for (int j = left; j < right; j++) {
+						TMXTile tile = tiles[i][j];
+						if (TMXTile.isEmpty(tile)) continue;
+						TMXTileSet tileSet = tiledMap.getTileSetByGID(tile.getGID());
+						if (tileSet == null) continue;
+						TiledTexture texture = tileSet.getTexture();
+						TMXChunk chunk = chunksInCell.get(tileSet);
+						if (chunk == null) {
+							chunk = new TMXChunk(texture, CHUNK_SIZE * CHUNK_SIZE);
+							chunksInCell.put(tileSet, chunk);
+						}
+						texture.setTileIndex(tile.getAtlasColumn(), tile.getAtlasRow());
+						chunk.addTile(j * texture.getTileWidth(), i * texture.getTileHeight());
+					}
+				}
+				for (TMXChunk chunk : chunksInCell.values()) {
+					chunk.build();
+					chunks.add(chunk);
+				}
+			}
+		}
+		
+		// restore tile index of the tileset textures used by the sprites
+		for (TMXTileSet tileSet : tiledMap.getTileSets()) {
+			TiledSprite sprite = tileSet.getSprite();
+			tileSet.getTexture().setTileIndex(sprite.getTileIndexX(), sprite.getTileIndexY());
+		}
+		chunkChanged = false;
+	}
+	
+	private void unloadChunks(GL10 gl) {
+		if (chunks == null) return;
+		for (TMXChunk chunk : chunks) {
+			chunk.unload((GL11)gl);
+		}
+		chunks = null;
+	}
+	
+	/**
+	 * Enable drawing tiles by static chunk buffers.
+	 * Chunks are built on the first draw and each visible chunk is drawn by single draw call,
+	 * so scrolling costs the same regardless of the number of tiles.
+	 * Call invalidateChunks() after changing tiles in this mode.
+	 * 
+	 * @param enable
+	 */
+	public void enableChunk(boolean enable) {
+		this.useChunk = enable;
+	}
+	
+	public boolean useChunk() {
+		return this.useChunk;
+	}
+	
+	/**
+	 * Rebuild chunk buffers on the next draw.
+	 */
+	public void invalidateChunks() {
+		this.chunkChanged = true;
+	}
+	
+	/**
+	 * Returns chunks of this layer, or null if they are not built yet.
+	 */
+	public ArrayList<TMXChunk> getChunks() {
+		return this.chunks;
+	}
+	
 	public String getName() {
 		return this.name;
 	}
@@ -98,6 +98,11 @@ public class TMXTileSet {
 		return sprite;
 	}
 	
+	public TiledTexture getTexture() {
+		getSprite();
+		return texture;
+	}
+	
 	private int getCount(int total, int unit, int spacing) {
 		return (total / (unit + spacing));
 	}
@@ -141,6 +141,20 @@ public class TMXTiledMap {
 		return null;
 	}
 
+	public TMXTileSet getTileSetByGID(int gid) {
+		if (spriteCache.containsKey(gid)) {
+			return tileSets.get(spriteCache.get(gid));
+		}
+		for (int i = tileSets.size() - 1; i >= 0; i--) {
+			TMXTileSet tileSet = tileSets.get(i);
+			if(gid >= tileSet.getFirstGID()) {
+				spriteCache.put(gid, i);
+				return tileSet;
+			}
+		}
+		return null;
+	}
+
 	public void onDispose() {
 		removed = true;
 	}
@@ -16,6 +16,7 @@ package com.e3roid.opengl;
 import javax.microedition.khronos.opengles.GL10;
 import android.os.SystemClock;
 
+import com.e3roid.E3Engine;
 import com.e3roid.drawable.modifier.function.Linear;
 import com.e3roid.drawable.modifier.function.Progressive;
 
@@ -37,7 +38,7 @@ public class Camera {
 	private float centerY = 0;
 	private float centerZ = -1;
 	
-	private boolean zooming = false;
+	private volatile boolean zooming = false;
 	
 	private int zoomFromWidth;
 	private int zoomFromHeight;
@@ -50,6 +51,8 @@ public class Camera {
 	private long zoomDuration = 0;
 	private Progressive zoomFunction;
 	
+	private E3Engine engine;
+	
 	public Camera() {
 		
 	}
@@ -62,6 +65,24 @@ public class Camera {
 		this.height = height;
 	}
 	
+	/**
+	 * Set the engine that renders a frame when the camera is moved or zoomed.
+	 * @param engine E3Engine
+	 */
+	public void setEngine(E3Engine engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * Request that the engine renders a frame because the camera has been changed.
+	 * This has effect only when the refresh mode of the engine is REFRESH_WHEN_DIRTY.
+	 */
+	protected void requestRender() {
+		if (engine != null) {
+			engine.requestRender();
+		}
+	}
+	
 	public void reloadMatrix(GL10 gl) {
         GLHelper.switchToProjectionMatrix(gl, true);
         if (usePerspective) {
@@ -90,6 +111,16 @@ public class Camera {
 		this.zoomFromHeight = height;
 		
 		zooming = true;
+		requestRender();
+	}
+	
+	/**
+	 * Indicates whether the camera is zooming or not.
+	 * The zoom advances only when a frame is drawn.
+	 * @return true if the camera is zooming
+	 */
+	public boolean isZooming() {
+		return zooming;
 	}
 	
 	public void switchToOrtho(GL10 gl) {
@@ -154,6 +185,7 @@ public class Camera {
 			centerY = 0;
 			centerZ = -1;
 		}
+		requestRender();
 	}
 	
 	public void enablePerspective(boolean enable) {
@@ -168,12 +200,14 @@ public class Camera {
 		eyeX = x;
 		eyeY = y;
 		eyeZ = z;
+		requestRender();
 	}
 	
 	public void moveCenter(float x, float y, float z) {
 		centerX = x;
 		centerY = y;
 		centerZ = z;
+		requestRender();
 	}
 	
 	public float getEyeX() {
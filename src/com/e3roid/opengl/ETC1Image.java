@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.opengl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Reads ETC1 compressed images from PKM and KTX files.
+ * PKM files keep the size of the original image besides the encoded size,
+ * so images padded to power of two by TextureConverter are drawn without the padding.
+ * 
+ * The image is uploaded by glCompressedTexImage2D when the device supports ETC1,
+ * otherwise it is decoded into RGB565 pixels by {@link #decodeRGB565()}.
+ */
+public class ETC1Image {
+
+	public static final int PKM_HEADER_SIZE = 16;
+	public static final int KTX_HEADER_SIZE = 64;
+	
+	/**
+	 * Internal format of ETC1 texture, defined by OES_compressed_ETC1_RGB8_texture
+	 */
+	public static final int GL_ETC1_RGB8_OES = 0x8D64;
+	public static final String EXTENSION = "GL_OES_compressed_ETC1_RGB8_texture";
+	
+	private static final int[][] MODIFIERS = {
+		{ 2,   8}, { 5,  17}, { 9,  29}, {13,  42},
+		{18,  60}, {24,  80}, {33, 106}, {47, 183}
+	};
+	
+	private static final int KTX_ENDIANNESS = 0x04030201;
+	private static final byte[] KTX_IDENTIFIER = {
+		(byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+	};
+	
+	/**
+	 * Width and height of the original image
+	 */
+	public int width;
+	public int height;
+	/**
+	 * Width and height of the encoded texture
+	 */
+	public int textureWidth;
+	public int textureHeight;
+	/**
+	 * Encoded blocks in direct buffer, or null if only bounds have been read
+	 */
+	public ByteBuffer data;
+	
+	/**
+	 * Read only the header of PKM or KTX image.
+	 * @param is InputStream
+	 * @return ETC1Image without data
+	 * @throws IOException if the image is not ETC1 image
+	 */
+	public static ETC1Image decodeBounds(InputStream is) throws IOException {
+		return read(is, false);
+	}
+	
+	/**
+	 * Read PKM or KTX image.
+	 * @param is InputStream
+	 * @return ETC1Image
+	 * @throws IOException if the image is not ETC1 image
+	 */
+	public static ETC1Image load(InputStream is) throws IOException {
+		return read(is, true);
+	}
+	
+	/**
+	 * Returns size of the encoded blocks in bytes.
+	 */
+	public static int getEncodedDataSize(int width, int height) {
+		return ((width + 3) / 4) * ((height + 3) / 4) * 8;
+	}
+	
+	/**
+	 * Decode the blocks into RGB565 pixels for devices that do not support ETC1.
+	 * @return pixels of the texture in direct buffer, ready for glTexImage2D with GL_UNSIGNED_SHORT_5_6_5
+	 */
+	public ByteBuffer decodeRGB565() {
+		int blocksX = (textureWidth  + 3) / 4;
+		int blocksY = (textureHeight + 3) / 4;
+		short[] pixels = new short[textureWidth * textureHeight];
+		int[] base1 = new int[3];
+		int[] base2 = new int[3];
+		
+		for (int by = 0; by < blocksY; by++) {
+			for (int bx = 0; bx < blocksX; bx++) {
+				int offset = (by * blocksX + bx) * 8;
+				long word = 0;
+				for (int i = 0; i < 8; i++) {
+					word = (word << 8) | (data.get(offset + i) & 0xff);
+				}
+				boolean diff = ((word >>> 33) & 1) != 0;
+				boolean flip = ((word >>> 32) & 1) != 0;
+				for (int c = 0; c < 3; c++) {
+					int shift = 59 - c * 8;
+					if (diff) {
+						int c1 = (int)(word >>> shift) & 0x1f;
+						int delta = (int)(word >>> (shift - 3)) & 0x7;
+						if (delta >= 4) delta -= 8;
+						int c2 = (c1 + delta) & 0x1f;
+						base1[c] = (c1 << 3) | (c1 >> 2);
+						base2[c] = (c2 << 3) | (c2 >> 2);
+					} else {
+						int c1 = (int)(word >>> (shift + 1)) & 0xf;
+						int c2 = (int)(word >>> (shift - 3)) & 0xf;
+						base1[c] = (c1 << 4) | c1;
+						base2[c] = (c2 << 4) | c2;
+					}
+				}
+				int table1 = (int)(word >>> 37) & 0x7;
+				int table2 = (int)(word >>> 34) & 0x7;
+				
+				for (int x = 0; x < 4; x++) {
+					for (int y = 0; y < 4; y++) {
+						int px = bx * 4 + x;
+						int py = by * 4 + y;
+						if (px >= textureWidth || py >= textureHeight) continue;
+						boolean second = flip ? y >= 2 : x >= 2;
+						int[] base = second ? base2 : base1;
+						int i = x * 4 + y;
+						int modifier = MODIFIERS[second ? table2 : table1][(int)(word >>> i) & 1];
+						if (((word >>> (i + 16)) & 1) != 0) modifier = -modifier;
+						int r = clamp(base[0] + modifier);
+						int g = clamp(base[1] + modifier);
+						int b = clamp(base[2] + modifier);
+						pixels[py * textureWidth + px] = (short)(((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3));
+					}
+				}
+			}
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length * 2).order(ByteOrder.nativeOrder());
+		ShortBuffer shorts = buffer.asShortBuffer();
+		shorts.put(pixels);
+		return buffer;
+	}
+	
+	private static int clamp(int value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+	
+	private static ETC1Image read(InputStream is, boolean readData) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		byte[] header = new byte[PKM_HEADER_SIZE];
+		in.readFully(header);
+		
+		ETC1Image image = new ETC1Image();
+		int dataSize;
+		if (header[0] == 'P' && header[1] == 'K' && header[2] == 'M' && header[3] == ' ') {
+			// big endian: format, encoded width, encoded height, width, height
+			if (getShort(header, 6) != 0) {
+				throw new IOException("Unsupported PKM format: " + getShort(header, 6));
+			}
+			image.textureWidth  = getShort(header, 8);
+			image.textureHeight = getShort(header, 10);
+			image.width  = getShort(header, 12);
+			image.height = getShort(header, 14);
+			dataSize = getEncodedDataSize(image.textureWidth, image.textureHeight);
+		} else {
+			for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+				if (header[i] != KTX_IDENTIFIER[i]) {
+					throw new IOException("Not PKM or KTX image");
+				}
+			}
+			byte[] fields = new byte[KTX_HEADER_SIZE];
+			System.arraycopy(header, 0, fields, 0, PKM_HEADER_SIZE);
+			in.readFully(fields, PKM_HEADER_SIZE, KTX_HEADER_SIZE - PKM_HEADER_SIZE);
+			ByteBuffer buffer = ByteBuffer.wrap(fields);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(12) != KTX_ENDIANNESS) {
+				buffer.order(ByteOrder.BIG_ENDIAN);
+			}
+			int internalFormat = buffer.getInt(28);
+			if (internalFormat != GL_ETC1_RGB8_OES) {
+				throw new IOException("Unsupported KTX format: 0x" + Integer.toHexString(internalFormat));
+			}
+			image.width  = image.textureWidth  = buffer.getInt(36);
+			image.height = image.textureHeight = buffer.getInt(40);
+			
+			if (!readData) return image;
+			
+			skipFully(in, buffer.getInt(60));
+			byte[] size = new byte[4];
+			in.readFully(size);
+			dataSize = ByteBuffer.wrap(size).order(buffer.order()).getInt();
+		}
+		
+		if (readData) {
+			byte[] blocks = new byte[dataSize];
+			in.readFully(blocks);
+			image.data = ByteBuffer.allocateDirect(dataSize).order(ByteOrder.nativeOrder());
+			image.data.put(blocks).position(0);
+		}
+		return image;
+	}
+	
+	private static int getShort(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+	}
+	
+	private static void skipFully(DataInputStream in, int bytes) throws IOException {
+		while (bytes > 0) {
+			int skipped = in.skipBytes(bytes);
+			if (skipped <= 0) {
+				throw new IOException("Unexpected end of KTX image");
+			}
+			bytes -= skipped;
+		}
+	}
+}
@@ -92,22 +92,37 @@ public class FastFloatBuffer
 	 * @param data
 	 */
 	public void put( float[] data )
+	{
+		put( data, 0, data.length );
+	}
+
+	/**
+	 * It's like {@link FloatBuffer#put(float[], int, int)}, but about 10 times
+	 * faster
+	 * 
+	 * @param data
+	 * @param offset
+	 *           the first float of data to put
+	 * @param length
+	 *           the number of floats to put
+	 */
+	public void put( float[] data, int offset, int length )
 	{
 		int[] ia = intArray.get();
-		if( ia == null || ia.length < data.length )
+		if( ia == null || ia.length < length )
 		{
-			ia = new int[ data.length ];
+			ia = new int[ length ];
 			intArray = new SoftReference<int[]>( ia );
 		}
 
-		for( int i = 0; i < data.length; i++ )
+		for( int i = 0; i < length; i++ )
 		{
-			ia[ i ] = Float.floatToRawIntBits( data[ i ] );
+			ia[ i ] = Float.floatToRawIntBits( data[ offset + i ] );
 		}
 
-		bytes.position( bytes.position() + 4 * data.length );
-		floats.position( floats.position() + data.length );
-		ints.put( ia, 0, data.length );
+		bytes.position( bytes.position() + 4 * length );
+		floats.position( floats.position() + length );
+		ints.put( ia, 0, length );
 	}
 
 	/**
@@ -158,6 +173,17 @@ public class FastFloatBuffer
 		ints.position( bytes.position() >> 2 );
 	}
 
+	/**
+	 * See {@link FloatBuffer#get(int)}
+	 * 
+	 * @param index
+	 * @return the float at the given index
+	 */
+	public float get( int index )
+	{
+		return floats.get( index );
+	}
+
 	/**
 	 * @return See {@link FloatBuffer#capacity()}
 	 */
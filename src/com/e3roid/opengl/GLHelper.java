@@ -18,12 +18,14 @@ import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.nio.ByteOrder;
 
+import javax.microedition.khronos.opengles.GL;
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
 
 import com.e3roid.util.Debug;
 
 import android.graphics.Bitmap;
+import android.opengl.GLDebugHelper;
 import android.opengl.GLU;
 import android.opengl.GLUtils;
 
@@ -56,6 +58,7 @@ public class GLHelper {
 	private static boolean useTextures = false;
 	private static boolean useVertexArray = false;
 	private static boolean useTexCoordArray = false;
+	private static int errorCheckMode = 0;
 	private static boolean logGLError = false;
 
 	private static float colorRed   = -1;
@@ -70,6 +73,56 @@ public class GLHelper {
 	
 	private static float lineWidth = 1.0f;
 	
+	// extensions of the current GL, kept after the surface is lost
+	private static String extensions = "";
+	private static volatile boolean npotSupported = false;
+	// incremented whenever a surface is created, because GL objects of the previous one are lost
+	private static volatile int surfaceID = 0;
+	
+	/**
+	 * Compile-time switch for GL error checking.
+	 * When false, every error query below is removed by the compiler
+	 * and the error check mode is ignored.
+	 */
+	public static final boolean DEBUG = false;
+	
+	/**
+	 * Never call glGetError (default)
+	 */
+	public static final int ERROR_CHECK_NONE = 0;
+	/**
+	 * Call glGetError once at the end of each frame
+	 */
+	public static final int ERROR_CHECK_PER_FRAME = 1;
+	/**
+	 * Call glGetError after each GLHelper call and log the call site of the error
+	 */
+	public static final int ERROR_CHECK_PER_CALL = 2;
+	/**
+	 * Route every GL call through checked wrapper that throws GLException at the failing call.
+	 * The wrapper is installed when the surface is created.
+	 */
+	public static final int ERROR_CHECK_WRAPPED = 3;
+	
+	/**
+	 * GLWrapper that installs checked GL when the error check mode is ERROR_CHECK_WRAPPED.
+	 */
+	public static final GLSurfaceView.GLWrapper ERROR_CHECK_WRAPPER = new GLSurfaceView.GLWrapper() {
+		@Override
+		public GL wrap(GL gl) {
+			if (DEBUG && errorCheckMode == ERROR_CHECK_WRAPPED) {
+				return GLDebugHelper.wrap(gl,
+						GLDebugHelper.CONFIG_CHECK_GL_ERROR | GLDebugHelper.CONFIG_CHECK_THREAD, null);
+			}
+			return gl;
+		}
+	};
+	
+	/**
+	 * Byte stride of interleaved position(2), texture coordinate(2) and color(4) vertex
+	 */
+	public static final int INTERLEAVED_STRIDE = 8 * 4;
+	
 	private static final boolean USE_LITTLE_ENDIAN = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
 	
 	public static void reset(GL10 gl) {
@@ -108,6 +161,37 @@ public class GLHelper {
 		clearColorAlpha = -1;
 		
 		lineWidth = 1.0f;
+		
+		surfaceID++;
+		
+		String glExtensions = gl.glGetString(GL10.GL_EXTENSIONS);
+		extensions = glExtensions != null ? " " + glExtensions + " " : "";
+		npotSupported = hasExtension("GL_OES_texture_npot")
+				|| hasExtension("GL_ARB_texture_non_power_of_two");
+	}
+	
+	/**
+	 * Returns identifier of the current surface.
+	 * GL objects created with another identifier have been lost with their surface.
+	 */
+	public static int getSurfaceID() {
+		return surfaceID;
+	}
+	
+	/**
+	 * Returns whether the GL of the last created surface supports the extension.
+	 * @param name name of the extension
+	 */
+	public static boolean hasExtension(String name) {
+		return extensions.indexOf(" " + name + " ") >= 0;
+	}
+	
+	/**
+	 * Returns whether textures of non power of two size are fully supported,
+	 * including repeat wrapping. False until the first surface has been created.
+	 */
+	public static boolean isNPOTSupported() {
+		return npotSupported;
 	}
 	
 	public static void bindBuffer(GL11 gl, int bufferID) {
@@ -130,6 +214,26 @@ public class GLHelper {
 		GLHelper.currentTextureID = -1;
 	}
 	
+	/**
+	 * Forgets cached vertex and texture coordinate pointers.
+	 * Call this after setting pointers without GLHelper.
+	 */
+	public static void resetCurrentPointers() {
+		GLHelper.currentTextureBuffer = null;
+		GLHelper.currentVertexBuffer  = null;
+	}
+	
+	/**
+	 * Forgets cached current color.
+	 * The current color is undefined after drawing with color array.
+	 */
+	public static void resetCurrentColor() {
+		GLHelper.colorRed   = -1;
+		GLHelper.colorGreen = -1;
+		GLHelper.colorBlue  = -1;
+		GLHelper.colorAlpha = -1;
+	}
+	
 	public static void deleteBuffer(GL11 gl, int bufferID) {
 		GLHelper.BUFFER_TO_DELETE[0] = bufferID;
 		gl.glDeleteBuffers(1, BUFFER_TO_DELETE, 0);
@@ -182,6 +286,30 @@ public class GLHelper {
 		checkError(gl);
 	}
 	
+	/**
+	 * Sets interleaved vertex, texture coordinate and color pointers, for use with VBO.
+	 * Each vertex holds 2 position, 2 texture coordinate and 4 color floats.
+	 */
+	public static void interleavedZeroPointer(GL11 gl) {
+		gl.glVertexPointer(2, GL11.GL_FLOAT, INTERLEAVED_STRIDE, 0);
+		gl.glTexCoordPointer(2, GL11.GL_FLOAT, INTERLEAVED_STRIDE, 2 * 4);
+		gl.glColorPointer(4, GL11.GL_FLOAT, INTERLEAVED_STRIDE, 4 * 4);
+		resetCurrentPointers();
+		checkError(gl);
+	}
+	
+	/**
+	 * Sets interleaved vertex, texture coordinate and color pointers from client memory.
+	 * Each vertex holds 2 position, 2 texture coordinate and 4 color floats.
+	 */
+	public static void interleavedPointer(GL10 gl, Buffer vertices, Buffer texCoords, Buffer colors) {
+		gl.glVertexPointer(2, GL10.GL_FLOAT, INTERLEAVED_STRIDE, vertices);
+		gl.glTexCoordPointer(2, GL10.GL_FLOAT, INTERLEAVED_STRIDE, texCoords);
+		gl.glColorPointer(4, GL10.GL_FLOAT, INTERLEAVED_STRIDE, colors);
+		resetCurrentPointers();
+		checkError(gl);
+	}
+	
 	public static void blendMode(GL10 gl, int srcBlendMode, int dstBlendMode) {
 		if(GLHelper.srcBlendMode != srcBlendMode || GLHelper.dstBlendMode != dstBlendMode) {
 			gl.glBlendFunc(srcBlendMode, dstBlendMode);
@@ -191,6 +319,14 @@ public class GLHelper {
 		}
 	}
 
+	public static int getSrcBlendMode() {
+		return GLHelper.srcBlendMode;
+	}
+	
+	public static int getDstBlendMode() {
+		return GLHelper.dstBlendMode;
+	}
+
 	public static void switchToModelViewMatrix(final GL10 gl) {
 		GLHelper.switchToModelViewMatrix(gl, false);
 		checkError(gl);
@@ -414,16 +550,54 @@ public class GLHelper {
 		checkError(gl);
 	}
 
+	/**
+	 * Enable or disable logging GL errors after each GLHelper call.
+	 * Unlike the error check mode this works without GLHelper.DEBUG,
+	 * at the cost of checking the flag on each call in release builds.
+	 * @see #setErrorCheckMode(int)
+	 */
 	public static void logGLError(boolean enable) {
 		logGLError = enable;
 	}
+	
+	/**
+	 * Set GL error check mode.
+	 * Has no effect unless GLHelper.DEBUG is true.
+	 * 
+	 * @param mode ERROR_CHECK_NONE, ERROR_CHECK_PER_FRAME, ERROR_CHECK_PER_CALL or ERROR_CHECK_WRAPPED
+	 */
+	public static void setErrorCheckMode(int mode) {
+		errorCheckMode = mode;
+	}
+	
+	public static int getErrorCheckMode() {
+		return errorCheckMode;
+	}
 
 	public static void checkError(GL10 gl) {
-		if (!logGLError) return;
-		int error = gl.glGetError();
-		if (error != GL10.GL_NO_ERROR) {
-			String method = Thread.currentThread().getStackTrace()[3].getMethodName();
-			Debug.d("Error: " + error + " (" + GLU.gluErrorString(error) + "): " + method);
+		if ((DEBUG && errorCheckMode == ERROR_CHECK_PER_CALL) || logGLError) {
+			int error = gl.glGetError();
+			if (error != GL10.GL_NO_ERROR) {
+				// on Dalvik [0] is VMStack, [1] Thread.getStackTrace and [2] checkError itself
+				StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+				String method = stack.length > 3 ? stack[3].getMethodName() : "unknown";
+				String caller = stack.length > 4 ? stack[4].toString() : "unknown";
+				Debug.d("Error: " + error + " (" + GLU.gluErrorString(error) + "): " +
+						method + " at " + caller);
+			}
+		}
+	}
+	
+	/**
+	 * Sample GL error once per frame.
+	 * This is called by the engine at the end of each frame.
+	 */
+	public static void checkFrameError(GL10 gl) {
+		if (DEBUG && errorCheckMode == ERROR_CHECK_PER_FRAME) {
+			int error = gl.glGetError();
+			if (error != GL10.GL_NO_ERROR) {
+				Debug.d("Error: " + error + " (" + GLU.gluErrorString(error) + ") during frame");
+			}
 		}
 	}
 	
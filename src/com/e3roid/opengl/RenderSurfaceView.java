@@ -40,6 +40,7 @@ public class RenderSurfaceView extends GLSurfaceView {
 	 */
 	public RenderSurfaceView(Context context) {
 		super(context);
+		initialize();
 	}
 
 	/**
@@ -50,6 +51,13 @@ public class RenderSurfaceView extends GLSurfaceView {
 	 */
 	public RenderSurfaceView(Context context, AttributeSet attrs) {
 		super(context, attrs);
+		initialize();
+	}
+	
+	private void initialize() {
+		if (GLHelper.DEBUG) {
+			setGLWrapper(GLHelper.ERROR_CHECK_WRAPPER);
+		}
 	}
 	
 	/**
@@ -68,6 +76,7 @@ public class RenderSurfaceView extends GLSurfaceView {
 	public void setRenderer(E3Engine engine) {
 		this.engine = engine;
 		super.setRenderer(engine);
+		engine.onLoadSurfaceView(this);
 	}
 	
 	/**
@@ -13,16 +13,32 @@
  */
 package com.e3roid.opengl;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 
 /**
  * Provides TGA image processing. 
  * This class is partially copied from cocos2d-android's org.cocos2d.opengl.TGA.java.
+ * 
+ * Pixels are decoded in bulk from a buffered stream, or from a memory mapped file
+ * when the stream is FileInputStream. RLE packets are decoded a run at a time.
  */
 public class TGA {
 
+    private static final int HEADER_SIZE = 18;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ArrayList<ByteBuffer> bufferPool = new ArrayList<ByteBuffer>();
+
     public static class ImageTGA {
         TGAError status;
         public int type;
@@ -42,8 +58,18 @@ public class TGA {
          * raw data
          */
         public byte[] imageData;
+
+        /**
+         * raw data in pooled direct buffer, used instead of imageData
+         * when the image is loaded with direct option
+         */
+        public ByteBuffer pixels;
         public int flipped;
         public int attr;
+
+        public TGAError getStatus() {
+            return status;
+        }
     }
 
     public enum TGAError {
@@ -59,34 +85,26 @@ public class TGA {
      * Load only TGA headers.
      */
     public static ImageTGA inJustDecodeBounds(InputStream f) throws IOException {
-    	return loadHeader(f, new ImageTGA());
+        byte[] header = new byte[HEADER_SIZE];
+        int read = 0;
+        while (read < HEADER_SIZE) {
+            int n = f.read(header, read, HEADER_SIZE - read);
+            if (n < 0) throw new EOFException("Unexpected end of TGA header");
+            read += n;
+        }
+        return parseHeader(header, new ImageTGA());
     }
 
-    private static ImageTGA loadHeader(InputStream f, ImageTGA info) throws IOException {
-
-        f.read();
-
-        f.read();
-
+    private static ImageTGA parseHeader(byte[] header, ImageTGA info) {
         // type must be 2 or 3
-        info.type = (byte) f.read();
-
-        f.read();
-        f.read();
-        f.read();
-        f.read();
-        f.read();
-        f.read();
-        f.read();
-        f.read();
-        f.read();
+        info.type = header[2];
 
-        info.width = (f.read() & 0xff) | ((f.read() & 0xff) << 8);
-        info.height = (f.read() & 0xff) | ((f.read() & 0xff) << 8);
+        info.width  = (header[12] & 0xff) | ((header[13] & 0xff) << 8);
+        info.height = (header[14] & 0xff) | ((header[15] & 0xff) << 8);
 
-        info.pixelDepth = f.read() & 0xff;
+        info.pixelDepth = header[16] & 0xff;
 
-        int attr = f.read();
+        int attr = header[17] & 0xff;
 
         info.attr = attr;
         info.flipped = 0;
@@ -96,123 +114,54 @@ public class TGA {
         return info;
     }
 
-    private static void loadImageData(InputStream f, ImageTGA info) throws IOException {
-
-        int mode, total, i;
-        byte aux;
-
-        // mode equal the number of components for each pixel
-        mode = info.pixelDepth / 8;
-        // total is the number of unsigned chars we'll have to read
-        total = info.height * info.width * mode;
-
-        f.read(info.imageData, 0, total);
-
-        // mode=3 or 4 implies that the image is RGB(A). However TGA
-        // stores it as BGR(A) so we'll have to swap R and B.
-        if (mode >= 3)
-            for (i = 0; i < total; i += mode) {
-                aux = info.imageData[i];
-                info.imageData[i] = info.imageData[i + 2];
-                info.imageData[i + 2] = aux;
-            }
+    private static void loadHeader(Reader f, ImageTGA info) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        f.readFully(header, 0, HEADER_SIZE);
+        parseHeader(header, info);
+
+        // skip image ID and color map
+        int idLength = header[0] & 0xff;
+        int colorMapLength = 0;
+        if (header[1] != 0) {
+            int entries = (header[5] & 0xff) | ((header[6] & 0xff) << 8);
+            colorMapLength = entries * (((header[7] & 0xff) + 7) / 8);
+        }
+        f.skip(idLength + colorMapLength);
     }
 
     /**
-     *  loads the RLE encoded image pixels. You shouldn't call this function directly
+     * this is the function to call when we want to load an image
+     * @param is InputStream
+     * @return ImageTGA
+     * @throws IOException
      */
-    private static void loadRLEImageData(InputStream f, ImageTGA info) throws IOException {
-        int mode, total, i, index = 0;
-        byte[] aux = new byte[4];
-        int runlength = 0;
-        boolean skip = false;
-        int flag = 0;
-
-        // mode equal the number of components for each pixel
-        mode = info.pixelDepth / 8;
-        // total is the number of unsigned chars we'll have to read
-        total = info.height * info.width;
-
-        for (i = 0; i < total; i++) {
-            // if we have a run length pending, run it
-            if (runlength != 0) {
-                // we do, update the run length count
-                runlength--;
-                skip = (flag != 0);
-            } else {
-                // otherwise, read in the run length token
-                if ((runlength = f.read()) == -1)
-                    return;
-
-                // see if it's a RLE encoded sequence
-                flag = runlength & 0x80;
-                if (flag != 0) runlength -= 128;
-                skip = false;
-            }
-
-            // do we need to skip reading this pixel?
-            if (!skip) {
-                // no, read in the pixel data
-                if (f.read(aux, 0, mode) != mode)
-                    return;
-
-                // mode=3 or 4 implies that the image is RGB(A). However TGA
-                // stores it as BGR(A) so we'll have to swap R and B.
-                if (mode >= 3) {
-                    byte tmp;
-
-                    tmp = aux[0];
-                    aux[0] = aux[2];
-                    aux[2] = tmp;
-                }
-            }
-
-            // add the pixel to our image
-            memcpy(info.imageData, index, aux, 0, mode);
-
-            index += mode;
-        }
-    }
-
-    private static void flipImage(ImageTGA info) {
-        // mode equal the number of components for each pixel
-        int mode = info.pixelDepth / 8;
-        int rowbytes = info.width * mode;
-        byte[] row = new byte[rowbytes];
-
-        for (int y = 0; y < (info.height / 2); y++) {
-            memcpy(row, 0, info.imageData, y * rowbytes, rowbytes);
-            memcpy(info.imageData, y * rowbytes, info.imageData, (info.height - (y + 1)) * rowbytes, rowbytes);
-            memcpy(info.imageData, (info.height - (y + 1)) * rowbytes, row, 0, rowbytes);
-        }
-
-        info.flipped = 0;
-    }
-
-
-    private static void memcpy(byte[] dst, int to, byte[] src, int from, int len) {
-        System.arraycopy(src, from, dst, to, len);
+    public static ImageTGA load(InputStream is) throws IOException {
+        return load(is, false);
     }
 
     /**
-     * this is the function to call when we want to load an image
+     * Load an image. With direct option pixels are decoded into a pooled direct buffer
+     * which can be passed to glTexImage2D as it is. Call destroy() after the upload
+     * so that the buffer is reused by the next image.
      * @param is InputStream
+     * @param direct true if pixels are decoded into direct buffer
      * @return ImageTGA
      * @throws IOException
      */
-    public static ImageTGA load(InputStream is) throws IOException {
+    public static ImageTGA load(InputStream is, boolean direct) throws IOException {
         ImageTGA info;
         int mode, total;
 
         // allocate memory for the info struct
         info = new ImageTGA();
 
-        BufferedInputStream file;
+        Reader file;
 
         try {
-            file = new BufferedInputStream(is);
+            file = new Reader(is);
         } catch (Exception e) {
             info.status = TGAError.TGA_ERROR_FILE_OPEN;
+            is.close();
             return (info);
         }
 
@@ -221,20 +170,20 @@ public class TGA {
             loadHeader(file, info);
         } catch (Exception e) {
             info.status = TGAError.TGA_ERROR_READING_FILE;
-            file.close();
+            is.close();
             return info;
         }
 
         // check if the image is color indexed
         if (info.type == 1) {
             info.status = TGAError.TGA_ERROR_INDEXED_COLOR;
-            file.close();
+            is.close();
             return info;
         }
         // check for other types (compressed images)
         if ((info.type != 2) && (info.type != 3) && (info.type != 10)) {
             info.status = TGAError.TGA_ERROR_COMPRESSED_FILE;
-            file.close();
+            is.close();
             return info;
         }
 
@@ -242,31 +191,288 @@ public class TGA {
         mode = info.pixelDepth / 8;
         // total is the number of unsigned chars to read
         total = info.height * info.width * mode;
-        
-        // allocate memory for image pixels
-        info.imageData = new byte[total];
 
         // finally load the image pixels
+        Decoder decoder = new Decoder(file, mode, info.type == 10);
         try {
-            if (info.type == 10)
-                loadRLEImageData(file, info);
-            else
-                loadImageData(file, info);
+            if (direct) {
+                info.pixels = obtainBuffer(total);
+                loadDirect(decoder, info);
+            } else {
+                info.imageData = new byte[total];
+                decoder.decode(info.imageData, 0, total);
+                if (info.flipped != 0) {
+                    flipImage(info);
+                }
+            }
         } catch (Exception e) {
             info.status = TGAError.TGA_ERROR_READING_FILE;
-            file.close();
+            destroy(info);
+            is.close();
             return info;
         }
-        file.close();
+        is.close();
         info.status = TGAError.TGA_OK;
 
-        if (info.flipped != 0) {
-            flipImage(info);
-            if (info.flipped != 0)
-                info.status = TGAError.TGA_ERROR_MEMORY;
+        return info;
+    }
+
+    /*
+     * Decode rows in chunks and put them into the direct buffer
+     * from bottom to top, so that the image does not need to be flipped afterwards.
+     */
+    private static void loadDirect(Decoder decoder, ImageTGA info) throws IOException {
+        int rowbytes = info.width * info.pixelDepth / 8;
+        if (rowbytes == 0) return;
+        int rowsPerChunk = Math.max(1, Math.min(info.height, CHUNK_SIZE / rowbytes));
+        byte[] chunk = new byte[rowsPerChunk * rowbytes];
+        ByteBuffer pixels = info.pixels;
+
+        for (int y = 0; y < info.height; y += rowsPerChunk) {
+            int rows = Math.min(rowsPerChunk, info.height - y);
+            decoder.decode(chunk, 0, rows * rowbytes);
+            if (info.flipped == 0) {
+                pixels.position(y * rowbytes);
+                pixels.put(chunk, 0, rows * rowbytes);
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    pixels.position((info.height - (y + i + 1)) * rowbytes);
+                    pixels.put(chunk, i * rowbytes, rowbytes);
+                }
+            }
         }
+        pixels.position(0);
+        info.flipped = 0;
+    }
 
-        return info;
+    /**
+     * Decodes uncompressed and RLE encoded pixels.
+     * RLE packets may span rows, so the state of the packet is kept between calls.
+     */
+    private static class Decoder {
+        private final Reader in;
+        private final int mode;
+        private final boolean rle;
+        private final byte[] pixel = new byte[4];
+        private int packetRemaining = 0;
+        private boolean repeat = false;
+
+        Decoder(Reader in, int mode, boolean rle) {
+            this.in   = in;
+            this.mode = mode;
+            this.rle  = rle;
+        }
+
+        void decode(byte[] dst, int offset, int length) throws IOException {
+            if (!rle) {
+                in.readFully(dst, offset, length);
+                swapRedBlue(dst, offset, length, mode);
+                return;
+            }
+            int end = offset + length;
+            while (offset < end) {
+                if (packetRemaining == 0) {
+                    int header = in.read();
+                    repeat = (header & 0x80) != 0;
+                    packetRemaining = (header & 0x7f) + 1;
+                    if (repeat) {
+                        // the color of the run is read and swapped only once
+                        in.readFully(pixel, 0, mode);
+                        swapRedBlue(pixel, 0, mode, mode);
+                    }
+                }
+                int count = Math.min(packetRemaining, (end - offset) / mode);
+                int bytes = count * mode;
+                if (repeat) {
+                    fill(dst, offset, bytes, pixel, mode);
+                } else {
+                    in.readFully(dst, offset, bytes);
+                    swapRedBlue(dst, offset, bytes, mode);
+                }
+                packetRemaining -= count;
+                offset += bytes;
+            }
+        }
+    }
+
+    /*
+     * mode=3 or 4 implies that the image is RGB(A). However TGA
+     * stores it as BGR(A) so we'll have to swap R and B.
+     */
+    private static void swapRedBlue(byte[] data, int offset, int length, int mode) {
+        if (mode < 3) return;
+        int end = offset + length;
+        for (int i = offset; i < end; i += mode) {
+            byte aux = data[i];
+            data[i] = data[i + 2];
+            data[i + 2] = aux;
+        }
+    }
+
+    /*
+     * Fill the range with the pixel, doubling the copied range on each step.
+     */
+    private static void fill(byte[] dst, int offset, int length, byte[] pixel, int mode) {
+        if (length == 0) return;
+        System.arraycopy(pixel, 0, dst, offset, mode);
+        int filled = mode;
+        while (filled < length) {
+            int n = Math.min(filled, length - filled);
+            System.arraycopy(dst, offset, dst, offset + filled, n);
+            filled += n;
+        }
+    }
+
+    /**
+     * Reads bytes in bulk from memory mapped file or from buffered stream.
+     */
+    private static class Reader {
+        private final InputStream in;
+        private final ByteBuffer mapped;
+        private final byte[] buffer;
+        private int position = 0;
+        private int limit = 0;
+
+        Reader(InputStream in) throws IOException {
+            this.in = in;
+            if (in instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream)in).getChannel();
+                long start = channel.position();
+                this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, channel.size() - start);
+                this.buffer = null;
+            } else {
+                this.mapped = null;
+                this.buffer = new byte[READ_BUFFER_SIZE];
+            }
+        }
+
+        int read() throws IOException {
+            if (mapped != null) {
+                if (!mapped.hasRemaining()) throw new EOFException("Unexpected end of TGA image");
+                return mapped.get() & 0xff;
+            }
+            if (position == limit && !fill()) {
+                throw new EOFException("Unexpected end of TGA image");
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        void readFully(byte[] dst, int offset, int length) throws IOException {
+            if (mapped != null) {
+                try {
+                    mapped.get(dst, offset, length);
+                } catch (BufferUnderflowException e) {
+                    throw new EOFException("Unexpected end of TGA image");
+                }
+                return;
+            }
+            while (length > 0) {
+                int available = limit - position;
+                if (available == 0) {
+                    if (length >= buffer.length) {
+                        // large reads go straight to the destination
+                        int n = in.read(dst, offset, length);
+                        if (n < 0) throw new EOFException("Unexpected end of TGA image");
+                        offset += n;
+                        length -= n;
+                        continue;
+                    }
+                    if (!fill()) throw new EOFException("Unexpected end of TGA image");
+                    available = limit - position;
+                }
+                int n = Math.min(available, length);
+                System.arraycopy(buffer, position, dst, offset, n);
+                position += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void skip(int length) throws IOException {
+            while (length > 0) {
+                if (mapped != null) {
+                    if (mapped.remaining() < length) throw new EOFException("Unexpected end of TGA image");
+                    mapped.position(mapped.position() + length);
+                    return;
+                }
+                if (position == limit && !fill()) {
+                    throw new EOFException("Unexpected end of TGA image");
+                }
+                int n = Math.min(limit - position, length);
+                position += n;
+                length -= n;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) return false;
+            position = 0;
+            limit = n;
+            return true;
+        }
+    }
+
+    private static void flipImage(ImageTGA info) {
+        // mode equal the number of components for each pixel
+        int mode = info.pixelDepth / 8;
+        int rowbytes = info.width * mode;
+        byte[] row = new byte[rowbytes];
+
+        for (int y = 0; y < (info.height / 2); y++) {
+            memcpy(row, 0, info.imageData, y * rowbytes, rowbytes);
+            memcpy(info.imageData, y * rowbytes, info.imageData, (info.height - (y + 1)) * rowbytes, rowbytes);
+            memcpy(info.imageData, (info.height - (y + 1)) * rowbytes, row, 0, rowbytes);
+        }
+
+        info.flipped = 0;
+    }
+
+
+    private static void memcpy(byte[] dst, int to, byte[] src, int from, int len) {
+        System.arraycopy(src, from, dst, to, len);
+    }
+
+    /*
+     * Returns the smallest pooled direct buffer large enough for the size,
+     * or allocates a new one.
+     */
+    private static ByteBuffer obtainBuffer(int size) {
+        synchronized (bufferPool) {
+            int found = -1;
+            for (int i = 0; i < bufferPool.size(); i++) {
+                int capacity = bufferPool.get(i).capacity();
+                if (capacity >= size && (found < 0 || capacity < bufferPool.get(found).capacity())) {
+                    found = i;
+                }
+            }
+            if (found >= 0) {
+                ByteBuffer buffer = bufferPool.remove(found);
+                buffer.clear();
+                buffer.limit(size);
+                return buffer;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    private static void recycleBuffer(ByteBuffer buffer) {
+        synchronized (bufferPool) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * Release pooled direct buffers.
+     */
+    public static void clearBufferPool() {
+        synchronized (bufferPool) {
+            bufferPool.clear();
+        }
     }
 
     /**
@@ -315,7 +521,11 @@ public class TGA {
         if (info != null) {
             if (info.imageData != null)
                 info.imageData = null;
+            if (info.pixels != null) {
+                recycleBuffer(info.pixels);
+                info.pixels = null;
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.opengl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.e3roid.opengl.TGA.ImageTGA;
+
+/**
+ * Offline converter from TGA images to ETC1 compressed PKM or KTX images.
+ * 
+ * The converter does not use Android classes, so it runs on the build machine
+ * as a step of the asset pipeline. ETC1 has no alpha channel and alpha of the image is dropped.
+ * Images are padded to power of two by repeating the edge pixels,
+ * or only to multiple of four with -npot option. PKM keeps the original size
+ * so that AssetTexture draws the image without the padding, while KTX does not.
+ * 
+ * Usage: TextureConverter [-npot] &lt;input.tga&gt; &lt;output.pkm|output.ktx&gt;
+ */
+public class TextureConverter {
+
+	private static final int[][] MODIFIERS = {
+		{ 2,   8}, { 5,  17}, { 9,  29}, {13,  42},
+		{18,  60}, {24,  80}, {33, 106}, {47, 183}
+	};
+	
+	private static final int GL_RGB = 0x1907;
+	private static final int GL_ETC1_RGB8_OES = 0x8D64;
+	
+	private final int width;
+	private final int height;
+	private final int textureWidth;
+	private final int textureHeight;
+	private final byte[] rgb;
+	private final byte[] encoded;
+	
+	/**
+	 * Constructs converter of RGB pixels.
+	 * @param rgb RGB pixels from top to bottom
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param npot true if the texture is not padded to power of two
+	 */
+	public TextureConverter(byte[] rgb, int width, int height, boolean npot) {
+		this.rgb = rgb;
+		this.width  = width;
+		this.height = height;
+		this.textureWidth  = npot ? (width  + 3) & ~3 : nextPowerOfTwo(width);
+		this.textureHeight = npot ? (height + 3) & ~3 : nextPowerOfTwo(height);
+		this.encoded = new byte[(textureWidth / 4) * (textureHeight / 4) * 8];
+	}
+	
+	/**
+	 * Constructs converter of TGA image.
+	 * @param image ImageTGA
+	 * @param npot true if the texture is not padded to power of two
+	 */
+	public TextureConverter(ImageTGA image, boolean npot) {
+		this(toRGB(image), image.width, image.height, npot);
+	}
+	
+	/**
+	 * Encode the image to ETC1 blocks.
+	 * @return encoded blocks
+	 */
+	public byte[] encode() {
+		int[] block = new int[48];
+		byte[] bits = new byte[8];
+		int offset = 0;
+		for (int by = 0; by < textureHeight; by += 4) {
+			for (int bx = 0; bx < textureWidth; bx += 4) {
+				for (int y = 0; y < 4; y++) {
+					for (int x = 0; x < 4; x++) {
+						int p = getPixelOffset(bx + x, by + y);
+						int b = (y * 4 + x) * 3;
+						block[b]     = rgb[p]     & 0xff;
+						block[b + 1] = rgb[p + 1] & 0xff;
+						block[b + 2] = rgb[p + 2] & 0xff;
+					}
+				}
+				encodeBlock(block, bits);
+				System.arraycopy(bits, 0, encoded, offset, 8);
+				offset += 8;
+			}
+		}
+		return encoded;
+	}
+	
+	/**
+	 * Write encoded blocks as PKM image.
+	 * @param os OutputStream
+	 */
+	public void writePKM(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeBytes("PKM 10");
+		out.writeShort(0);
+		out.writeShort(textureWidth);
+		out.writeShort(textureHeight);
+		out.writeShort(width);
+		out.writeShort(height);
+		out.write(encoded);
+		out.flush();
+	}
+	
+	/**
+	 * Write encoded blocks as KTX image in little endian.
+	 * @param os OutputStream
+	 */
+	public void writeKTX(OutputStream os) throws IOException {
+		os.write(new byte[] {
+			(byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+		});
+		int[] fields = {
+			0x04030201,       // endianness
+			0, 1, 0,          // glType, glTypeSize, glFormat
+			GL_ETC1_RGB8_OES, // glInternalFormat
+			GL_RGB,           // glBaseInternalFormat
+			textureWidth, textureHeight, 0,
+			0, 1, 1,          // array elements, faces, mipmap levels
+			0,                // bytes of key value data
+			encoded.length    // image size
+		};
+		for (int field : fields) {
+			writeIntLE(os, field);
+		}
+		os.write(encoded);
+		os.flush();
+	}
+	
+	private static void writeIntLE(OutputStream os, int value) throws IOException {
+		os.write(value);
+		os.write(value >> 8);
+		os.write(value >> 16);
+		os.write(value >> 24);
+	}
+	
+	/*
+	 * Padding pixels repeat the edge of the image.
+	 */
+	private int getPixelOffset(int x, int y) {
+		x = Math.min(x, width  - 1);
+		y = Math.min(y, height - 1);
+		return (y * width + x) * 3;
+	}
+	
+	/*
+	 * Encode 4x4 block of RGB pixels by trying both flip directions
+	 * with differential and individual base colors.
+	 */
+	private static void encodeBlock(int[] block, byte[] bits) {
+		long best = 0;
+		int bestError = Integer.MAX_VALUE;
+		int[] sub1 = new int[24];
+		int[] sub2 = new int[24];
+		for (int flip = 0; flip < 2; flip++) {
+			splitBlock(block, flip, sub1, sub2);
+			int[] avg1 = average(sub1);
+			int[] avg2 = average(sub2);
+			for (int diff = 1; diff >= 0; diff--) {
+				int[] base1 = new int[3];
+				int[] base2 = new int[3];
+				long word = ((long)diff << 33) | ((long)flip << 32);
+				for (int c = 0; c < 3; c++) {
+					int shift = 59 - c * 8;
+					if (diff != 0) {
+						int c1 = quantize(avg1[c], 31);
+						int c2 = quantize(avg2[c], 31);
+						int delta = Math.max(-4, Math.min(3, c2 - c1));
+						c2 = c1 + delta;
+						base1[c] = expand5(c1);
+						base2[c] = expand5(c2);
+						word |= ((long)c1 << shift) | ((long)(delta & 7) << (shift - 3));
+					} else {
+						int c1 = quantize(avg1[c], 15);
+						int c2 = quantize(avg2[c], 15);
+						base1[c] = (c1 << 4) | c1;
+						base2[c] = (c2 << 4) | c2;
+						word |= ((long)c1 << (shift + 1)) | ((long)c2 << (shift - 3));
+					}
+				}
+				long[] result = new long[1];
+				int error = encodeSubblock(sub1, base1, flip, 0, result);
+				word |= (long)(int)result[0] & 0xffffffffL;
+				word |= result[0] >>> 32 << 37;
+				error += encodeSubblock(sub2, base2, flip, 1, result);
+				word |= (long)(int)result[0] & 0xffffffffL;
+				word |= result[0] >>> 32 << 34;
+				if (error < bestError) {
+					bestError = error;
+					best = word;
+				}
+			}
+		}
+		for (int i = 0; i < 8; i++) {
+			bits[i] = (byte)(best >>> (56 - i * 8));
+		}
+	}
+	
+	/*
+	 * Choose the modifier table and the pixel indices of half block.
+	 * result[0] holds the table in upper word and the pixel index bits in lower word.
+	 */
+	private static int encodeSubblock(int[] sub, int[] base, int flip, int half, long[] result) {
+		int bestError = Integer.MAX_VALUE;
+		for (int table = 0; table < MODIFIERS.length; table++) {
+			int error = 0;
+			int indices = 0;
+			for (int i = 0; i < 8; i++) {
+				int bestPixel = Integer.MAX_VALUE;
+				int bestIndex = 0;
+				for (int index = 0; index < 4; index++) {
+					int modifier = MODIFIERS[table][index & 1];
+					if ((index & 2) != 0) modifier = -modifier;
+					int pixelError = 0;
+					for (int c = 0; c < 3; c++) {
+						int d = clamp(base[c] + modifier) - sub[i * 3 + c];
+						pixelError += d * d;
+					}
+					if (pixelError < bestPixel) {
+						bestPixel = pixelError;
+						bestIndex = index;
+					}
+				}
+				error += bestPixel;
+				int x, y;
+				if (flip == 0) {
+					x = half * 2 + i / 4;
+					y = i % 4;
+				} else {
+					x = i % 4;
+					y = half * 2 + i / 4;
+				}
+				int n = x * 4 + y;
+				indices |= ((bestIndex >> 1) << (n + 16)) | ((bestIndex & 1) << n);
+			}
+			if (error < bestError) {
+				bestError = error;
+				result[0] = ((long)table << 32) | (indices & 0xffffffffL);
+			}
+		}
+		return bestError;
+	}
+	
+	/*
+	 * Split block into two halves of 8 pixels:
+	 * left and right with flip = 0, top and bottom with flip = 1.
+	 */
+	private static void splitBlock(int[] block, int flip, int[] sub1, int[] sub2) {
+		for (int half = 0; half < 2; half++) {
+			int[] sub = half == 0 ? sub1 : sub2;
+			for (int i = 0; i < 8; i++) {
+				int x, y;
+				if (flip == 0) {
+					x = half * 2 + i / 4;
+					y = i % 4;
+				} else {
+					x = i % 4;
+					y = half * 2 + i / 4;
+				}
+				System.arraycopy(block, (y * 4 + x) * 3, sub, i * 3, 3);
+			}
+		}
+	}
+	
+	private static int[] average(int[] sub) {
+		int[] avg = new int[3];
+		for (int i = 0; i < 8; i++) {
+			for (int c = 0; c < 3; c++) {
+				avg[c] += sub[i * 3 + c];
+			}
+		}
+		for (int c = 0; c < 3; c++) {
+			avg[c] = (avg[c] + 4) / 8;
+		}
+		return avg;
+	}
+	
+	private static int quantize(int value, int max) {
+		return (value * max + 127) / 255;
+	}
+	
+	private static int expand5(int value) {
+		return (value << 3) | (value >> 2);
+	}
+	
+	private static int clamp(int value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+	
+	private static int nextPowerOfTwo(int value) {
+		int result = 1;
+		while (result < value) {
+			result <<= 1;
+		}
+		return result;
+	}
+	
+	/*
+	 * Convert TGA pixels, which are stored from bottom to top,
+	 * to RGB pixels from top to bottom.
+	 */
+	private static byte[] toRGB(ImageTGA image) {
+		int mode = image.pixelDepth / 8;
+		byte[] rgb = new byte[image.width * image.height * 3];
+		for (int y = 0; y < image.height; y++) {
+			int src = (image.height - 1 - y) * image.width * mode;
+			int dst = y * image.width * 3;
+			for (int x = 0; x < image.width; x++) {
+				if (mode >= 3) {
+					rgb[dst]     = image.imageData[src];
+					rgb[dst + 1] = image.imageData[src + 1];
+					rgb[dst + 2] = image.imageData[src + 2];
+				} else {
+					rgb[dst] = rgb[dst + 1] = rgb[dst + 2] = image.imageData[src];
+				}
+				src += mode;
+				dst += 3;
+			}
+		}
+		return rgb;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		boolean npot = args.length == 3 && args[0].equals("-npot");
+		if (args.length != (npot ? 3 : 2)) {
+			System.err.println("usage: TextureConverter [-npot] <input.tga> <output.pkm|output.ktx>");
+			System.exit(1);
+		}
+		String input  = args[args.length - 2];
+		String output = args[args.length - 1];
+		
+		InputStream is = new FileInputStream(input);
+		ImageTGA image = TGA.load(is);
+		if (image.status != TGA.TGAError.TGA_OK) {
+			System.err.println("Failed to load " + input + ": " + image.status);
+			System.exit(1);
+		}
+		
+		TextureConverter converter = new TextureConverter(image, npot);
+		converter.encode();
+		
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(output));
+		try {
+			if (output.toLowerCase().endsWith(".ktx")) {
+				converter.writeKTX(os);
+			} else {
+				converter.writePKM(os);
+			}
+		} finally {
+			os.close();
+		}
+	}
+}
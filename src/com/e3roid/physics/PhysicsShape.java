@@ -32,6 +32,11 @@ public class PhysicsShape {
 	protected boolean updatePosition = true;
 	protected boolean updateRotation = true;
 	
+	protected boolean hasPreviousTransform = false;
+	protected float previousX;
+	protected float previousY;
+	protected float previousAngle;
+	
 	public PhysicsShape(Shape shape, Body body) {
 		this.shape = shape;
 		this.body  = body;
@@ -60,6 +65,64 @@ public class PhysicsShape {
 		}
 	}
 	
+	/**
+	 * Update shape with given body transform that is read back from the world.
+	 * @param x body position x in meters
+	 * @param y body position y in meters
+	 * @param angle body angle in radians
+	 */
+	public void onUpdate(E3Scene scene, long elapsedMsec, float x, float y, float angle) {
+		if (updatePosition) {
+			shape.move(
+				(int)(x * pixelToMeterRatio - this.halfShapeWidth),
+				(int)(y * pixelToMeterRatio - this.halfShapeHeight));
+		}
+		if (updateRotation) {
+			shape.rotate(MathUtil.radToDeg(angle));
+		}
+	}
+	
+	/**
+	 * Update shape with the transform interpolated between previous step and current step.
+	 * @param alpha interpolation factor (0 means previous step, 1 means current step)
+	 */
+	public void onUpdate(E3Scene scene, long elapsedMsec, float alpha) {
+		Vector2 position = body.getPosition();
+		onUpdate(scene, elapsedMsec, alpha, position.x, position.y, body.getAngle());
+	}
+	
+	/**
+	 * Update shape with the transform interpolated between previous step and given current transform.
+	 * @param alpha interpolation factor (0 means previous step, 1 means current step)
+	 */
+	public void onUpdate(E3Scene scene, long elapsedMsec, float alpha, float x, float y, float angle) {
+		if (hasPreviousTransform) {
+			x = previousX + (x - previousX) * alpha;
+			y = previousY + (y - previousY) * alpha;
+			angle = previousAngle + (angle - previousAngle) * alpha;
+		}
+		onUpdate(scene, elapsedMsec, x, y, angle);
+	}
+	
+	/**
+	 * Save current body transform as previous step for interpolation.
+	 * Called before each fixed step of the world.
+	 */
+	public void savePreviousTransform() {
+		Vector2 position = body.getPosition();
+		savePreviousTransform(position.x, position.y, body.getAngle());
+	}
+	
+	/**
+	 * Save given body transform as previous step for interpolation.
+	 */
+	public void savePreviousTransform(float x, float y, float angle) {
+		this.previousX = x;
+		this.previousY = y;
+		this.previousAngle = angle;
+		this.hasPreviousTransform = true;
+	}
+	
 	public Body getBody() {
 		return this.body;
 	}
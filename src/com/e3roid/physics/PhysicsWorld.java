@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.BodyTransforms;
 import com.badlogic.gdx.physics.box2d.Joint;
 import com.badlogic.gdx.physics.box2d.JointDef;
 import com.badlogic.gdx.physics.box2d.World;
@@ -37,10 +38,21 @@ public class PhysicsWorld implements SceneUpdateListener {
 	public static final int VELOCITY_ITERATIONS_DEFAULT = 8;
 	public static final int POSITION_ITERATIONS_DEFAULT = 8;
 	public static final float PIXEL_TO_METER_RATIO_DEFAULT = 32.0f;
+	public static final float FIXED_TIME_STEP_DEFAULT = 1.0f / 60.0f;
+	public static final int MAX_SUB_STEPS_DEFAULT = 5;
 	
 	protected int velocityIters = VELOCITY_ITERATIONS_DEFAULT;
 	protected int positionIters = POSITION_ITERATIONS_DEFAULT;
 	
+	protected boolean useFixedTimeStep = false;
+	protected float fixedTimeStep = FIXED_TIME_STEP_DEFAULT;
+	protected int maxSubSteps = MAX_SUB_STEPS_DEFAULT;
+	protected float accumulator = 0;
+	protected float alpha = 1;
+	
+	protected BodyTransforms transforms = null;
+	protected boolean transformsChanged = true;
+	
 	public PhysicsWorld(Vector2 gravity, boolean allowSleep) {
 		this(gravity, allowSleep, VELOCITY_ITERATIONS_DEFAULT, POSITION_ITERATIONS_DEFAULT);
 	}
@@ -53,23 +65,103 @@ public class PhysicsWorld implements SceneUpdateListener {
 	
 	@Override
 	public void onUpdateScene(E3Scene scene, long elapsedMsec) {
+		if (useFixedTimeStep) {
+			onFixedUpdateScene(scene, elapsedMsec);
+			return;
+		}
 		world.step(msec2sec(elapsedMsec), velocityIters, positionIters);
+		if (transforms != null) {
+			readTransforms();
+			for (int i = 0; i < shapes.size(); i++) {
+				shapes.get(i).onUpdate(scene, elapsedMsec,
+						transforms.getX(i), transforms.getY(i), transforms.getAngle(i));
+			}
+			return;
+		}
 		for (PhysicsShape shape : shapes) {
 			shape.onUpdate(scene, elapsedMsec);
 		}
 	}
 	
+	private void readTransforms() {
+		world.getTransforms(transforms);
+		transformsChanged = false;
+	}
+	
+	/**
+	 * Steps the world by fixed time step as many times as the elapsed time allows,
+	 * but not more than max sub steps, and interpolates shapes by the leftover time.
+	 */
+	protected void onFixedUpdateScene(E3Scene scene, long elapsedMsec) {
+		accumulator += msec2sec(elapsedMsec);
+		int steps = 0;
+		while (accumulator >= fixedTimeStep && steps < maxSubSteps) {
+			savePreviousTransforms();
+			world.step(fixedTimeStep, velocityIters, positionIters);
+			if (transforms != null) {
+				transformsChanged = true;
+			}
+			accumulator -= fixedTimeStep;
+			steps++;
+		}
+		// drop the time that could not be simulated to avoid the spiral of death
+		if (accumulator >= fixedTimeStep) {
+			accumulator = accumulator % fixedTimeStep;
+		}
+		alpha = accumulator / fixedTimeStep;
+		if (transforms != null) {
+			if (transformsChanged) {
+				readTransforms();
+			}
+			for (int i = 0; i < shapes.size(); i++) {
+				shapes.get(i).onUpdate(scene, elapsedMsec, alpha,
+						transforms.getX(i), transforms.getY(i), transforms.getAngle(i));
+			}
+			return;
+		}
+		for (PhysicsShape shape : shapes) {
+			shape.onUpdate(scene, elapsedMsec, alpha);
+		}
+	}
+	
+	private void savePreviousTransforms() {
+		if (transforms == null) {
+			for (PhysicsShape shape : shapes) {
+				shape.savePreviousTransform();
+			}
+			return;
+		}
+		if (transformsChanged) {
+			readTransforms();
+		}
+		for (int i = 0; i < shapes.size(); i++) {
+			shapes.get(i).savePreviousTransform(
+					transforms.getX(i), transforms.getY(i), transforms.getAngle(i));
+		}
+	}
+	
 	private float msec2sec(long msec) {
 		return (float)msec / 1000.0f;
 	}
 	
 	public void addShape(PhysicsShape shape) {
 		shapes.add(shape);
+		if (transforms != null) {
+			transforms.add(shape.getBody());
+			transformsChanged = true;
+		}
 	}
 	
 	public void removeShape(PhysicsShape shape) {
 		destroyBody(shape.getBody());
-		shapes.remove(shape);
+		int index = shapes.indexOf(shape);
+		if (index < 0) return;
+		shapes.remove(index);
+		if (transforms != null) {
+			// the buffer still has the old layout until it is read again
+			transforms.remove(index);
+			transformsChanged = true;
+		}
 	}
 	
 	public void removeShape(Shape shape) {
@@ -115,6 +207,79 @@ public class PhysicsWorld implements SceneUpdateListener {
 		return this.world;
 	}
 	
+	/**
+	 * Enable fixed time step mode.
+	 * In this mode the world always steps by the fixed time step
+	 * and the shapes are interpolated between the last two steps.
+	 * @param enable
+	 */
+	public void enableFixedTimeStep(boolean enable) {
+		this.useFixedTimeStep = enable;
+		this.accumulator = 0;
+		this.alpha = 1;
+	}
+	
+	public boolean useFixedTimeStep() {
+		return this.useFixedTimeStep;
+	}
+	
+	/**
+	 * Set fixed time step in seconds
+	 * @param timeStep
+	 */
+	public void setFixedTimeStep(float timeStep) {
+		if (timeStep <= 0) {
+			throw new IllegalArgumentException("timeStep must be greater than zero.");
+		}
+		this.fixedTimeStep = timeStep;
+	}
+	
+	public float getFixedTimeStep() {
+		return this.fixedTimeStep;
+	}
+	
+	/**
+	 * Set maximum number of steps in single update
+	 * @param maxSubSteps
+	 */
+	public void setMaxSubSteps(int maxSubSteps) {
+		this.maxSubSteps = maxSubSteps;
+	}
+	
+	public int getMaxSubSteps() {
+		return this.maxSubSteps;
+	}
+	
+	/**
+	 * Returns interpolation alpha of the last update (0 to 1).
+	 */
+	public float getInterpolationAlpha() {
+		return this.alpha;
+	}
+	
+	/**
+	 * Enable reading transforms of all shapes with single native call after each step
+	 * instead of querying each body.
+	 * Requires the native library built with World.jniGetTransforms.
+	 * @param enable
+	 */
+	public void enableBulkTransforms(boolean enable) {
+		if (!enable) {
+			this.transforms = null;
+			return;
+		}
+		if (this.transforms != null) return;
+		this.transforms = new BodyTransforms();
+		for (PhysicsShape shape : shapes) {
+			transforms.add(shape.getBody());
+		}
+		this.transformsChanged = true;
+	}
+	
+	public boolean useBulkTransforms() {
+		return this.transforms != null;
+	}
+	
 	public int getPositionIterations() {
 		return this.positionIters;
 	}
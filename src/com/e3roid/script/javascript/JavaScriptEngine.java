@@ -8,6 +8,7 @@ import java.io.Reader;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 
 import com.e3roid.E3Activity;
@@ -20,6 +21,8 @@ import com.e3roid.script.ScriptException;
  */
 public class JavaScriptEngine implements ScriptEngine, E3LifeCycle {
 
+	private static int optimizationLevel = -1;
+
 	private Context context;
 	private Scriptable scriptable;
 	private Object jsValue;
@@ -28,6 +31,18 @@ public class JavaScriptEngine implements ScriptEngine, E3LifeCycle {
 	public JavaScriptEngine(InputStream in, String source) {
 		jsValue = evaluate(new InputStreamReader(in), source);
 	}
+
+	public JavaScriptEngine(InputStream in, String source, ScriptCache cache) {
+		jsValue = evaluate(in, source, cache);
+	}
+	
+	/**
+	 * Set the optimization level of new contexts.
+	 * Android can only run the interpreter (-1), which is the default.
+	 */
+	public static void setOptimizationLevel(int level) {
+		optimizationLevel = level;
+	}
 	
 	public Object evaluate(Reader reader, String source) {
 		try {
@@ -44,6 +59,33 @@ public class JavaScriptEngine implements ScriptEngine, E3LifeCycle {
 		}
 	}
 
+	/**
+	 * Evaluate a script, taking it compiled from the cache 
+	 * instead of parsing it when it was compiled before.
+	 */
+	public Object evaluate(InputStream in, String source, ScriptCache cache) {
+		try {
+			loadContext();
+			return evaluate(cache.getScript(context, in, source));
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// do nothing
+			}
+		}
+	}
+
+	/**
+	 * Evaluate a compiled script.
+	 */
+	public Object evaluate(Script script) {
+		loadContext();
+		return script.exec(context, scriptable);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T call(String name, Object... args) {
@@ -69,6 +111,14 @@ public class JavaScriptEngine implements ScriptEngine, E3LifeCycle {
 		}
 	}
 	
+	public static JavaScriptEngine loadFromAsset(String filename, E3Activity container, ScriptCache cache) {
+		try {
+			return load(container.getAssets().open(filename), filename, container, cache);
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		}
+	}
+	
 	public static JavaScriptEngine loadFromData(String filename, E3Activity container) {
 		try {
 			return load(container.openFileInput(filename), filename, container);
@@ -77,12 +127,26 @@ public class JavaScriptEngine implements ScriptEngine, E3LifeCycle {
 		}
 	}
 	
+	public static JavaScriptEngine loadFromData(String filename, E3Activity container, ScriptCache cache) {
+		try {
+			return load(container.openFileInput(filename), filename, container, cache);
+		} catch (FileNotFoundException e) {
+			throw new ScriptException(e);
+		}
+	}
+	
 	public static JavaScriptEngine load(InputStream in, String source, E3Activity container) {
 		JavaScriptEngine engine = new JavaScriptEngine(in, source);
 		container.getEngine().addLifeCycle(engine);
 		return engine;
 	}
 	
+	public static JavaScriptEngine load(InputStream in, String source, E3Activity container, ScriptCache cache) {
+		JavaScriptEngine engine = new JavaScriptEngine(in, source, cache);
+		container.getEngine().addLifeCycle(engine);
+		return engine;
+	}
+	
 	public Object getEvaluatedValue() {
 		return this.jsValue;
 	}
@@ -112,7 +176,7 @@ public class JavaScriptEngine implements ScriptEngine, E3LifeCycle {
 	public void loadContext() {
 		if (context == null) {
 			context = Context.enter();
-			context.setOptimizationLevel(-1);
+			context.setOptimizationLevel(optimizationLevel);
 			scriptable = context.initStandardObjects();
 		}
 	}
@@ -0,0 +1,221 @@
+package com.e3roid.script.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+import com.e3roid.script.ScriptException;
+
+/**
+ * Cache of compiled JavaScript keyed by a hash of the script source,
+ * so scripts are parsed once instead of on every launch.
+ *
+ * With the interpreter (optimization level -1, the only mode Android can run)
+ * the compiled script is stored as a serialized script object.
+ * With optimization level 0 or more the script is compiled to Java classes by
+ * ClassCompiler and stored as a bundle of class files, which requires a VM
+ * that can define classes at runtime.
+ *
+ * Compiled scripts are kept in memory and, when a directory is given,
+ * written to it. Use {@link #main(String[])} to fill a directory at build time.
+ */
+public class ScriptCache {
+
+	public static final String INTERPRETED_SUFFIX = ".jsi";
+	public static final String CLASSES_SUFFIX     = ".jsc";
+
+	private static final String CLASS_PREFIX = "com.e3roid.script.javascript.compiled.S";
+
+	private final File dir;
+	private final HashMap<String, Script> scripts = new HashMap<String, Script>();
+
+	/**
+	 * Create a cache that keeps compiled scripts in memory only.
+	 */
+	public ScriptCache() {
+		this(null);
+	}
+
+	/**
+	 * Create a cache that also stores compiled scripts in the given directory,
+	 * for example the cache directory of the activity.
+	 */
+	public ScriptCache(File dir) {
+		this.dir = dir;
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+	}
+
+	/**
+	 * Get the compiled script of the source read from the stream,
+	 * compiling it only when it is not cached for the optimization level of the context.
+	 * The stream is read to the end but not closed.
+	 */
+	public Script getScript(Context context, InputStream in, String source) throws IOException {
+		byte[] data = readFully(in);
+		String key = getKey(data, context.getOptimizationLevel());
+		Script script = scripts.get(key);
+		if (script == null) {
+			script = read(context, key);
+			if (script == null) {
+				script = compile(context, new String(data), source, key);
+			}
+			scripts.put(key, script);
+		}
+		return script;
+	}
+
+	/**
+	 * Remove all compiled scripts from memory and from the directory.
+	 */
+	public void clear() {
+		scripts.clear();
+		if (dir == null) return;
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(INTERPRETED_SUFFIX) || name.endsWith(CLASSES_SUFFIX)) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Cache key of a source for an optimization level.
+	 */
+	public static String getKey(byte[] data, int optimizationLevel) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(data);
+			StringBuilder key = new StringBuilder(hash.length * 2 + 2);
+			for (byte b : hash) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16));
+				key.append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.append(optimizationLevel < 0 ? "_i" : "_c").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new ScriptException(e);
+		}
+	}
+
+	private Script compile(Context context, String text, String source, String key) {
+		if (context.getOptimizationLevel() < 0) {
+			Script script = context.compileString(text, source, 1, null);
+			write(key + INTERPRETED_SUFFIX, script);
+			return script;
+		}
+		CompilerEnvirons env = new CompilerEnvirons();
+		env.initFromContext(context);
+		Object[] classes = new ClassCompiler(env).compileToClassFiles(text, source, 1, CLASS_PREFIX + key);
+		write(key + CLASSES_SUFFIX, classes);
+		return define(context, classes);
+	}
+
+	private Script read(Context context, String key) {
+		if (dir == null) return null;
+		boolean interpreted = context.getOptimizationLevel() < 0;
+		File file = new File(dir, key + (interpreted ? INTERPRETED_SUFFIX : CLASSES_SUFFIX));
+		if (!file.exists()) return null;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try {
+				Object obj = in.readObject();
+				return interpreted ? (Script)obj : define(context, (Object[])obj);
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			// stale or broken entry, compile again
+			file.delete();
+			return null;
+		}
+	}
+
+	private void write(String name, Object obj) {
+		if (dir == null) return;
+		File file = new File(dir, name);
+		File temp = new File(dir, name + ".tmp");
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temp));
+			try {
+				out.writeObject(obj);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				temp.delete();
+			}
+		} catch (IOException e) {
+			// the cache is only an optimization
+			temp.delete();
+		}
+	}
+
+	private static Script define(Context context, Object[] classes) {
+		GeneratedClassLoader loader = context.createClassLoader(ScriptCache.class.getClassLoader());
+		Class<?> main = null;
+		for (int i = 0; i < classes.length; i += 2) {
+			Class<?> cls = loader.defineClass((String)classes[i], (byte[])classes[i + 1]);
+			if (i == 0) main = cls;
+		}
+		loader.linkClass(main);
+		try {
+			return (Script)main.newInstance();
+		} catch (Exception e) {
+			throw new ScriptException(e);
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compile scripts into a cache directory at build time.
+	 * Usage: ScriptCache &lt;directory&gt; &lt;optimization level&gt; &lt;script&gt;...
+	 * Run it from the assets directory so the script names match the names used at runtime.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("usage: ScriptCache <directory> <optimization level> <script>...");
+			System.exit(1);
+		}
+		ScriptCache cache = new ScriptCache(new File(args[0]));
+		Context context = Context.enter();
+		try {
+			context.setOptimizationLevel(Integer.parseInt(args[1]));
+			for (int i = 2; i < args.length; i++) {
+				InputStream in = new FileInputStream(args[i]);
+				try {
+					cache.getScript(context, in, args[i]);
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			Context.exit();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.util;
+
+/**
+ * Debug harness that counts object allocations of the GL thread over steady frames.
+ * 
+ * After the warm up frames, allocations of the thread drawing the frames are counted
+ * for the given number of frames by android.os.Debug allocation counting.
+ * A steady scene is expected to draw without any allocation, so with assertion enabled
+ * an IllegalStateException is thrown when the count is not zero.
+ * Counting slows down the VM, so use this only for debugging:
+ * <pre>
+ * engine.setAllocationCounter(new AllocationCounter(60, 300, true));
+ * </pre>
+ */
+public class AllocationCounter {
+	public static final int WARMUP_FRAMES_DEFAULT = 60;
+	public static final int FRAMES_DEFAULT = 300;
+	
+	private final int warmupFrames;
+	private final int frames;
+	private final boolean assertNoAllocation;
+	
+	private int frameCount = 0;
+	private boolean counting = false;
+	private boolean finished = false;
+	private int allocationCount = 0;
+	private int allocationSize  = 0;
+	
+	public AllocationCounter() {
+		this(WARMUP_FRAMES_DEFAULT, FRAMES_DEFAULT, true);
+	}
+	
+	/**
+	 * Constructs allocation counter.
+	 * @param warmupFrames number of frames drawn before counting starts
+	 * @param frames number of frames to count allocations
+	 * @param assertNoAllocation true if IllegalStateException is thrown when any allocation is counted
+	 */
+	public AllocationCounter(int warmupFrames, int frames, boolean assertNoAllocation) {
+		this.warmupFrames = warmupFrames;
+		this.frames = Math.max(1, frames);
+		this.assertNoAllocation = assertNoAllocation;
+	}
+	
+	/**
+	 * Called by the engine at the end of each frame on the GL thread.
+	 */
+	public void onFrame() {
+		if (finished) return;
+		frameCount++;
+		if (!counting) {
+			if (frameCount >= warmupFrames) {
+				android.os.Debug.resetThreadAllocCount();
+				android.os.Debug.resetThreadAllocSize();
+				android.os.Debug.startAllocCounting();
+				counting = true;
+				frameCount = 0;
+			}
+			return;
+		}
+		if (frameCount < frames) return;
+		
+		android.os.Debug.stopAllocCounting();
+		allocationCount = android.os.Debug.getThreadAllocCount();
+		allocationSize  = android.os.Debug.getThreadAllocSize();
+		counting = false;
+		finished = true;
+		
+		String message = allocationCount + " allocations (" + allocationSize + " bytes) in " + frames + " frames";
+		if (allocationCount > 0 && assertNoAllocation) {
+			throw new IllegalStateException("Steady frames allocated objects: " + message);
+		}
+		Debug.d(message);
+	}
+	
+	/**
+	 * Discard the current count and start again with warm up frames,
+	 * because reloading the scene allocates.
+	 */
+	public void reset() {
+		if (counting) {
+			android.os.Debug.stopAllocCounting();
+		}
+		counting = false;
+		finished = false;
+		frameCount = 0;
+		allocationCount = 0;
+		allocationSize  = 0;
+	}
+	
+	/**
+	 * Indicates whether the counted frames have been drawn.
+	 * @return true if the count is finished
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Returns number of allocations counted in the frames.
+	 * @return number of allocations, valid when the count is finished
+	 */
+	public int getAllocationCount() {
+		return allocationCount;
+	}
+	
+	/**
+	 * Returns bytes allocated in the frames.
+	 * @return allocated bytes, valid when the count is finished
+	 */
+	public int getAllocationSize() {
+		return allocationSize;
+	}
+}
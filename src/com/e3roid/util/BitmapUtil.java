@@ -24,6 +24,8 @@ import android.graphics.Canvas;
 import android.graphics.Bitmap.Config;
 import android.graphics.drawable.Drawable;
 
+import com.e3roid.opengl.TGA.ImageTGA;
+
 /**
  * A utility class for creating Bitmap.
  */
@@ -63,6 +65,28 @@ public class BitmapUtil {
 		return bitmap;
 	}
 
+	/**
+	 * Creates ARGB bitmap from decoded TGA image.
+	 * TGA image rows are stored from bottom to top, so the rows are flipped.
+	 */
+	public static Bitmap getBitmapFromTGA(ImageTGA image) {
+		int mode = image.pixelDepth / 8;
+		int[] pixels = new int[image.width * image.height];
+		byte[] data = image.imageData;
+		for (int y = 0; y < image.height; y++) {
+			int src = (image.height - y - 1) * image.width * mode;
+			int dst = y * image.width;
+			for (int x = 0; x < image.width; x++, src += mode) {
+				int red   = data[src] & 0xff;
+				int green = mode >= 3 ? data[src + 1] & 0xff : red;
+				int blue  = mode >= 3 ? data[src + 2] & 0xff : red;
+				int alpha = mode == 4 ? data[src + 3] & 0xff : 0xff;
+				pixels[dst + x] = alpha << 24 | red << 16 | green << 8 | blue;
+			}
+		}
+		return Bitmap.createBitmap(pixels, image.width, image.height, Config.ARGB_8888);
+	}
+
 	public static Bitmap getTileBitmapFromAsset(String assetName, 
 			int tileWidth, int tileHeight, int xindex, int yindex, int border, Context context) {
 		return getTileBitmap(getBitmapFromAsset(assetName, context),
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.util;
+
+/**
+ * Frame pacer that limits frame rate with per-frame deadlines on the monotonic nanosecond clock.
+ * Each deadline is the previous deadline plus the frame period, not the wake up time plus the period,
+ * so an oversleep in one frame shortens the next wait and the average rate does not drift.
+ * When a frame is later than a whole period the pacer resynchronizes instead of rendering
+ * several frames in a row to catch up.
+ *
+ * If the refresh rate of the display is known, the frame period is rounded to a whole number
+ * of display refresh periods, so a 30 fps cap on a 60 Hz display shows every frame for exactly
+ * two refreshes instead of alternating between one and three.
+ */
+public class FramePacer {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long NANOS_PER_MILLI  = 1000000L;
+
+	private int fps;
+	private float displayRefreshRate = 0;
+	private long periodNanos;
+	private long deadline = 0;
+
+	/**
+	 * Construct pacer with given frame rate.
+	 * @param fps frames per second
+	 */
+	public FramePacer(int fps) {
+		setFPS(fps);
+	}
+
+	/**
+	 * Set frame rate.
+	 * @param fps frames per second
+	 */
+	public void setFPS(int fps) {
+		if (fps <= 0) {
+			throw new IllegalArgumentException("FPS must be positive: " + fps);
+		}
+		this.fps = fps;
+		updatePeriod();
+	}
+
+	/**
+	 * Returns frame rate.
+	 * @return frames per second
+	 */
+	public int getFPS() {
+		return this.fps;
+	}
+
+	/**
+	 * Set refresh rate of the display. Zero disables rounding to display refresh periods.
+	 * @param hz refresh rate of the display
+	 */
+	public void setDisplayRefreshRate(float hz) {
+		this.displayRefreshRate = hz;
+		updatePeriod();
+	}
+
+	/**
+	 * Returns frame period in nanoseconds.
+	 * @return frame period in nanoseconds
+	 */
+	public long getPeriodNanos() {
+		return this.periodNanos;
+	}
+
+	private void updatePeriod() {
+		if (displayRefreshRate > 0 && fps <= displayRefreshRate) {
+			double refreshPeriod = NANOS_PER_SECOND / (double)displayRefreshRate;
+			long refreshes = Math.max(1, Math.round(displayRefreshRate / fps));
+			this.periodNanos = (long)(refreshPeriod * refreshes);
+		} else {
+			this.periodNanos = NANOS_PER_SECOND / fps;
+		}
+	}
+
+	/**
+	 * Forget the current deadline, for example after the rendering has been paused.
+	 */
+	public void reset() {
+		this.deadline = 0;
+	}
+
+	/**
+	 * Wait until the deadline of the current frame and schedule the next one.
+	 * @throws InterruptedException if the thread has been interrupted while waiting
+	 */
+	public void waitForNextFrame() throws InterruptedException {
+		long now = System.nanoTime();
+		if (deadline == 0) {
+			deadline = now + periodNanos;
+			return;
+		}
+		long wait = deadline - now;
+		if (wait > 0) {
+			Thread.sleep(wait / NANOS_PER_MILLI, (int)(wait % NANOS_PER_MILLI));
+			deadline += periodNanos;
+		} else if (-wait > periodNanos) {
+			// too late to catch up, resynchronize
+			deadline = now + periodNanos;
+		} else {
+			deadline += periodNanos;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free unbounded queue for many producer threads and one consumer thread.
+ * offer() may be called from any thread, poll() only from the consumer thread.
+ * Producers never block each other or the consumer, which is needed for events
+ * posted from the UI thread while the GL thread is drawing.
+ */
+public class MpscQueue<T> {
+
+	private static final class Node<T> {
+		T value;
+		volatile Node<T> next;
+		
+		Node(T value) {
+			this.value = value;
+		}
+	}
+	
+	// last node, swapped by producers
+	private final AtomicReference<Node<T>> head;
+	// node before the first item, owned by the consumer
+	private Node<T> tail;
+	private final AtomicInteger size = new AtomicInteger();
+	
+	public MpscQueue() {
+		Node<T> stub = new Node<T>(null);
+		this.head = new AtomicReference<Node<T>>(stub);
+		this.tail = stub;
+	}
+	
+	/**
+	 * Add item to the queue. May be called from any thread.
+	 */
+	public void offer(T item) {
+		if (item == null) {
+			throw new IllegalArgumentException("item cannot be null.");
+		}
+		Node<T> node = new Node<T>(item);
+		Node<T> prev = head.getAndSet(node);
+		size.incrementAndGet();
+		prev.next = node;
+	}
+	
+	/**
+	 * Remove first item of the queue. Called only from the consumer thread.
+	 * @return first item, or null if the queue is empty or
+	 * the first item is still being added.
+	 */
+	public T poll() {
+		Node<T> next = tail.next;
+		if (next == null) return null;
+		T item = next.value;
+		next.value = null;
+		tail = next;
+		size.decrementAndGet();
+		return item;
+	}
+	
+	/**
+	 * Returns first item of the queue without removing it. Called only from the consumer thread.
+	 * @return first item, or null if the queue is empty or
+	 * the first item is still being added.
+	 */
+	public T peek() {
+		Node<T> next = tail.next;
+		return next != null ? next.value : null;
+	}
+	
+	/**
+	 * Returns number of items that have been added and not removed yet.
+	 */
+	public int size() {
+		return size.get();
+	}
+	
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+}
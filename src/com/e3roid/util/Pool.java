@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.util;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of reusable objects.
+ * obtain() returns a free object or creates a new one with newObject(),
+ * and free() puts the object back after resetting it.
+ * Fill the pool at load time to avoid allocation during the game.
+ * All methods may be called from any thread.
+ */
+public abstract class Pool<T> {
+
+	private final ArrayList<T> freeObjects;
+	private final int max;
+	private int peak = 0;
+	
+	/**
+	 * Constructs pool with default capacity and no limit.
+	 */
+	public Pool() {
+		this(16, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Constructs pool with given capacity.
+	 * @param initialCapacity initial capacity of the free list
+	 * @param max maximum number of free objects, objects freed over this are dropped
+	 */
+	public Pool(int initialCapacity, int max) {
+		this.freeObjects = new ArrayList<T>(initialCapacity);
+		this.max = max;
+	}
+	
+	/**
+	 * Create new object when the pool is empty.
+	 */
+	protected abstract T newObject();
+	
+	/**
+	 * Called when the object is returned to the pool.
+	 * Calls Poolable#reset() by default.
+	 */
+	protected void reset(T object) {
+		if (object instanceof Poolable) {
+			((Poolable)object).reset();
+		}
+	}
+	
+	/**
+	 * Returns free object, or new object if no objects are free.
+	 */
+	public synchronized T obtain() {
+		int size = freeObjects.size();
+		return size == 0 ? newObject() : freeObjects.remove(size - 1);
+	}
+	
+	/**
+	 * Return the object to the pool.
+	 * @param object object obtained from this pool
+	 */
+	public synchronized void free(T object) {
+		if (object == null) {
+			throw new IllegalArgumentException("object cannot be null.");
+		}
+		if (freeObjects.size() < max) {
+			reset(object);
+			freeObjects.add(object);
+			peak = Math.max(peak, freeObjects.size());
+		}
+	}
+	
+	/**
+	 * Create objects until given number of objects are free.
+	 * @param count number of free objects
+	 */
+	public synchronized void fill(int count) {
+		int n = Math.min(count, max);
+		freeObjects.ensureCapacity(n);
+		while (freeObjects.size() < n) {
+			freeObjects.add(newObject());
+		}
+		peak = Math.max(peak, freeObjects.size());
+	}
+	
+	/**
+	 * Remove all free objects.
+	 */
+	public synchronized void clear() {
+		freeObjects.clear();
+	}
+	
+	/**
+	 * Returns number of free objects
+	 */
+	public synchronized int getFree() {
+		return freeObjects.size();
+	}
+	
+	/**
+	 * Returns the highest number of free objects
+	 */
+	public synchronized int getPeak() {
+		return peak;
+	}
+}
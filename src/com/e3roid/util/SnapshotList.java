@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.util;
+
+import java.lang.reflect.Array;
+
+/**
+ * Copy-on-write list for listeners and other lists that are iterated every frame
+ * and rarely modified.
+ * Modification copies the backing array, and snapshot() returns the current array
+ * which is never modified afterwards, so iterating it allocates nothing, needs no lock
+ * and is safe while the list is modified by listeners or other threads.
+ * 
+ * <pre>
+ * FrameListener[] listeners = frameListeners.snapshot();
+ * for (int i = 0; i &lt; listeners.length; i++) {
+ *     listeners[i].onFrame(...);
+ * }
+ * </pre>
+ */
+public class SnapshotList<T> {
+
+	private final T[] empty;
+	private volatile T[] items;
+	
+	/**
+	 * Constructs empty list.
+	 * @param type class of the items, used to create typed arrays
+	 */
+	@SuppressWarnings("unchecked")
+	public SnapshotList(Class<T> type) {
+		this.empty = (T[])Array.newInstance(type, 0);
+		this.items = empty;
+	}
+	
+	/**
+	 * Returns current items. The returned array must not be modified.
+	 */
+	public T[] snapshot() {
+		return items;
+	}
+	
+	/**
+	 * Add item to the end of the list.
+	 */
+	public synchronized boolean add(T item) {
+		T[] current = items;
+		T[] copy = copyOf(current, current.length + 1);
+		copy[current.length] = item;
+		items = copy;
+		return true;
+	}
+	
+	/**
+	 * Remove first occurrence of the item.
+	 * @return true if the item has been removed
+	 */
+	public synchronized boolean remove(Object item) {
+		T[] current = items;
+		int index = indexOf(current, item);
+		if (index < 0) return false;
+		T[] copy = copyOf(current, current.length - 1);
+		System.arraycopy(current, index + 1, copy, index, current.length - index - 1);
+		items = copy;
+		return true;
+	}
+	
+	/**
+	 * Remove all items.
+	 */
+	public synchronized void clear() {
+		items = empty;
+	}
+	
+	public boolean contains(Object item) {
+		return indexOf(items, item) >= 0;
+	}
+	
+	public boolean isEmpty() {
+		return items.length == 0;
+	}
+	
+	public int size() {
+		return items.length;
+	}
+	
+	private T[] copyOf(T[] current, int length) {
+		@SuppressWarnings("unchecked")
+		T[] copy = (T[])Array.newInstance(current.getClass().getComponentType(), length);
+		System.arraycopy(current, 0, copy, 0, Math.min(current.length, length));
+		return copy;
+	}
+	
+	private static int indexOf(Object[] items, Object item) {
+		for (int i = 0; i < items.length; i++) {
+			if (item == null ? items[i] == null : item.equals(items[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
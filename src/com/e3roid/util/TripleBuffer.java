@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2010-2011 e3roid project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * * Neither the name of the project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package com.e3roid.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free exchange of three buffers between one writer thread and one reader thread.
+ * The writer fills the buffer at writeIndex() and calls publish(),
+ * the reader calls acquire() to switch readIndex() to the latest published buffer.
+ * Neither side ever waits for the other and the reader never sees a buffer
+ * that is still being written.
+ */
+public class TripleBuffer {
+
+	/**
+	 * Number of buffers
+	 */
+	public static final int SIZE = 3;
+
+	// lower bits hold the index of the published buffer,
+	// FRESH is set when it has not been acquired yet.
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4;
+
+	private final AtomicInteger published = new AtomicInteger(1);
+	private int writeIndex = 0;
+	private int readIndex  = 2;
+
+	/**
+	 * Returns index of the buffer the writer fills next.
+	 * @return index of the buffer for writing
+	 */
+	public int writeIndex() {
+		return writeIndex;
+	}
+
+	/**
+	 * Returns index of the buffer the reader currently owns.
+	 * @return index of the buffer for reading
+	 */
+	public int readIndex() {
+		return readIndex;
+	}
+
+	/**
+	 * Publish the buffer at writeIndex() and take another buffer for writing.
+	 * Called from the writer thread.
+	 */
+	public void publish() {
+		writeIndex = published.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+	}
+
+	/**
+	 * Switch readIndex() to the latest published buffer.
+	 * Called from the reader thread.
+	 * @return true if a new buffer has been published since last call, false otherwise.
+	 */
+	public boolean acquire() {
+		if ((published.get() & FRESH) == 0) {
+			return false;
+		}
+		readIndex = published.getAndSet(readIndex) & INDEX_MASK;
+		return true;
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+* Copyright (c) 2009 Luaj.org. All rights reserved.
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2;
+
+/** 
+ * Implementation of lua coroutines that run on the thread of the caller.
+ * <p>
+ * Instead of a java thread per coroutine, a yield unwinds the java stack 
+ * down to {@link #resume(Varargs)}, saving the state of each interpreted 
+ * frame on the way, and the next resume continues those frames from the 
+ * call instruction where they stopped. Resume and yield cost an exception 
+ * and no context switch, and a suspended coroutine holds only its frames.
+ * <p>
+ * As in standard Lua 5.1 only frames of lua functions called from lua code 
+ * can be suspended, so a yield from inside a metamethod, an iterator of a 
+ * generic for, a function called from java such as pcall or table.sort, 
+ * or a function compiled to java bytecode raises 
+ * "attempt to yield across metamethod/C-call boundary". 
+ * {@link LuaThread} has no such restriction.
+ */
+public class ContinuationThread extends LuaThread {
+	
+	/** Interpreter frame suspended by a yield, waiting for the result of its call instruction */
+	static final class Frame {
+		final LuaClosure closure;
+		final LuaValue[] stack;
+		final Varargs varargs;
+		final UpValue[] openups;
+		final int pc;
+		final Frame inner;
+		
+		Frame(LuaClosure closure, LuaValue[] stack, Varargs varargs, UpValue[] openups, int pc, Frame inner) {
+			this.closure = closure;
+			this.stack = stack;
+			this.varargs = varargs;
+			this.openups = openups;
+			this.pc = pc;
+			this.inner = inner;
+		}
+	}
+	
+	/** Thrown by yield to unwind the frames of the coroutine, collecting them from the inside out */
+	static final class Yield extends Error {
+		private static final long serialVersionUID = 1L;
+		final Varargs args;
+		Frame frames;
+		
+		Yield(Varargs args) {
+			this.args = args;
+		}
+		
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	// outermost suspended frame, null when suspended at the call of the body itself
+	private Frame frames;
+	private boolean started;
+	
+	public ContinuationThread(LuaValue func, LuaValue env) {
+		super(func, env);
+	}
+
+	public boolean canYield(LuaValue function) {
+		boolean direct = callee == function;
+		callee = null;
+		return direct && nonresumable == 0;
+	}
+
+	public Varargs yield(Varargs args) {
+		if ( status != STATUS_RUNNING )
+			error(this+" not running");
+		status = STATUS_SUSPENDED;
+		throw new Yield(args);
+	}
+
+	/** Start or resume this thread */
+	public Varargs resume(Varargs args) {
+		if ( status == STATUS_DEAD )
+			return varargsOf(FALSE, valueOf("cannot resume dead coroutine"));
+		if ( status != STATUS_SUSPENDED )
+			return varargsOf(FALSE, valueOf("cannot resume non-suspended coroutine"));
+		
+		// set prior thread to normal status while we are running
+		LuaThread prior = running_thread;
+		prior.status = STATUS_NORMAL;
+		running_thread = this;
+		this.status = STATUS_RUNNING;
+		try {
+			Varargs result;
+			if ( ! started ) {
+				started = true;
+				callee = func;
+				result = func.invoke(args);
+			} else if ( frames != null ) {
+				Frame f = frames;
+				frames = null;
+				callee = null;
+				result = f.closure.resume(f, args).eval();
+			} else {
+				// the body was suspended in its final call, which returns the values passed in
+				result = args;
+			}
+			status = STATUS_DEAD;
+			return varargsOf(TRUE, result);
+			
+		} catch ( Yield y ) {
+			frames = y.frames;
+			return varargsOf(TRUE, y.args);
+			
+		} catch ( Throwable t ) {
+			status = STATUS_DEAD;
+			frames = null;
+			String msg = t.getMessage();
+			return varargsOf(FALSE, valueOf(msg!=null? msg: t.toString()));
+			
+		} finally {
+			// previous thread is now running again
+			running_thread = prior;
+			prior.status = STATUS_RUNNING;
+		}
+	}
+}
@@ -112,13 +112,6 @@ public class LuaClosure extends LuaFunction {
 	
 	
 	protected Varargs execute( LuaValue[] stack, Varargs varargs ) {
-		// loop through instructions
-		int i,a,b,c,pc=0,top=0;
-		LuaValue o;
-		Varargs v = NONE;
-		int[] code = p.code;
-		LuaValue[] k = p.k;
-		
 		// upvalues are only possible when closures create closures
 		UpValue[] openups = p.p.length>0? new UpValue[stack.length]: null;
 		
@@ -130,9 +123,46 @@ public class LuaClosure extends LuaFunction {
 		if (DebugLib.DEBUG_ENABLED) 
 			DebugLib.debugSetupCall(varargs, stack);
 
+		return execute( stack, varargs, openups, null, null );
+	}
+	
+	/** Continue a frame that was suspended by a yield, with the values passed to resume */
+	Varargs resume( ContinuationThread.Frame frame, Varargs args ) {
+		// debug wants args of the resumed frame, as for a new call
+		if (DebugLib.DEBUG_ENABLED) 
+			DebugLib.debugSetupCall(frame.varargs, frame.stack);
+
+		return execute( frame.stack, frame.varargs, frame.openups, frame, args );
+	}
+	
+	private Varargs execute( LuaValue[] stack, Varargs varargs, UpValue[] openups, ContinuationThread.Frame frame, Varargs resumeArgs ) {
+		// loop through instructions
+		int i,a,b,c,pc=0,top=0;
+		LuaValue o;
+		Varargs v = NONE;
+		int[] code = p.code;
+		LuaValue[] k = p.k;
+		
 		// process instructions
+		boolean resumable = frame != null || LuaThread.enterFrame( this );
 		LuaThread.onCall( this ); 
 		try {
+			if ( frame != null ) {
+				// finish the call instruction that was suspended
+				pc = frame.pc;
+				i = code[pc++];
+				a = ((i>>6) & 0xff);
+				v = frame.inner != null? 
+						frame.inner.closure.resume(frame.inner, resumeArgs).eval(): 
+						resumeArgs;
+				if ( (c = (i>>14)&0x1ff) > 0 ) {
+					while ( --c > 0 )
+						stack[a+c-1] = v.arg(c);
+					v = NONE;
+				} else {
+					top = a + v.narg();
+				}
+			}
 			while ( true ) {
 				if (DebugLib.DEBUG_ENABLED) 
 					DebugLib.debugBytecode(pc, v, top);
@@ -280,6 +310,7 @@ public class LuaClosure extends LuaFunction {
 					continue;
 					
 				case Lua.OP_CALL: /*	A B C	R(A), ... ,R(A+C-2):= R(A)(R(A+1), ... ,R(A+B-1)) */
+					LuaThread.callee = stack[a];
 					switch ( i & (Lua.MASK_B | Lua.MASK_C) ) {
 					case (1<<Lua.POS_B) | (0<<Lua.POS_C): v=stack[a].invoke(NONE); top=a+v.narg(); continue;
 					case (2<<Lua.POS_B) | (0<<Lua.POS_C): v=stack[a].invoke(stack[a+1]); top=a+v.narg(); continue;
@@ -432,6 +463,11 @@ public class LuaClosure extends LuaFunction {
 					continue;				
 				}
 			}
+		} catch ( ContinuationThread.Yield y ) {
+			// save the frame at its call instruction, upvalues stay open
+			y.frames = new ContinuationThread.Frame(this, stack, varargs, openups, pc-1, y.frames);
+			openups = null;
+			throw y;
 		} catch ( LuaError le ) {
 			throw le;
 		} catch ( Throwable t ) {
@@ -439,6 +475,7 @@ public class LuaClosure extends LuaFunction {
 			throw le;
 		} finally {
 			LuaThread.onReturn();
+			LuaThread.leaveFrame( resumable );
 			if ( openups != null )
 				for ( int u=openups.length; --u>=0; )
 					if ( openups[u] != null )
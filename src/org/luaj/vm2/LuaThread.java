@@ -27,27 +27,28 @@ import org.luaj.vm2.lib.DebugLib;
 
 /** 
  * Implementation of lua coroutines using Java Threads
+ * @see ContinuationThread
  */
 public class LuaThread extends LuaValue implements Runnable {
 	
 	public static LuaValue s_metatable;
 	
-	private static final int STATUS_SUSPENDED     = 0;
-	private static final int STATUS_RUNNING       = 1;
-	private static final int STATUS_NORMAL        = 2;
-	private static final int STATUS_DEAD          = 3;
-	private static final int STATUS_ERROR         = 4;
+	static final int STATUS_SUSPENDED     = 0;
+	static final int STATUS_RUNNING       = 1;
+	static final int STATUS_NORMAL        = 2;
+	static final int STATUS_DEAD          = 3;
+	static final int STATUS_ERROR         = 4;
 	private static final String[] STATUS_NAMES = { 
 		"suspended", 
 		"running", 
 		"normal", 
 		"dead" };
 	
-	private int status = STATUS_SUSPENDED;
+	int status = STATUS_SUSPENDED;
 	
 	private Thread thread;
 	private LuaValue env;
-	private LuaValue func;
+	LuaValue func;
 	private Varargs args;
 	public LuaValue err;
 	
@@ -59,7 +60,14 @@ public class LuaThread extends LuaValue implements Runnable {
 	private static final LuaThread mainthread = new LuaThread();
 	
 	// state of running thread including call stack
-	private static LuaThread       running_thread    = mainthread;
+	static LuaThread               running_thread    = mainthread;
+
+	// function about to be called by a CALL instruction, 
+	// used to tell frames that can be suspended by ContinuationThread
+	static LuaValue                callee;
+	
+	// frames of this thread on the java stack that can not be suspended
+	int                            nonresumable;
 
 	// thread-local used by DebugLib to store debugging state
 	public Object debugState;
@@ -140,6 +148,34 @@ public class LuaThread extends LuaValue implements Runnable {
 			DebugLib.debugOnReturn(running_thread, running_thread.calls);
 	}
 
+	/** 
+	 * Record the entry of an interpreted frame.
+	 * @return true if the frame was called directly by a CALL instruction 
+	 * of another such frame, so its state can be saved by a yield 
+	 */
+	static final boolean enterFrame(LuaFunction function) {
+		if ( callee == function ) {
+			callee = null;
+			return true;
+		}
+		callee = null;
+		running_thread.nonresumable++;
+		return false;
+	}
+
+	static final void leaveFrame(boolean resumable) {
+		if ( ! resumable )
+			running_thread.nonresumable--;
+	}
+
+	/** 
+	 * Test if the running coroutine may yield when function is the yield function being called.
+	 * Threads backed by a java thread can yield from anywhere.
+	 */
+	public boolean canYield(LuaValue function) {
+		return true;
+	}
+
 	public static int getCallstackDepth() {
 		return running_thread.calls;
 	}
@@ -43,6 +43,7 @@ public class TailcallVarargs extends Varargs {
 	
 	public Varargs eval() {
 		while ( result == null ) {
+			LuaThread.callee = func;
 			Varargs r = func.onInvoke(args);
 			if (r.isTailcall()) {
 				TailcallVarargs t = (TailcallVarargs) r;
@@ -21,11 +21,16 @@
 ******************************************************************************/
 package org.luaj.vm2.lib;
 
+import org.luaj.vm2.ContinuationThread;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaThread;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
+/**
+ * Coroutine library, coroutines run on their own java thread.
+ * Load {@link Continuations} instead to run them on the thread of the caller.
+ */
 public class CoroutineLib extends VarArgFunction {
 	
 	private static final int INIT    = 0;
@@ -40,9 +45,25 @@ public class CoroutineLib extends VarArgFunction {
 	public CoroutineLib() {
 	}
 
+	/**
+	 * Coroutine library with coroutines that run on the thread of the caller,
+	 * which makes resume and yield cheap but limits yield to lua frames.
+	 * @see ContinuationThread
+	 */
+	public static class Continuations extends CoroutineLib {
+		protected LuaThread createThread(LuaValue func, LuaValue env) {
+			return new ContinuationThread(func, env);
+		}
+	}
+
+	/** Create the thread that runs a coroutine */
+	protected LuaThread createThread(LuaValue func, LuaValue env) {
+		return new LuaThread(func, env);
+	}
+
 	private LuaTable init() {
 		LuaTable t = new LuaTable();
-		bind(t, CoroutineLib.class, new  String[] {
+		bind(t, getClass(), new  String[] {
 			"create", "resume", "running", "status", "yield", "wrap" },
 			CREATE);
 		env.set("coroutine", t);
@@ -57,7 +78,7 @@ public class CoroutineLib extends VarArgFunction {
 			}
 			case CREATE: {
 				final LuaValue func = args.checkfunction(1);
-				return new LuaThread(func, LuaThread.getGlobals() );
+				return createThread(func, LuaThread.getGlobals() );
 			}
 			case RESUME: {
 				final LuaThread t = args.checkthread(1);
@@ -74,11 +95,13 @@ public class CoroutineLib extends VarArgFunction {
 				final LuaThread r = LuaThread.getRunning();
 				if ( LuaThread.isMainThread( r ) )
 					error("main thread can't yield");
+				if ( ! r.canYield( this ) )
+					error("attempt to yield across metamethod/C-call boundary");
 				return r.yield( args );
 			}
 			case WRAP: {
 				final LuaValue func = args.checkfunction(1);
-				final LuaThread thread = new LuaThread(func, func.getfenv());
+				final LuaThread thread = createThread(func, func.getfenv());
 				CoroutineLib cl = new CoroutineLib();
 				cl.setfenv(thread);
 				cl.name = "wrapped";
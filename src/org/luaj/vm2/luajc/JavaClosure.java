@@ -0,0 +1,106 @@
+/*******************************************************************************
+* Copyright (c) 2009 Luaj.org. All rights reserved.
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.luajc;
+
+import org.luaj.vm2.Lua;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaThread;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.UpValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Base class of the closures generated by {@link LuaJC}.
+ * <p>
+ * A generated subclass implements {@link #run(LuaValue[], Varargs, UpValue[])} 
+ * as straight-line Java bytecode translated from the instructions of its 
+ * {@link Prototype}, while this class keeps the calling protocol of the 
+ * interpreter so generated and interpreted closures can call each other 
+ * and share upvalues freely.
+ */
+public abstract class JavaClosure extends LuaClosure {
+
+	/** Supply the initial environment */
+	public JavaClosure(Prototype p, LuaValue env) {
+		super( p, env );
+	}
+
+	protected Varargs execute( LuaValue[] stack, Varargs varargs ) {
+		
+		// upvalues are only possible when closures create closures
+		UpValue[] openups = p.p.length>0? new UpValue[stack.length]: null;
+		
+		// create varargs "arg" table
+		if ( p.is_vararg >= Lua.VARARG_NEEDSARG )
+			stack[p.numparams] = new LuaTable(varargs);
+
+		LuaThread.onCall( this ); 
+		try {
+			return run( stack, varargs, openups );
+		} catch ( LuaError le ) {
+			throw le;
+		} catch ( Throwable t ) {
+			LuaError le = new LuaError(t);
+			throw le;
+		} finally {
+			LuaThread.onReturn();
+			if ( openups != null )
+				for ( int u=openups.length; --u>=0; )
+					if ( openups[u] != null )
+						openups[u].close();
+		}
+	}
+
+	/** 
+	 * Generated body of the function.
+	 * @param stack registers of the call, with the fixed arguments in place 
+	 * @param varargs the extra arguments when the function is a vararg function
+	 * @param openups open upvalues, or null when the prototype has no inner functions
+	 */
+	protected abstract Varargs run( LuaValue[] stack, Varargs varargs, UpValue[] openups );
+
+	// ================= runtime support for generated code =================
+
+	/** Find or create the open upvalue for a register */
+	public static UpValue openUpValue( UpValue[] openups, LuaValue[] stack, int index ) {
+		UpValue u = openups[index];
+		return u!=null? u: (openups[index] = new UpValue(stack,index));
+	}
+
+	/** Close all open upvalues at or above a register */
+	public static void close( UpValue[] openups, int a ) {
+		for ( int b=openups.length; --b>=a; )
+			if ( openups[b]!=null ) {
+				openups[b].close();
+				openups[b] = null;
+			}
+	}
+
+	/** Store a variable length list of values into a table starting after offset */
+	public static void setlist( LuaValue table, int offset, Varargs v ) {
+		for ( int j=1, n=v.narg(); j<=n; j++ )
+			table.set(offset+j, v.arg(j));
+	}
+}
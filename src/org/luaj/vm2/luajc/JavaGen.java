@@ -0,0 +1,683 @@
+/*******************************************************************************
+* Copyright (c) 2009 Luaj.org. All rights reserved.
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.luajc;
+
+import org.luaj.vm2.Lua;
+import org.luaj.vm2.Prototype;
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+
+/**
+ * Translates one {@link Prototype} and its inner prototypes into 
+ * Java class files, one class per Lua function.
+ * <p>
+ * Each Lua instruction becomes a short sequence of calls on {@link org.luaj.vm2.LuaValue}
+ * that mirrors {@link org.luaj.vm2.LuaClosure#execute}, so the semantics 
+ * (metatables, coercions, errors) stay those of the interpreter while the 
+ * opcode dispatch and operand decoding disappear.
+ * Constants are held in static fields of the generated class, and when 
+ * the function has no inner functions its registers live in Java locals 
+ * where the JIT can keep them in machine registers.
+ * <p>
+ * A prototype that can not be translated throws {@link Unsupported}, 
+ * or the class file writer fails when the method gets too large; 
+ * an inner prototype in that case is created as an interpreted 
+ * {@link org.luaj.vm2.LuaClosure} instead.
+ */
+public class JavaGen {
+
+	/** Thrown when a prototype can not be translated */
+	public static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public Unsupported(String message) {
+			super(message);
+		}
+	}
+
+	private static final String LUAVALUE   = "org.luaj.vm2.LuaValue";
+	private static final String VARARGS    = "org.luaj.vm2.Varargs";
+	private static final String UPVALUE    = "org.luaj.vm2.UpValue";
+	private static final String CLOSURE    = "org.luaj.vm2.LuaClosure";
+	private static final String FUNCTION   = "org.luaj.vm2.LuaFunction";
+	private static final String JAVACLOSURE = "org.luaj.vm2.luajc.JavaClosure";
+	private static final String TAILCALL   = "org.luaj.vm2.TailcallVarargs";
+	private static final String BUFFER     = "org.luaj.vm2.Buffer";
+
+	private static final String TYPE_LUAVALUE = "Lorg/luaj/vm2/LuaValue;";
+	private static final String TYPE_VARARGS  = "Lorg/luaj/vm2/Varargs;";
+	private static final String TYPE_PROTO    = "Lorg/luaj/vm2/Prototype;";
+	private static final String TYPE_UPVALUES = "[Lorg/luaj/vm2/UpValue;";
+	private static final String TYPE_STACK    = "[Lorg/luaj/vm2/LuaValue;";
+	private static final String TYPE_BUFFER   = "Lorg/luaj/vm2/Buffer;";
+
+	private static final String SIG_INIT   = "("+TYPE_PROTO+TYPE_LUAVALUE+")V";
+	private static final String SIG_RUN    = "("+TYPE_STACK+TYPE_VARARGS+TYPE_UPVALUES+")"+TYPE_VARARGS;
+	private static final String SIG_UNOP   = "()"+TYPE_LUAVALUE;
+	private static final String SIG_BINOP  = "("+TYPE_LUAVALUE+")"+TYPE_LUAVALUE;
+	private static final String SIG_COMPARE = "("+TYPE_LUAVALUE+")Z";
+	private static final String SIG_ARG    = "(I)"+TYPE_LUAVALUE;
+	private static final String SIG_INVOKE = "("+TYPE_VARARGS+")"+TYPE_VARARGS;
+
+	/** Name of the static method that receives the constants after the class is loaded */
+	public static final String INIT_CONSTANTS = "initk";
+
+	// local variable slots of run()
+	private static final int THIS    = 0;
+	private static final int STACK   = 1;
+	private static final int VARARG  = 2;
+	private static final int OPENUPS = 3;
+	private static final int V       = 4;
+	private static final int O       = 5;
+	private static final int TMP     = 6;
+	private static final int R0      = 7;
+
+	/** Largest method body, so that branch offsets still fit in 16 bits */
+	private static final int MAX_CODE_LENGTH = 0x7fff;
+
+	/** Fully qualified name of the generated class */
+	public final String className;
+
+	/** Generated class file */
+	public final byte[] bytecode;
+
+	/** Prototype translated by this class */
+	public final Prototype p;
+
+	/** Generators of the inner prototypes, null where the interpreter is used */
+	public final JavaGen[] inners;
+
+	private final ClassFileWriter cfw;
+	private final boolean locals;
+	private int[] labels;
+
+	// base register of the values left in V by the previous instruction
+	private int multiBase = -1;
+	private int multiPc = -1;
+
+	public JavaGen(Prototype p, String className, String source) {
+		this.p = p;
+		this.className = className;
+		this.locals = p.p.length == 0;
+		this.inners = new JavaGen[p.p.length];
+		for ( int i=0; i<inners.length; i++ ) {
+			try {
+				inners[i] = new JavaGen(p.p[i], className+"_"+i, source);
+			} catch ( RuntimeException e ) {
+				// unsupported or too large, interpret it
+				inners[i] = null;
+			}
+		}
+		this.cfw = new ClassFileWriter(className, JAVACLOSURE, source);
+		genConstants();
+		genConstructor();
+		genRun();
+		this.bytecode = cfw.toByteArray();
+	}
+
+	private void genConstants() {
+		short flags = (short) (ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC);
+		for ( int i=0; i<p.k.length; i++ )
+			cfw.addField("k"+i, TYPE_LUAVALUE, flags);
+		cfw.startMethod(INIT_CONSTANTS, "("+TYPE_STACK+")V", flags);
+		for ( int i=0; i<p.k.length; i++ ) {
+			cfw.addALoad(0);
+			cfw.addPush(i);
+			cfw.add(ByteCode.AALOAD);
+			cfw.add(ByteCode.PUTSTATIC, className, "k"+i, TYPE_LUAVALUE);
+		}
+		cfw.add(ByteCode.RETURN);
+		cfw.stopMethod((short) 1);
+	}
+
+	private void genConstructor() {
+		cfw.startMethod("<init>", SIG_INIT, ClassFileWriter.ACC_PUBLIC);
+		cfw.addALoad(0);
+		cfw.addALoad(1);
+		cfw.addALoad(2);
+		cfw.addInvoke(ByteCode.INVOKESPECIAL, JAVACLOSURE, "<init>", SIG_INIT);
+		cfw.add(ByteCode.RETURN);
+		cfw.stopMethod((short) 3);
+	}
+
+	private void genRun() {
+		int[] code = p.code;
+		cfw.startMethod("run", SIG_RUN, ClassFileWriter.ACC_PROTECTED);
+		labels = new int[code.length+1];
+		for ( int pc=0; pc<labels.length; pc++ )
+			labels[pc] = cfw.acquireLabel();
+
+		// copy the arguments into locals
+		if ( locals ) {
+			for ( int r=0; r<p.maxstacksize; r++ ) {
+				cfw.addALoad(STACK);
+				cfw.addPush(r);
+				cfw.add(ByteCode.AALOAD);
+				cfw.addAStore(R0+r);
+			}
+		}
+
+		for ( int pc=0; pc<code.length; pc++ ) {
+			cfw.markLabel(labels[pc]);
+			if ( p.lineinfo != null && pc < p.lineinfo.length )
+				cfw.addLineNumberEntry((short) p.lineinfo[pc]);
+			pc = genInstruction(code, pc);
+		}
+		cfw.markLabel(labels[code.length]);
+		if ( cfw.getCurrentCodeOffset() > MAX_CODE_LENGTH )
+			throw new Unsupported("function too large");
+		cfw.stopMethod((short) (locals? R0+p.maxstacksize: R0));
+	}
+
+	/** Generate code for one instruction, returns the pc of the last word consumed */
+	private int genInstruction(int[] code, int pc) {
+		int i = code[pc];
+		int a = Lua.GETARG_A(i);
+		int b = Lua.GETARG_B(i);
+		int c = Lua.GETARG_C(i);
+		int bx = Lua.GETARG_Bx(i);
+		int sbx = Lua.GETARG_sBx(i);
+		switch ( Lua.GET_OPCODE(i) ) {
+		
+		case Lua.OP_MOVE:
+			loadReg(b);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_LOADK:
+			loadConstant(bx);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_LOADBOOL:
+			cfw.add(ByteCode.GETSTATIC, LUAVALUE, b!=0? "TRUE": "FALSE", "Lorg/luaj/vm2/LuaBoolean;");
+			storeReg(a);
+			if ( c != 0 )
+				cfw.add(ByteCode.GOTO, label(pc+2));
+			break;
+			
+		case Lua.OP_LOADNIL:
+			for ( ; a<=b; a++ ) {
+				loadNil();
+				storeReg(a);
+			}
+			break;
+			
+		case Lua.OP_GETUPVAL:
+			loadUpValue(b);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, UPVALUE, "getValue", SIG_UNOP);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_GETGLOBAL:
+			loadEnv();
+			loadConstant(bx);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "get", SIG_BINOP);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_GETTABLE:
+			loadReg(b);
+			loadRK(c);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "get", SIG_BINOP);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_SETGLOBAL:
+			loadEnv();
+			loadConstant(bx);
+			loadReg(a);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "set", "("+TYPE_LUAVALUE+TYPE_LUAVALUE+")V");
+			break;
+			
+		case Lua.OP_SETUPVAL:
+			loadUpValue(b);
+			loadReg(a);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, UPVALUE, "setValue", "("+TYPE_LUAVALUE+")V");
+			break;
+			
+		case Lua.OP_SETTABLE:
+			loadReg(a);
+			loadRK(b);
+			loadRK(c);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "set", "("+TYPE_LUAVALUE+TYPE_LUAVALUE+")V");
+			break;
+			
+		case Lua.OP_NEWTABLE:
+			cfw.add(ByteCode.NEW, "org.luaj.vm2.LuaTable");
+			cfw.add(ByteCode.DUP);
+			cfw.addPush(b);
+			cfw.addPush(c);
+			cfw.addInvoke(ByteCode.INVOKESPECIAL, "org.luaj.vm2.LuaTable", "<init>", "(II)V");
+			storeReg(a);
+			break;
+			
+		case Lua.OP_SELF:
+			loadReg(b);
+			cfw.addAStore(O);
+			cfw.addALoad(O);
+			storeReg(a+1);
+			cfw.addALoad(O);
+			loadRK(c);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "get", SIG_BINOP);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_ADD: genBinaryOp("add", a, b, c); break;
+		case Lua.OP_SUB: genBinaryOp("sub", a, b, c); break;
+		case Lua.OP_MUL: genBinaryOp("mul", a, b, c); break;
+		case Lua.OP_DIV: genBinaryOp("div", a, b, c); break;
+		case Lua.OP_MOD: genBinaryOp("mod", a, b, c); break;
+		case Lua.OP_POW: genBinaryOp("pow", a, b, c); break;
+			
+		case Lua.OP_UNM: genUnaryOp("neg", a, b); break;
+		case Lua.OP_NOT: genUnaryOp("not", a, b); break;
+		case Lua.OP_LEN: genUnaryOp("len", a, b); break;
+			
+		case Lua.OP_CONCAT:
+			if ( c > b+1 ) {
+				loadReg(c);
+				cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "buffer", "()"+TYPE_BUFFER);
+				while ( --c>=b ) {
+					loadReg(c);
+					cfw.add(ByteCode.SWAP);
+					cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "concat", "("+TYPE_BUFFER+")"+TYPE_BUFFER);
+				}
+				cfw.addInvoke(ByteCode.INVOKEVIRTUAL, BUFFER, "value", SIG_UNOP);
+			} else {
+				loadReg(c-1);
+				loadReg(c);
+				cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "concat", SIG_BINOP);
+			}
+			storeReg(a);
+			break;
+			
+		case Lua.OP_JMP:
+			cfw.add(ByteCode.GOTO, label(pc+1+sbx));
+			break;
+			
+		case Lua.OP_EQ: genCompare("eq_b", pc, a, b, c); break;
+		case Lua.OP_LT: genCompare("lt_b", pc, a, b, c); break;
+		case Lua.OP_LE: genCompare("lteq_b", pc, a, b, c); break;
+			
+		case Lua.OP_TEST:
+			loadReg(a);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "toboolean", "()Z");
+			cfw.add(c!=0? ByteCode.IFEQ: ByteCode.IFNE, label(pc+2));
+			break;
+			
+		case Lua.OP_TESTSET:
+			loadReg(b);
+			cfw.addAStore(O);
+			cfw.addALoad(O);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "toboolean", "()Z");
+			cfw.add(c!=0? ByteCode.IFEQ: ByteCode.IFNE, label(pc+2));
+			cfw.addALoad(O);
+			storeReg(a);
+			break;
+			
+		case Lua.OP_CALL:
+			if ( b>0 && b<=4 && (c==1 || c==2) ) {
+				// fixed arguments and at most one result
+				StringBuffer sig = new StringBuffer("(");
+				loadReg(a);
+				for ( int j=1; j<b; j++ ) {
+					loadReg(a+j);
+					sig.append(TYPE_LUAVALUE);
+				}
+				sig.append(')').append(TYPE_LUAVALUE);
+				cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "call", sig.toString());
+				if ( c == 1 )
+					cfw.add(ByteCode.POP);
+				else
+					storeReg(a);
+			} else {
+				loadReg(a);
+				genArgs(pc, a+1, b);
+				cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "invoke", SIG_INVOKE);
+				if ( c == 0 ) {
+					cfw.addAStore(V);
+					setMulti(pc, a);
+				} else if ( c == 1 ) {
+					cfw.add(ByteCode.POP);
+				} else {
+					cfw.addAStore(V);
+					for ( int j=1; j<c; j++ ) {
+						cfw.addALoad(V);
+						cfw.addPush(j);
+						cfw.addInvoke(ByteCode.INVOKEVIRTUAL, VARARGS, "arg", SIG_ARG);
+						storeReg(a+j-1);
+					}
+				}
+			}
+			break;
+			
+		case Lua.OP_TAILCALL:
+			cfw.add(ByteCode.NEW, TAILCALL);
+			cfw.add(ByteCode.DUP);
+			loadReg(a);
+			genArgs(pc, a+1, b);
+			cfw.addInvoke(ByteCode.INVOKESPECIAL, TAILCALL, "<init>", "("+TYPE_LUAVALUE+TYPE_VARARGS+")V");
+			cfw.add(ByteCode.ARETURN);
+			// the parser follows it with an unreachable RETURN A 0
+			setMulti(pc, a);
+			break;
+			
+		case Lua.OP_RETURN:
+			genArgs(pc, a, b);
+			cfw.add(ByteCode.ARETURN);
+			break;
+			
+		case Lua.OP_FORLOOP:
+			loadReg(a+2);
+			loadReg(a);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "add", SIG_BINOP);
+			cfw.addAStore(O);
+			cfw.addALoad(O);
+			loadReg(a+1);
+			loadReg(a+2);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "testfor_b", "("+TYPE_LUAVALUE+TYPE_LUAVALUE+")Z");
+			cfw.add(ByteCode.IFEQ, label(pc+1));
+			cfw.addALoad(O);
+			storeReg(a);
+			cfw.addALoad(O);
+			storeReg(a+3);
+			cfw.add(ByteCode.GOTO, label(pc+1+sbx));
+			break;
+			
+		case Lua.OP_FORPREP:
+			genCheckNumber(a, "'for' initial value must be a number");
+			cfw.addAStore(O);
+			genCheckNumber(a+1, "'for' limit must be a number");
+			storeReg(a+1);
+			genCheckNumber(a+2, "'for' step must be a number");
+			storeReg(a+2);
+			cfw.addALoad(O);
+			loadReg(a+2);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "sub", SIG_BINOP);
+			storeReg(a);
+			cfw.add(ByteCode.GOTO, label(pc+1+sbx));
+			break;
+			
+		case Lua.OP_TFORLOOP:
+			loadReg(a);
+			loadReg(a+1);
+			loadReg(a+2);
+			cfw.addInvoke(ByteCode.INVOKESTATIC, LUAVALUE, "varargsOf", "("+TYPE_LUAVALUE+TYPE_VARARGS+")"+TYPE_VARARGS);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "invoke", SIG_INVOKE);
+			cfw.addAStore(V);
+			cfw.addALoad(V);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, VARARGS, "arg1", SIG_UNOP);
+			cfw.addAStore(O);
+			cfw.addALoad(O);
+			cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "isnil", "()Z");
+			cfw.add(ByteCode.IFNE, label(pc+2));
+			cfw.addALoad(O);
+			storeReg(a+2);
+			cfw.addALoad(O);
+			storeReg(a+3);
+			for ( ; c>1; --c ) {
+				cfw.addALoad(V);
+				cfw.addPush(c);
+				cfw.addInvoke(ByteCode.INVOKEVIRTUAL, VARARGS, "arg", SIG_ARG);
+				storeReg(a+2+c);
+			}
+			break;
+			
+		case Lua.OP_SETLIST:
+			{
+				int m = b==0? multiBase(pc, a+1) - a - 1: 0;
+				if ( c == 0 )
+					c = code[++pc];
+				int offset = (c-1) * Lua.LFIELDS_PER_FLUSH;
+				loadReg(a);
+				cfw.addAStore(O);
+				if ( b == 0 ) {
+					for ( int j=1; j<=m; j++ )
+						genSetList(offset+j, a+j);
+					cfw.addALoad(O);
+					cfw.addPush(offset+m);
+					cfw.addALoad(V);
+					cfw.addInvoke(ByteCode.INVOKESTATIC, JAVACLOSURE, "setlist", "("+TYPE_LUAVALUE+"I"+TYPE_VARARGS+")V");
+				} else {
+					cfw.addALoad(O);
+					cfw.addPush(offset+b);
+					cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "presize", "(I)V");
+					for ( int j=1; j<=b; j++ )
+						genSetList(offset+j, a+j);
+				}
+			}
+			break;
+			
+		case Lua.OP_CLOSE:
+			if ( ! locals ) {
+				cfw.addALoad(OPENUPS);
+				cfw.addPush(a);
+				cfw.addInvoke(ByteCode.INVOKESTATIC, JAVACLOSURE, "close", "("+TYPE_UPVALUES+"I)V");
+			}
+			break;
+			
+		case Lua.OP_CLOSURE:
+			{
+				Prototype newp = p.p[bx];
+				String cls = inners[bx]!=null? inners[bx].className: CLOSURE;
+				cfw.add(ByteCode.NEW, cls);
+				cfw.add(ByteCode.DUP);
+				cfw.addALoad(THIS);
+				cfw.add(ByteCode.GETFIELD, CLOSURE, "p", TYPE_PROTO);
+				cfw.add(ByteCode.GETFIELD, "org.luaj.vm2.Prototype", "p", "["+TYPE_PROTO);
+				cfw.addPush(bx);
+				cfw.add(ByteCode.AALOAD);
+				loadEnv();
+				cfw.addInvoke(ByteCode.INVOKESPECIAL, cls, "<init>", SIG_INIT);
+				cfw.addAStore(O);
+				for ( int j=0; j<newp.nups; ++j ) {
+					i = code[++pc];
+					b = Lua.GETARG_B(i);
+					cfw.addALoad(O);
+					cfw.add(ByteCode.GETFIELD, CLOSURE, "upValues", TYPE_UPVALUES);
+					cfw.addPush(j);
+					if ( Lua.GET_OPCODE(i) == Lua.OP_GETUPVAL ) {
+						loadUpValue(b);
+					} else {
+						cfw.addALoad(OPENUPS);
+						cfw.addALoad(STACK);
+						cfw.addPush(b);
+						cfw.addInvoke(ByteCode.INVOKESTATIC, JAVACLOSURE, "openUpValue", 
+								"("+TYPE_UPVALUES+TYPE_STACK+"I)Lorg/luaj/vm2/UpValue;");
+					}
+					cfw.add(ByteCode.AASTORE);
+				}
+				cfw.addALoad(O);
+				storeReg(a);
+			}
+			break;
+			
+		case Lua.OP_VARARG:
+			if ( b == 0 ) {
+				cfw.addALoad(VARARG);
+				cfw.addAStore(V);
+				setMulti(pc, a);
+			} else {
+				for ( int j=1; j<b; ++j ) {
+					cfw.addALoad(VARARG);
+					cfw.addPush(j);
+					cfw.addInvoke(ByteCode.INVOKEVIRTUAL, VARARGS, "arg", SIG_ARG);
+					storeReg(a+j-1);
+				}
+			}
+			break;
+			
+		default:
+			throw new Unsupported("opcode "+Lua.GET_OPCODE(i));
+		}
+		
+		// words consumed after the instruction get labels at the next one
+		return pc;
+	}
+
+	private int label(int pc) {
+		if ( pc < 0 || pc >= labels.length )
+			throw new Unsupported("jump out of range");
+		return labels[pc];
+	}
+
+	// ================= register access =================
+
+	private void loadReg(int r) {
+		if ( locals ) {
+			cfw.addALoad(R0+r);
+		} else {
+			cfw.addALoad(STACK);
+			cfw.addPush(r);
+			cfw.add(ByteCode.AALOAD);
+		}
+	}
+
+	/** Store the value on top of the operand stack into register r */
+	private void storeReg(int r) {
+		if ( locals ) {
+			cfw.addAStore(R0+r);
+		} else {
+			cfw.addAStore(TMP);
+			cfw.addALoad(STACK);
+			cfw.addPush(r);
+			cfw.addALoad(TMP);
+			cfw.add(ByteCode.AASTORE);
+		}
+	}
+
+	private void loadConstant(int index) {
+		cfw.add(ByteCode.GETSTATIC, className, "k"+index, TYPE_LUAVALUE);
+	}
+
+	private void loadRK(int x) {
+		if ( x > 0xff )
+			loadConstant(x & 0x0ff);
+		else
+			loadReg(x);
+	}
+
+	private void loadNil() {
+		cfw.add(ByteCode.GETSTATIC, LUAVALUE, "NIL", TYPE_LUAVALUE);
+	}
+
+	private void loadEnv() {
+		cfw.addALoad(THIS);
+		cfw.add(ByteCode.GETFIELD, FUNCTION, "env", TYPE_LUAVALUE);
+	}
+
+	private void loadUpValue(int index) {
+		cfw.addALoad(THIS);
+		cfw.add(ByteCode.GETFIELD, CLOSURE, "upValues", TYPE_UPVALUES);
+		cfw.addPush(index);
+		cfw.add(ByteCode.AALOAD);
+	}
+
+	// ================= instruction helpers =================
+
+	private void genBinaryOp(String name, int a, int b, int c) {
+		loadRK(b);
+		loadRK(c);
+		cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, name, SIG_BINOP);
+		storeReg(a);
+	}
+
+	private void genUnaryOp(String name, int a, int b) {
+		loadReg(b);
+		cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, name, SIG_UNOP);
+		storeReg(a);
+	}
+
+	/** Skip the next instruction when the comparison differs from a */
+	private void genCompare(String name, int pc, int a, int b, int c) {
+		loadRK(b);
+		loadRK(c);
+		cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, name, SIG_COMPARE);
+		cfw.add(a!=0? ByteCode.IFEQ: ByteCode.IFNE, label(pc+2));
+	}
+
+	private void genCheckNumber(int r, String message) {
+		loadReg(r);
+		cfw.addPush(message);
+		cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "checknumber", "(Ljava/lang/String;)Lorg/luaj/vm2/LuaNumber;");
+	}
+
+	private void genSetList(int index, int r) {
+		cfw.addALoad(O);
+		cfw.addPush(index);
+		loadReg(r);
+		cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LUAVALUE, "set", "(I"+TYPE_LUAVALUE+")V");
+	}
+
+	/** 
+	 * Push the Varargs for registers base...base+b-2, 
+	 * or up to the values left in V by the previous instruction when b is 0.
+	 */
+	private void genArgs(int pc, int base, int b) {
+		boolean multi = b == 0;
+		int n = multi? multiBase(pc, base) - base: b - 1;
+		switch ( n ) {
+		case 0:
+			if ( multi )
+				cfw.addALoad(V);
+			else
+				cfw.add(ByteCode.GETSTATIC, LUAVALUE, "NONE", TYPE_LUAVALUE);
+			return;
+		case 1:
+			loadReg(base);
+			break;
+		default:
+			cfw.addPush(n);
+			cfw.add(ByteCode.ANEWARRAY, LUAVALUE);
+			for ( int j=0; j<n; j++ ) {
+				cfw.add(ByteCode.DUP);
+				cfw.addPush(j);
+				loadReg(base+j);
+				cfw.add(ByteCode.AASTORE);
+			}
+			break;
+		}
+		if ( multi ) {
+			cfw.addALoad(V);
+			cfw.addInvoke(ByteCode.INVOKESTATIC, LUAVALUE, "varargsOf", 
+					"("+(n==1? TYPE_LUAVALUE: TYPE_STACK)+TYPE_VARARGS+")"+TYPE_VARARGS);
+		} else if ( n > 1 ) {
+			cfw.addInvoke(ByteCode.INVOKESTATIC, LUAVALUE, "varargsOf", "("+TYPE_STACK+")"+TYPE_VARARGS);
+		}
+	}
+
+	/** Record that instruction pc left a variable number of values in V starting at register a */
+	private void setMulti(int pc, int a) {
+		multiBase = a;
+		multiPc = pc+1;
+	}
+
+	/** 
+	 * Base register of the values left in V, which the interpreter tracks with "top".
+	 * Only supported when the producer is the immediately preceding instruction.
+	 */
+	private int multiBase(int pc, int base) {
+		if ( multiPc != pc || multiBase < base )
+			throw new Unsupported("variable results not produced by the previous instruction");
+		return multiBase;
+	}
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+* Copyright (c) 2009 Luaj.org. All rights reserved.
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.luajc;
+
+import java.lang.reflect.Constructor;
+import java.util.Hashtable;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaFunction;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+
+/**
+ * Class loader that defines the classes generated for one chunk 
+ * and instantiates the closure of its main function.
+ * <p>
+ * Classes are defined on demand from the bytes produced by {@link JavaGen}, 
+ * and each class receives the constants of its prototype before first use.
+ */
+public class JavaLoader extends ClassLoader {
+
+	private final Hashtable unloaded = new Hashtable();
+
+	public JavaLoader(ClassLoader parent) {
+		super(parent);
+	}
+
+	/** Define the classes of a chunk and create its main function */
+	public LuaFunction load(JavaGen gen, LuaValue env) {
+		LuaJC.addClasses( unloaded, gen );
+		try {
+			initConstants( gen );
+			Class c = loadClass( gen.className );
+			Constructor ctor = c.getConstructor( new Class[] { Prototype.class, LuaValue.class } );
+			return (LuaFunction) ctor.newInstance( new Object[] { gen.p, env } );
+		} catch ( RuntimeException e ) {
+			throw e;
+		} catch ( Exception e ) {
+			throw new LuaError( e );
+		}
+	}
+
+	private void initConstants(JavaGen gen) throws Exception {
+		Class c = loadClass( gen.className );
+		c.getMethod( JavaGen.INIT_CONSTANTS, new Class[] { LuaValue[].class } )
+			.invoke( null, new Object[] { gen.p.k } );
+		for ( int i=0; i<gen.inners.length; i++ )
+			if ( gen.inners[i] != null )
+				initConstants( gen.inners[i] );
+	}
+
+	protected Class findClass(String name) throws ClassNotFoundException {
+		byte[] bytes = (byte[]) unloaded.remove( name );
+		if ( bytes != null )
+			return defineClass( name, bytes, 0, bytes.length );
+		return super.findClass( name );
+	}
+}
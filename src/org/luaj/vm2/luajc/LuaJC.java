@@ -0,0 +1,164 @@
+/*******************************************************************************
+* Copyright (c) 2009 Luaj.org. All rights reserved.
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.luajc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaFunction;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.LoadState.LuaCompiler;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.DebugLib;
+
+/**
+ * Compiler that translates Lua chunks into Java bytecode.
+ * <p>
+ * Chunks are parsed by {@link LuaC}, then every function prototype is 
+ * turned into a subclass of {@link JavaClosure} by {@link JavaGen} and 
+ * defined through a {@link JavaLoader}, so hot loops run as JIT compiled 
+ * code instead of through the interpreter's dispatch loop.
+ * <p>
+ * Compilation never changes what a chunk does, it falls back to 
+ * the interpreter whenever the bytecode path is not possible: 
+ * while the debug library is enabled, for chunks rejected by the 
+ * {@link ChunkFilter}, for prototypes that can not be translated, and 
+ * when classes can not be defined at runtime. The last case includes 
+ * Android, where the VM only loads dex code; there the classes returned 
+ * by {@link #compile(InputStream, String, String)} can be written out 
+ * ahead of time and converted with the dx tool.
+ */
+public class LuaJC implements LuaCompiler {
+
+	/** Chooses per chunk whether it is compiled or interpreted */
+	public interface ChunkFilter {
+		public boolean accept(String name, Prototype p);
+	}
+
+	public static final LuaJC instance = new LuaJC();
+	
+	/** Package of the generated classes */
+	public static final String PACKAGE = "lua";
+
+	private ChunkFilter filter;
+	private ClassLoader parent;
+	private boolean defineFailed;
+	
+	/** Install the compiler so that LoadState will first 
+	 * try to use it when handed bytes that are 
+	 * not already a compiled lua chunk.
+	 */
+	public static void install() {
+		LoadState.compiler = instance;
+	}
+
+	public LuaJC() {
+		this.parent = LuaJC.class.getClassLoader();
+	}
+
+	/** Set the filter that chooses the chunks to compile, null compiles every chunk */
+	public void setChunkFilter(ChunkFilter filter) {
+		this.filter = filter;
+	}
+
+	/** Set the parent of the class loaders that define the generated classes */
+	public void setParentClassLoader(ClassLoader parent) {
+		this.parent = parent;
+	}
+
+	/** Load into a Closure or LuaFunction, with the supplied initial environment */
+	public LuaFunction load(InputStream stream, String name, LuaValue env) throws IOException {
+		Prototype p = LuaC.compile( stream, name );
+		return load( p, name, env );
+	}
+
+	/** Load a prototype as compiled code when possible, interpreted otherwise */
+	public LuaFunction load(Prototype p, String name, LuaValue env) {
+		if ( DebugLib.DEBUG_ENABLED || defineFailed || (filter != null && ! filter.accept(name, p)) )
+			return new LuaClosure( p, env );
+		JavaGen gen;
+		try {
+			gen = new JavaGen( p, toClassName(name), LoadState.getSourceName(name) );
+		} catch ( RuntimeException e ) {
+			return new LuaClosure( p, env );
+		}
+		try {
+			return createLoader().load( gen, env );
+		} catch ( UnsupportedOperationException e ) {
+			// runtime without class definition such as dalvik, stop trying
+			defineFailed = true;
+		} catch ( LinkageError e ) {
+			// class rejected by the verifier, interpret this chunk
+		}
+		return new LuaClosure( p, env );
+	}
+
+	/** 
+	 * Create the class loader for one chunk, override to define classes differently.
+	 * Each chunk gets its own loader so its classes can be collected with it.
+	 */
+	protected JavaLoader createLoader() {
+		return new JavaLoader( parent );
+	}
+
+	/**
+	 * Compile a chunk ahead of time.
+	 * @param stream source or binary chunk
+	 * @param name chunk name used for errors and line information
+	 * @param className fully qualified name of the class of the main function
+	 * @return table of class name to class file bytes, for the main function and its inner functions
+	 */
+	public static Hashtable compile(InputStream stream, String name, String className) throws IOException {
+		Prototype p = LuaC.compile( stream, name );
+		Hashtable classes = new Hashtable();
+		addClasses( classes, new JavaGen( p, className, LoadState.getSourceName(name) ) );
+		return classes;
+	}
+
+	static void addClasses(Hashtable classes, JavaGen gen) {
+		classes.put( gen.className, gen.bytecode );
+		for ( int i=0; i<gen.inners.length; i++ )
+			if ( gen.inners[i] != null )
+				addClasses( classes, gen.inners[i] );
+	}
+
+	/** Make a valid Java class name from a chunk name */
+	public static String toClassName(String name) {
+		String stub = LoadState.getSourceName(name);
+		if ( stub.endsWith(".lua") )
+			stub = stub.substring(0, stub.length()-4);
+		int slash = Math.max(stub.lastIndexOf('/'), stub.lastIndexOf('\\'));
+		stub = stub.substring(slash+1);
+		StringBuffer sb = new StringBuffer(PACKAGE).append('.');
+		for ( int i=0, n=stub.length(); i<n; i++ ) {
+			char c = stub.charAt(i);
+			sb.append( (i==0? Character.isJavaIdentifierStart(c): Character.isJavaIdentifierPart(c))? c: '_' );
+		}
+		if ( stub.length() == 0 )
+			sb.append('_');
+		return sb.toString();
+	}
+}